@@ -0,0 +1,135 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.impl;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.security.KeyStore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+import net.sf.cindy.Message;
+import net.sf.cindy.Session;
+import net.sf.cindy.SessionAdapter;
+
+/**
+ * Throughput of a loopback connection, plain and then TLS. The client
+ * writes messages of the given size as fast as the write queue allows, and
+ * the server counts the received bytes. Each run is repeated and prints
+ * the rate, and the buffer pool misses of the TLS run.
+ * <p>
+ * Usage: SecureSocketBenchmark keystore password [messageSize]
+ * [messageCount]. The keystore holds the key and certificate of the
+ * server, and is trusted by the client. Run it again with
+ * -Dnet.sf.cindy.writeBatchSize=1 to wrap one message into each record,
+ * as the TLS path did before the queued messages were wrapped together.
+ * 
+ * @author Roger Chen
+ */
+public class SecureSocketBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final int MAX_QUEUED = 4096;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out
+                    .println("usage: SecureSocketBenchmark keystore password [messageSize] [messageCount]");
+            return;
+        }
+        int size = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+        int count = args.length > 3 ? Integer.parseInt(args[3]) : 200000;
+        SSLContext context = createContext(args[0], args[1].toCharArray());
+
+        run("plain", null, size, count);
+        long misses = AbstractSession.DEFAULT_BUFFER_POOL.getMissCount();
+        run("tls  ", context, size, count);
+        System.out.println("tls buffer pool misses: "
+                + (AbstractSession.DEFAULT_BUFFER_POOL.getMissCount() - misses));
+        System.exit(0);
+    }
+
+    private static SSLContext createContext(String keyStore, char[] password)
+            throws Exception {
+        KeyStore ks = KeyStore.getInstance("JKS");
+        InputStream in = new FileInputStream(keyStore);
+        try {
+            ks.load(in, password);
+        } finally {
+            in.close();
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
+        kmf.init(ks, password);
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance("SunX509");
+        tmf.init(ks);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+        return context;
+    }
+
+    private static void run(String name, SSLContext context, int size,
+            int count) throws Exception {
+        final AtomicLong received = new AtomicLong();
+        SimpleServerSocketSession server = new SimpleServerSocketSession();
+        server.setSSLContext(context);
+        server.setListenAddress(new InetSocketAddress("127.0.0.1", 0));
+        server.addSocketSessionListener(new SessionAdapter() {
+
+            public void messageReceived(Session session, Message message) {
+                received.addAndGet(((ByteArrayMessage) message).getContent().length);
+            }
+        });
+        server.start(true);
+
+        SocketSession client;
+        if (context != null) {
+            SecureSocketSession secure = new SecureSocketSession();
+            secure.setSSLContext(context);
+            client = secure;
+        } else
+            client = new SocketSession();
+        client.setSocketAddress(new InetSocketAddress("127.0.0.1", server
+                .getChannel().socket().getLocalPort()));
+        client.start(true);
+        if (context != null)
+            while (!((SecureSocketSession) client).isHandshakeCompleted())
+                Thread.sleep(1);
+
+        byte[] content = new byte[size];
+        long expected = (long) size * count;
+        for (int round = 0; round < ROUNDS; round++) {
+            received.set(0);
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                client.write(new ByteArrayMessage(content));
+                while (client.getWriteQueueSize() > MAX_QUEUED)
+                    Thread.yield();
+            }
+            while (received.get() < expected && client.isStarted())
+                Thread.sleep(1);
+            long elapsed = Math.max((System.nanoTime() - start) / 1000000, 1);
+            System.out.println(name + " size=" + size + " round=" + round
+                    + " " + elapsed + "ms " + expected * 1000 / elapsed
+                    / (1024 * 1024) + "MB/s");
+        }
+        client.close(true);
+        server.close(true);
+    }
+}
\ No newline at end of file
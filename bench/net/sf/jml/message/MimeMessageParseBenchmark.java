@@ -0,0 +1,110 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.jml.message;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.Random;
+
+import net.sf.jml.MsnProtocol;
+import net.sf.jml.message.p2p.MsnP2PDataMessage;
+import net.sf.jml.message.p2p.MsnP2PSlpMessage;
+import net.sf.jml.protocol.MsnMessage;
+import net.sf.jml.protocol.msnslp.MsnslpRequest;
+
+/**
+ * Parse received MSG payloads with MsnMimeMessageFactory and print the bytes
+ * allocated and the time spent per parse. The payloads are a P2P data frame
+ * carrying 1,200 bytes, the usual file transfer chunk, and a MSNSLP INVITE.
+ * <p>
+ * Usage: MimeMessageParseBenchmark [iterations], default 500000. Allocation
+ * is read from com.sun.management.ThreadMXBean, so a HotSpot based JVM is
+ * needed. From JDK 16 StringUtils needs
+ * --add-exports java.base/sun.security.action=ALL-UNNAMED.
+ * 
+ * @author Roger Chen
+ */
+public class MimeMessageParseBenchmark {
+
+    private static final int DEFAULT_ITERATIONS = 500000;
+
+    private static final int DATA_LENGTH = 1200;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0])
+                : DEFAULT_ITERATIONS;
+
+        byte[] data = new byte[DATA_LENGTH];
+        new Random(0).nextBytes(data);
+        run("p2p data", toBytes(new MsnP2PDataMessage(1, 1, 0, 50000, data,
+                "b@example.com")), iterations);
+        run("slp invite", toBytes(createInvite()), iterations);
+    }
+
+    private static MsnP2PSlpMessage createInvite() throws Exception {
+        MsnslpRequest request = new MsnslpRequest();
+        request.setRequestMethod("INVITE");
+        request.setRequestURI("MSNMSGR:b@example.com");
+        request.setTo("<msnmsgr:b@example.com>");
+        request.setFrom("<msnmsgr:a@example.com>");
+        request.setCSeq(0);
+        request.setCallId("{3B3F5E37-4C5A-4B2A-9A9C-2F6C1B0E7D11}");
+        request.setContentType("application/x-msnmsgr-sessionreqbody");
+        request.setBody("EUF-GUID: {5D3E02AB-6190-11D3-BBBB-00C04F795683}\r\n"
+                + "SessionID: 1\r\nAppID: 2\r\n\r\n\0");
+
+        MsnP2PSlpMessage message = new MsnP2PSlpMessage();
+        message.setSlpMessage(request);
+        message.setP2PDest("b@example.com");
+        int length = request.toString().getBytes("UTF-8").length;
+        message.setTotalLength(length);
+        message.setCurrentLength(length);
+        message.setIdentifier(1);
+        return message;
+    }
+
+    /**
+     * Get the payload which the message would be sent with, that is what
+     * the factory gets on the other side.
+     */
+    private static byte[] toBytes(MsnMimeMessage message) throws Exception {
+        Method method = MsnMessage.class.getDeclaredMethod("getChunkData");
+        method.setAccessible(true);
+        return (byte[]) method.invoke(message
+                .toOutgoingMsg(MsnProtocol.MSNP11)[0]);
+    }
+
+    private static void run(String name, byte[] message, int iterations)
+            throws Exception {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        for (int i = 0; i < iterations / 2; i++) //warm up
+            MsnMimeMessageFactory.parseMessage(message);
+
+        long allocatedBegin = bean.getThreadAllocatedBytes(threadId);
+        long begin = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+            MsnMimeMessageFactory.parseMessage(message);
+        long end = System.nanoTime();
+        long allocatedEnd = bean.getThreadAllocatedBytes(threadId);
+
+        System.out.println(name + " " + message.length + "B: "
+                + (allocatedEnd - allocatedBegin) / iterations + " B/op, "
+                + (end - begin) / iterations + " ns/op");
+    }
+}
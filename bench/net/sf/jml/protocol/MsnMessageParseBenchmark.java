@@ -0,0 +1,219 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.jml.protocol;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.StringTokenizer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.sf.cindy.util.ByteBufferUtils;
+import net.sf.jml.MsnProtocol;
+import net.sf.jml.protocol.incoming.IncomingILN;
+import net.sf.jml.protocol.incoming.IncomingMSG;
+import net.sf.jml.protocol.incoming.IncomingNLN;
+import net.sf.jml.util.Charset;
+import net.sf.jml.util.JmlConstants;
+import net.sf.jml.util.NumberUtils;
+
+/**
+ * Parse received NLN, ILN and MSG command lines with the byte level parser
+ * of MsnMessage.load, and with the regex and StringTokenizer parser it
+ * replaced, and print the bytes allocated and the time spent per line.
+ * Each line is parsed into a new message with the line length given, as the
+ * frame decoder does, then the command, transaction id and every parameter
+ * are read, so the lazy decoding of the new parser is paid too.
+ * <p>
+ * Usage: MsnMessageParseBenchmark [iterations], default 1000000. Allocation
+ * is read from com.sun.management.ThreadMXBean, so a HotSpot based JVM is
+ * needed. From JDK 16 StringUtils needs
+ * --add-exports java.base/sun.security.action=ALL-UNNAMED.
+ *
+ * @author Roger Chen
+ */
+public class MsnMessageParseBenchmark {
+
+    private static final int DEFAULT_ITERATIONS = 1000000;
+
+    private static final MsnProtocol PROTOCOL = MsnProtocol.MSNP11;
+
+    private static final String NLN = "NLN NLN alice@example.com 1 "
+            + "Alice%20Smith 1342177312 %3Cmsnobj%20Creator%3D%22alice%40"
+            + "example.com%22%20Size%3D%2224539%22%20Type%3D%223%22%20"
+            + "Location%3D%22TFR2C.tmp%22%20Friendly%3D%22AAA%3D%22%20"
+            + "SHA1D%3D%22trC8SlFx2sWQxZMIBAWSEnXc8oQ%3D%22%2F%3E\r\n";
+
+    private static final String ILN = "ILN 9 BSY bob@example.com 1 "
+            + "Bob%20Jones 1342177280\r\n";
+
+    private static final String MSG_BODY = "MIME-Version: 1.0\r\n"
+            + "Content-Type: text/x-msmsgscontrol\r\n"
+            + "TypingUser: carol@example.com\r\n\r\n\r\n";
+
+    private static final String MSG = "MSG carol@example.com Carol "
+            + MSG_BODY.length() + "\r\n" + MSG_BODY;
+
+    /**
+     * The parser before MsnMessage.load worked on bytes.
+     */
+    private static final Pattern noChunkPattern = Pattern
+            .compile("(\\S{3})(.*)");
+
+    private static final Pattern chunkPattern = Pattern
+            .compile("(\\S{3})(.*) (\\d+)");
+
+    private static final ByteBuffer split = Charset
+            .encode(JmlConstants.LINE_SEPARATOR);
+
+    private static int sink; //Keeps the reads from being optimized away
+
+    private interface Factory {
+
+        MsnMessage create();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0])
+                : DEFAULT_ITERATIONS;
+
+        run("NLN", NLN, new Factory() {
+
+            public MsnMessage create() {
+                return new IncomingNLN(PROTOCOL);
+            }
+        }, iterations);
+        run("ILN", ILN, new Factory() {
+
+            public MsnMessage create() {
+                return new IncomingILN(PROTOCOL);
+            }
+        }, iterations);
+        run("MSG", MSG, new Factory() {
+
+            public MsnMessage create() {
+                return new IncomingMSG(PROTOCOL);
+            }
+        }, iterations);
+    }
+
+    private static void run(String name, String line, Factory factory,
+            int iterations) {
+        ByteBuffer buffer = Charset.encode(line);
+        int lineLength = ByteBufferUtils.indexOf(buffer, split)
+                - buffer.position();
+        for (int i = 0; i < iterations / 2; i++) { //warm up
+            parse(factory, buffer, lineLength, false);
+            parse(factory, buffer, lineLength, true);
+        }
+        measure(name + " byte level", factory, buffer, lineLength, false,
+                iterations);
+        measure(name + " regex     ", factory, buffer, lineLength, true,
+                iterations);
+    }
+
+    private static void measure(String name, Factory factory,
+            ByteBuffer buffer, int lineLength, boolean legacy, int iterations) {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        long allocatedBegin = bean.getThreadAllocatedBytes(threadId);
+        long begin = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+            sink += parse(factory, buffer, lineLength, legacy);
+        long end = System.nanoTime();
+        long allocatedEnd = bean.getThreadAllocatedBytes(threadId);
+
+        System.out.println(name + " " + buffer.remaining() + "B: "
+                + (allocatedEnd - allocatedBegin) / iterations + " B/op, "
+                + (end - begin) / iterations + " ns/op");
+    }
+
+    /**
+     * Parse the line into a new message and read all of it.
+     */
+    private static int parse(Factory factory, ByteBuffer buffer,
+            int lineLength, boolean legacy) {
+        MsnMessage message = factory.create();
+        ByteBuffer line = buffer.duplicate();
+        boolean loaded;
+        if (legacy)
+            loaded = legacyLoad(message, line, lineLength);
+        else {
+            message.setFrameLineLength(lineLength);
+            loaded = message.load(line);
+        }
+        if (!loaded)
+            throw new IllegalStateException("line not parsed");
+        int n = message.getCommand().length() + message.getTransactionId();
+        for (int i = 0; i < message.getParamCount(); i++)
+            n += message.getParam(i).length();
+        return n;
+    }
+
+    /**
+     * MsnMessage.load as it was before it parsed bytes: the whole line is
+     * decoded, matched by a regex and split by a StringTokenizer.
+     */
+    private static boolean legacyLoad(MsnMessage message, ByteBuffer buffer,
+            int lineLength) {
+        int index = buffer.position() + lineLength;
+
+        String s = Charset.decode((ByteBuffer) buffer.slice().limit(
+                index - buffer.position()));
+        Matcher matcher;
+        if (message.isSupportChunkData())
+            matcher = chunkPattern.matcher(s);
+        else
+            matcher = noChunkPattern.matcher(s);
+
+        if (!matcher.matches()) //Not match
+            return false;
+        if (message.isSupportChunkData()) { //Check chunk data is completed
+            int chunkLen = NumberUtils.stringToInt(matcher.group(3));
+            if (buffer.limit() < index + split.remaining() + chunkLen)
+                return false;
+            buffer.position(index + split.remaining());
+
+            byte[] chunkData = new byte[chunkLen];
+            buffer.get(chunkData);
+            message.setChunkData(chunkData);
+        } else {
+            buffer.position(index + split.remaining());
+        }
+
+        message.setCommand(matcher.group(1));
+        String params = matcher.group(2);
+        if (params != null) {
+            message.clearParams();
+
+            StringTokenizer st = new StringTokenizer(params);
+            if (message.isSupportTransactionId() && st.hasMoreTokens()) {
+                String token = st.nextToken();
+                if (NumberUtils.isDigits(token)) {
+                    message.setTransactionId(NumberUtils.stringToInt(token));
+                } else {
+                    message.addParam(token);
+                }
+            }
+            while (st.hasMoreTokens()) {
+                message.addParam(st.nextToken());
+            }
+        }
+        return true;
+    }
+}
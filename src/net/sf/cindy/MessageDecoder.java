@@ -0,0 +1,45 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy;
+
+import net.sf.cindy.util.ChunkedByteBuffer;
+
+/**
+ * Inbound stage which decodes messages from the received bytes. Decoders
+ * read through the cursor of the chunked buffer, which is never sliced,
+ * and return completed messages, so a message is not parsed again by
+ * {@link Message#readFromBuffer(java.nio.ByteBuffer) readFromBuffer}.
+ * 
+ * @author Roger Chen
+ */
+public interface MessageDecoder extends SessionHandler {
+
+    /**
+     * Decode the next message. If the message is completed, consume its
+     * bytes and return it. If the message is not completed or not known
+     * by the decoder, return null without consuming any bytes, the next
+     * decoder in the pipeline will be tried.
+     * 
+     * @param session
+     * 		the session which read some data
+     * @param buffer
+     * 		the received bytes, the cursor is the start of the message
+     * @return
+     * 		the decoded message, null if not decoded
+     */
+    public Message decode(Session session, ChunkedByteBuffer buffer);
+
+}
\ No newline at end of file
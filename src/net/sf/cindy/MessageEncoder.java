@@ -0,0 +1,42 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Outbound stage which encodes a message to bytes, instead of
+ * {@link Message#toByteBuffer() Message.toByteBuffer}. Invoked in the
+ * writing thread, once per message.
+ * 
+ * @author Roger Chen
+ */
+public interface MessageEncoder extends SessionHandler {
+
+    /**
+     * Encode the message.
+     * 
+     * @param session
+     * 		the session which writes the message
+     * @param message
+     * 		the message
+     * @return
+     * 		the encoded bytes, null if the message is not known by the
+     * encoder, then the next encoder in the pipeline will be tried
+     */
+    public ByteBuffer[] encode(Session session, Message message);
+
+}
\ No newline at end of file
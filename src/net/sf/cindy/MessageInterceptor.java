@@ -0,0 +1,52 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy;
+
+/**
+ * Stage which sees the messages passing the pipeline, used for tracing,
+ * metrics or filtering. An interceptor can replace or drop a message.
+ * 
+ * @author Roger Chen
+ */
+public interface MessageInterceptor extends SessionHandler {
+
+    /**
+     * A message have been decoded, invoked in the reading thread before
+     * it is dispatched to session listeners.
+     * 
+     * @param session
+     * 		session
+     * @param message
+     * 		the received message
+     * @return
+     * 		the message passed to the next stage, null to drop it
+     */
+    public Message messageReceived(Session session, Message message);
+
+    /**
+     * A message is going to be written, invoked in the writing thread
+     * before it is queued.
+     * 
+     * @param session
+     * 		session
+     * @param message
+     * 		the written message
+     * @return
+     * 		the message passed to the next stage, null to drop it
+     */
+    public Message messageWriting(Session session, Message message);
+
+}
\ No newline at end of file
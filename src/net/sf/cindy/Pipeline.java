@@ -0,0 +1,141 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy;
+
+/**
+ * Ordered handler pipeline of a session. Inbound stages run from the first
+ * to the last, outbound stages from the last to the first, so the last
+ * stage is the nearest to the application.
+ * 
+ * <pre>
+ * 
+ *                      Application
+ *  
+ *                 Message         Message
+ *                    |               ^
+ *                    v               |
+ *           +--------+---------------+--------+
+ *           |  last   interceptors            |
+ *           |   ...                           |
+ *           |  first  encoders     decoders   |
+ *           +--------+---------------+--------+
+ *                    |               ^
+ *                    v               |
+ *              ByteBuffer[]   ChunkedByteBuffer
+ *  
+ *                        Network
+ *  
+ * </pre>
+ * 
+ * If the pipeline have no decoder, the
+ * {@link net.sf.cindy.MessageRecognizer MessageRecognizer} of the session
+ * is used. If no encoder encodes a message,
+ * {@link Message#toByteBuffer() Message.toByteBuffer} is used.
+ * <p>
+ * The pipeline can be changed at any time in any thread, the change takes
+ * effect from the next message.
+ * 
+ * @author Roger Chen
+ */
+public interface Pipeline {
+
+    /**
+     * Add the handler as the first stage.
+     * 
+     * @param name
+     * 		handler name, unique in the pipeline
+     * @param handler
+     * 		the handler
+     * @throws IllegalArgumentException
+     * 		if the name is used or the handler is null
+     */
+    public void addFirst(String name, SessionHandler handler)
+            throws IllegalArgumentException;
+
+    /**
+     * Add the handler as the last stage.
+     * 
+     * @param name
+     * 		handler name, unique in the pipeline
+     * @param handler
+     * 		the handler
+     * @throws IllegalArgumentException
+     * 		if the name is used or the handler is null
+     */
+    public void addLast(String name, SessionHandler handler)
+            throws IllegalArgumentException;
+
+    /**
+     * Add the handler before the stage of the base name.
+     * 
+     * @param baseName
+     * 		name of the existing handler
+     * @param name
+     * 		handler name, unique in the pipeline
+     * @param handler
+     * 		the handler
+     * @throws IllegalArgumentException
+     * 		if the base name is not found, the name is used or the handler
+     * is null
+     */
+    public void addBefore(String baseName, String name, SessionHandler handler)
+            throws IllegalArgumentException;
+
+    /**
+     * Add the handler after the stage of the base name.
+     * 
+     * @param baseName
+     * 		name of the existing handler
+     * @param name
+     * 		handler name, unique in the pipeline
+     * @param handler
+     * 		the handler
+     * @throws IllegalArgumentException
+     * 		if the base name is not found, the name is used or the handler
+     * is null
+     */
+    public void addAfter(String baseName, String name, SessionHandler handler)
+            throws IllegalArgumentException;
+
+    /**
+     * Remove the handler.
+     * 
+     * @param name
+     * 		handler name
+     * @return
+     * 		the removed handler, null if not found
+     */
+    public SessionHandler remove(String name);
+
+    /**
+     * Get the handler.
+     * 
+     * @param name
+     * 		handler name
+     * @return
+     * 		the handler, null if not found
+     */
+    public SessionHandler get(String name);
+
+    /**
+     * Get names of all handlers, from the first to the last.
+     * 
+     * @return
+     * 		handler names
+     */
+    public String[] getNames();
+
+}
\ No newline at end of file
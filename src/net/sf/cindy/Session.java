@@ -173,6 +173,14 @@ public interface Session {
      */
     public void setMessageRecognizer(MessageRecognizer messageRecognizer);
 
+    /**
+     * Get the handler {@link net.sf.cindy.Pipeline Pipeline} of the session.
+     * 
+     * @return
+     * 		the pipeline
+     */
+    public Pipeline getPipeline();
+
     /**
      * Set session timeout, in millisecond.
      * 
@@ -226,6 +234,60 @@ public interface Session {
      */
     public void setBufferCapacityLimit(int bufferCapacityLimit);
 
+    /**
+     * Get the high watermark of the write queue, in bytes. When the bytes
+     * queued reach it, the session becomes unwritable and new messages are
+     * handled by the {@link WriteOverflowPolicy WriteOverflowPolicy}. 0
+     * means the write queue is unbounded.
+     * 
+     * @return
+     * 		write queue high watermark
+     */
+    public int getWriteQueueHighWatermark();
+
+    /**
+     * Set the high watermark of the write queue, in bytes, 0 means the
+     * write queue is unbounded.
+     * 
+     * @param highWatermark
+     * 		write queue high watermark
+     */
+    public void setWriteQueueHighWatermark(int highWatermark);
+
+    /**
+     * Get the low watermark of the write queue, in bytes. An unwritable
+     * session becomes writable again when the bytes queued drop to it.
+     * 
+     * @return
+     * 		write queue low watermark
+     */
+    public int getWriteQueueLowWatermark();
+
+    /**
+     * Set the low watermark of the write queue, in bytes. 0 or a value
+     * greater than the high watermark means half of the high watermark.
+     * 
+     * @param lowWatermark
+     * 		write queue low watermark
+     */
+    public void setWriteQueueLowWatermark(int lowWatermark);
+
+    /**
+     * Get the policy used when the write queue is over the high watermark.
+     * 
+     * @return
+     * 		write overflow policy
+     */
+    public WriteOverflowPolicy getWriteOverflowPolicy();
+
+    /**
+     * Set the policy used when the write queue is over the high watermark.
+     * 
+     * @param policy
+     * 		write overflow policy
+     */
+    public void setWriteOverflowPolicy(WriteOverflowPolicy policy);
+
     /**
      * Add session listener.
      * 
@@ -313,6 +375,24 @@ public interface Session {
      */
     public int getWriteQueueSize();
 
+    /**
+     * Get bytes of the messages in current write queue which have not been
+     * written completely.
+     * 
+     * @return
+     * 		write queue bytes
+     */
+    public long getWriteQueueBytes();
+
+    /**
+     * The write queue is below the high watermark, or have drained to the
+     * low watermark since it reached the high watermark.
+     * 
+     * @return
+     * 		current session is writable
+     */
+    public boolean isWritable();
+
     /**
      * Write message. If the message have successfully sent, 
      * messageSent event will generate.
@@ -329,8 +409,30 @@ public interface Session {
     public void write(Message message) throws IllegalArgumentException,
             IllegalStateException;
 
+    /**
+     * Write message without blocking. The returned future completes when the
+     * message have been written, or fails when the session closed before.
+     * 
+     * @param message
+     * 		message
+     * @return
+     * 		write future
+     * @throws IllegalArgumentException
+     * 		if message is null, or need the message is
+     * not {@link net.sf.cindy.PacketMessage PacketMessage} but requires 
+     * PacketMessage
+     * @throws IllegalStateException
+     * 		if current session is not available
+     */
+    public WriteFuture writeAsync(Message message)
+            throws IllegalArgumentException, IllegalStateException;
+
     /**
      * Write message. The method will return after write message finished.
+     * When invoked by the event generator thread of the session, which can't
+     * wait for the channel, the message is written as much as the channel
+     * accepts at once. If it is not finished, false is returned and the rest
+     * is written later, use {@link #writeAsync(Message)} to know the result.
      * 
      * @param message
      * 		message
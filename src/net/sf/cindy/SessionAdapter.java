@@ -45,4 +45,8 @@ public class SessionAdapter implements SessionListener {
             throws Exception {
     }
 
+    public void sessionWritabilityChanged(Session session, boolean writable)
+            throws Exception {
+    }
+
 }
\ No newline at end of file
@@ -94,4 +94,17 @@ public interface SessionListener {
      */
     public void exceptionCaught(Session session, Throwable cause)
             throws Exception;
+
+    /**
+     * The write queue of the session reached the high watermark, or drained
+     * to the low watermark.
+     * 
+     * @param session
+     * 		session
+     * @param writable
+     * 		session is writable now
+     * @throws Exception
+     */
+    public void sessionWritabilityChanged(Session session, boolean writable)
+            throws Exception;
 }
\ No newline at end of file
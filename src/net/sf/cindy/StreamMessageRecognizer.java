@@ -0,0 +1,43 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy;
+
+import net.sf.cindy.util.ChunkedByteBuffer;
+
+/**
+ * Message recognizer which can tell the length of the next message by
+ * reading through the chunked read buffer of a stream session. Only the
+ * bytes of a completed message are then passed to 
+ * {@link MessageRecognizer#recognize(Session, java.nio.ByteBuffer) recognize}
+ * as one ByteBuffer, so a message which spans chunks is copied once, and
+ * bytes of the following messages are never copied with it.
+ * 
+ * @author Roger Chen
+ */
+public interface StreamMessageRecognizer extends MessageRecognizer {
+
+    /**
+     * Get the length of the next message, without consuming any bytes.
+     * 
+     * @param session
+     * 		The session which read some data
+     * @param buffer
+     * 		the received bytes, the cursor is the start of the message
+     * @return
+     * 		the message length, or -1 if the message is not completed
+     */
+    int getMessageLength(Session session, ChunkedByteBuffer buffer);
+}
\ No newline at end of file
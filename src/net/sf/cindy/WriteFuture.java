@@ -0,0 +1,84 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy;
+
+/**
+ * The result of an asynchronous write. Completes with success when all
+ * bytes of the message have been written, or with failure when the session
+ * is closed before that.
+ * 
+ * @author Roger Chen
+ */
+public interface WriteFuture {
+
+    /**
+     * Get the written message.
+     * 
+     * @return
+     * 		message
+     */
+    public Message getMessage();
+
+    /**
+     * The write have completed, successful or not.
+     * 
+     * @return
+     * 		write completed
+     */
+    public boolean isDone();
+
+    /**
+     * The message have been written.
+     * 
+     * @return
+     * 		write successful, false if not completed yet
+     */
+    public boolean isSuccess();
+
+    /**
+     * Wait until the write completed.
+     * 
+     * @return
+     * 		write successful
+     * @throws InterruptedException
+     * 		if current thread is interrupted
+     */
+    public boolean await() throws InterruptedException;
+
+    /**
+     * Wait until the write completed or timeout.
+     * 
+     * @param timeout
+     * 		max wait time, in millisecond
+     * @return
+     * 		write successful, false if timeout
+     * @throws InterruptedException
+     * 		if current thread is interrupted
+     */
+    public boolean await(long timeout) throws InterruptedException;
+
+    /**
+     * Add a listener which will be notified when the write completed. If
+     * the write have already completed, the listener is notified in current
+     * thread immediately, else notified by the thread which completes the
+     * write, normally the event generator thread.
+     * 
+     * @param listener
+     * 		write future listener
+     */
+    public void addListener(WriteFutureListener listener);
+
+}
\ No newline at end of file
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy;
+
+/**
+ * What a session does with a new message when its write queue is over the
+ * high watermark.
+ * 
+ * @author Roger Chen
+ */
+public final class WriteOverflowPolicy {
+
+    /**
+     * Block the writing thread until the write queue drains below the low
+     * watermark. The event generator thread is never blocked, its messages
+     * are always queued.
+     */
+    public static final WriteOverflowPolicy BLOCK = new WriteOverflowPolicy(
+            "block");
+
+    /**
+     * Throw {@link WriteQueueFullException WriteQueueFullException}.
+     */
+    public static final WriteOverflowPolicy FAIL = new WriteOverflowPolicy(
+            "fail");
+
+    /**
+     * Discard the new message. The message is not sent and its write future
+     * fails, messages already queued are kept in order.
+     */
+    public static final WriteOverflowPolicy DROP = new WriteOverflowPolicy(
+            "drop");
+
+    private final String name;
+
+    private WriteOverflowPolicy(String name) {
+        this.name = name;
+    }
+
+    public String toString() {
+        return name;
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy;
+
+/**
+ * Thrown when writing to a session whose write queue is over the high
+ * watermark and the overflow policy is
+ * {@link WriteOverflowPolicy#FAIL WriteOverflowPolicy.FAIL}.
+ * 
+ * @author Roger Chen
+ */
+public class WriteQueueFullException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    public WriteQueueFullException(String s) {
+        super(s);
+    }
+
+}
\ No newline at end of file
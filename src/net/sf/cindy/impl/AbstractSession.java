@@ -18,18 +18,24 @@ package net.sf.cindy.impl;
 import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.sf.cindy.Dispatcher;
 import net.sf.cindy.EventGenerator;
 import net.sf.cindy.Message;
 import net.sf.cindy.MessageRecognizer;
+import net.sf.cindy.Pipeline;
 import net.sf.cindy.SessionListener;
 import net.sf.cindy.SessionStatistic;
+import net.sf.cindy.WriteOverflowPolicy;
+import net.sf.cindy.WriteQueueFullException;
 import net.sf.cindy.spi.DispatcherSpi;
 import net.sf.cindy.spi.EventGeneratorSpi;
 import net.sf.cindy.spi.SessionSpi;
 import net.sf.cindy.spi.SessionStatisticSpi;
-import net.sf.cindy.util.ByteBufferUtils;
+import net.sf.cindy.util.ByteBufferPool;
+import net.sf.cindy.util.ChunkedByteBuffer;
 import net.sf.cindy.util.CopyOnWriteCollection;
 import net.sf.cindy.util.queue.Queue;
 import net.sf.cindy.util.queue.QueueFactory;
@@ -74,25 +80,41 @@ public abstract class AbstractSession implements SessionSpi {
      */
     public static final EventGenerator DEFAULT_EVENT_GENERATOR = new AutoCloseEventGenerator();
 
+    /**
+     * Default buffer pool
+     */
+    public static final ByteBufferPool DEFAULT_BUFFER_POOL = new ByteBufferPool(
+            Constants.BUFFER_POOL_MAX_CAPACITY,
+            Constants.BUFFER_POOL_ARENA_SIZE,
+            Constants.BUFFER_POOL_THREAD_CACHE_SIZE);
+
     private static int sessionId;
     private final int id = sessionId++;
 
     /**
      * Read cacheAll data read from IO will put here
+     * <p>
+     * Borrowed from the buffer pool only while there are bytes pending, null
+     * when no buffer is borrowed.
      */
-    protected ByteBuffer readBuffer = ByteBufferUtils.allocate(
-            Constants.BUFFER_CAPACITY, Constants.USE_DIRECT_BUFFER);
+    protected ByteBuffer readBuffer;
+
+    ChunkedByteBuffer readChunks; //Used by StreamChannelSession instead of readBuffer
 
     /**
      * Write queue, all date write to IO will put here
      */
-    protected final Queue writeQueue = QueueFactory.createQueue();
+    protected final Queue writeQueue = createWriteQueue();
 
     private SessionStatisticSpi statistic = new SimpleSessionStatistic(this);
     private EventGeneratorSpi eventGenerator = (EventGeneratorSpi) DEFAULT_EVENT_GENERATOR;
     private DispatcherSpi dispatcher = new SimpleDispatcher();
     private MessageRecognizer messageRecognizer = new ByteArrayMessageRecognizer();
+    private final DefaultPipeline pipeline = new DefaultPipeline();
     private Object attachment;
+    volatile Object mailbox; //SessionMailbox used by the ordered dispatchers
+    volatile long eventTime; //Nanoseconds spent in event generator callbacks, used by the rebalancer
+    volatile SimpleEventGenerator groupMember; //Member of the EventGeneratorGroup the session registered on
 
     private boolean enableStatistic = false;
     private final Collection sessionListeners = new CopyOnWriteCollection();
@@ -100,6 +122,13 @@ public abstract class AbstractSession implements SessionSpi {
     private boolean logException = Constants.LOG_EXCEPTION;
     private int bufferCapacityLimit = Constants.BUFFER_CAPACITY_LIMIT;
 
+    private volatile int writeQueueHighWatermark = Constants.WRITE_QUEUE_HIGH_WATERMARK;
+    private volatile int writeQueueLowWatermark = Constants.WRITE_QUEUE_LOW_WATERMARK;
+    private volatile WriteOverflowPolicy writeOverflowPolicy = WriteOverflowPolicy.BLOCK;
+    private final AtomicLong writeQueueBytes = new AtomicLong();
+    private final AtomicBoolean writable = new AtomicBoolean(true);
+    private final Object writableLock = new Object(); //Producers blocked by the high watermark wait on it
+
     public final int getId() {
         return id;
     }
@@ -134,6 +163,23 @@ public abstract class AbstractSession implements SessionSpi {
         return eventGenerator;
     }
 
+    /**
+     * Get the SimpleEventGenerator which runs the session, the member of
+     * the group if the session registered on an EventGeneratorGroup.
+     * 
+     * @return
+     * 		the event generator, null if the session runs on another kind of
+     * event generator, or have not registered on the group
+     */
+    final SimpleEventGenerator getRunningEventGenerator() {
+        Object generator = eventGenerator;
+        if (generator instanceof EventGeneratorGroup)
+            return groupMember;
+        if (generator instanceof SimpleEventGenerator)
+            return (SimpleEventGenerator) generator;
+        return null;
+    }
+
     public final void setEventGenerator(EventGenerator generator) {
         if (generator != null) {
             if (!(generator instanceof EventGeneratorSpi))
@@ -175,6 +221,13 @@ public abstract class AbstractSession implements SessionSpi {
         if (sessionTimeout < 0)
             sessionTimeout = 0;
         this.sessionTimeout = sessionTimeout;
+        sessionTimeoutChanged();
+    }
+
+    /**
+     * Invoked after the session timeout changed, may be in any thread.
+     */
+    protected void sessionTimeoutChanged() {
     }
 
     public final MessageRecognizer getMessageRecognizer() {
@@ -186,6 +239,10 @@ public abstract class AbstractSession implements SessionSpi {
             this.messageRecognizer = messageRecognizer;
     }
 
+    public final Pipeline getPipeline() {
+        return pipeline;
+    }
+
     public final boolean isLogException() {
         return logException;
     }
@@ -199,10 +256,148 @@ public abstract class AbstractSession implements SessionSpi {
     }
 
     public final void setBufferCapacityLimit(int bufferCapacityLimit) {
-        if (bufferCapacityLimit > readBuffer.capacity())
+        ByteBuffer buffer = readBuffer;
+        if (bufferCapacityLimit > (buffer == null ? Constants.BUFFER_CAPACITY
+                : buffer.capacity()))
             this.bufferCapacityLimit = bufferCapacityLimit;
     }
 
+    public final int getWriteQueueHighWatermark() {
+        return writeQueueHighWatermark;
+    }
+
+    public final void setWriteQueueHighWatermark(int highWatermark) {
+        if (highWatermark < 0)
+            highWatermark = 0;
+        this.writeQueueHighWatermark = highWatermark;
+        updateWritable(); //May become writable
+    }
+
+    public final int getWriteQueueLowWatermark() {
+        int high = writeQueueHighWatermark;
+        int low = writeQueueLowWatermark;
+        if (low <= 0 || low >= high)
+            low = high / 2;
+        return low;
+    }
+
+    public final void setWriteQueueLowWatermark(int lowWatermark) {
+        if (lowWatermark < 0)
+            lowWatermark = 0;
+        this.writeQueueLowWatermark = lowWatermark;
+        updateWritable();
+    }
+
+    public final WriteOverflowPolicy getWriteOverflowPolicy() {
+        return writeOverflowPolicy;
+    }
+
+    public final void setWriteOverflowPolicy(WriteOverflowPolicy policy) {
+        if (policy != null)
+            this.writeOverflowPolicy = policy;
+    }
+
+    public final long getWriteQueueBytes() {
+        return writeQueueBytes.get();
+    }
+
+    public final boolean isWritable() {
+        return writable.get();
+    }
+
+    /**
+     * Account the bytes of a message going to the write queue. If the write
+     * queue is over the high watermark, apply the write overflow policy
+     * first.
+     * 
+     * @param size
+     * 		bytes of the message
+     * @param canBlock
+     * 		current thread can be blocked
+     * @return
+     * 		false if the message should be dropped
+     * @throws WriteQueueFullException
+     * 		if the write queue is full and the policy is fail
+     */
+    protected final boolean increaseWriteQueueBytes(int size, boolean canBlock)
+            throws WriteQueueFullException {
+        if (writeQueueHighWatermark > 0 && !writable.get()) {
+            WriteOverflowPolicy policy = writeOverflowPolicy;
+            if (policy == WriteOverflowPolicy.FAIL)
+                throw new WriteQueueFullException("write queue is full: "
+                        + writeQueueBytes.get() + " bytes");
+            if (policy == WriteOverflowPolicy.DROP)
+                return false;
+            if (canBlock)
+                waitWritable();
+        }
+        if (size > 0) {
+            writeQueueBytes.addAndGet(size);
+            updateWritable();
+        }
+        return true;
+    }
+
+    /**
+     * Account the bytes of a message which have left the write queue,
+     * written or discarded.
+     * 
+     * @param size
+     * 		bytes of the message
+     */
+    protected final void decreaseWriteQueueBytes(int size) {
+        if (size > 0) {
+            writeQueueBytes.addAndGet(-size);
+            updateWritable();
+        }
+    }
+
+    private void waitWritable() {
+        boolean interrupted = false;
+        synchronized (writableLock) {
+            while (!writable.get() && isAvailable()) {
+                try {
+                    writableLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void updateWritable() {
+        while (true) { //Check again after a change, bytes may changed by others
+            long bytes = writeQueueBytes.get();
+            int high = writeQueueHighWatermark;
+            if (writable.get()) {
+                if (high == 0 || bytes < high
+                        || !writable.compareAndSet(true, false))
+                    return;
+                dispatchSessionWritabilityChanged(false);
+            } else {
+                if ((high > 0 && bytes > getWriteQueueLowWatermark())
+                        || !writable.compareAndSet(false, true))
+                    return;
+                synchronized (writableLock) {
+                    writableLock.notifyAll();
+                }
+                dispatchSessionWritabilityChanged(true);
+            }
+        }
+    }
+
+    /**
+     * Wake up the producers blocked by the high watermark, invoked when the
+     * session closed.
+     */
+    protected final void wakeUpBlockedWriters() {
+        synchronized (writableLock) {
+            writableLock.notifyAll();
+        }
+    }
+
     public final void addSessionListener(SessionListener listener) {
         if (listener != null)
             sessionListeners.add(listener);
@@ -229,6 +424,79 @@ public abstract class AbstractSession implements SessionSpi {
         return writeQueue.size();
     }
 
+    /**
+     * Create the entry put to the writeQueue: the write message, its future
+     * and, if statistic is enabled, the time it is queued.
+     */
+    final Object[] createWriteQueueEntry(Object writeMessage,
+            DefaultWriteFuture future) {
+        if (getStatistic() != null)
+            return new Object[] { writeMessage, future,
+                    Long.valueOf(System.nanoTime()) };
+        return new Object[] { writeMessage, future };
+    }
+
+    /**
+     * Report the time the entry stayed in the writeQueue to the statistic,
+     * invoked after the message have been sent.
+     */
+    final void recordQueueTime(Object[] entry) {
+        SessionStatisticSpi statistic = (SessionStatisticSpi) getStatistic();
+        if (statistic != null && entry.length > 2)
+            statistic.messageSent(System.nanoTime()
+                    - ((Long) entry[2]).longValue());
+    }
+
+    /**
+     * Create the write queue. Invoked when the session is constructed, so
+     * subclass must not use its own fields here.
+     * 
+     * @return
+     * 		write queue
+     */
+    protected Queue createWriteQueue() {
+        return QueueFactory.createQueue();
+    }
+
+    /**
+     * Get the buffer pool which the session borrows buffers from.
+     * 
+     * @return
+     * 		buffer pool
+     */
+    protected ByteBufferPool getBufferPool() {
+        return DEFAULT_BUFFER_POOL;
+    }
+
+    /**
+     * Borrow the read buffer from the buffer pool if it is not borrowed yet.
+     * Must be invoked in the thread which reads the session.
+     * 
+     * @param capacity
+     * 		min capacity of the read buffer
+     * @return
+     * 		the read buffer
+     */
+    protected final ByteBuffer borrowReadBuffer(int capacity) {
+        if (readBuffer == null)
+            readBuffer = getBufferPool().allocate(capacity,
+                    Constants.USE_DIRECT_BUFFER);
+        return readBuffer;
+    }
+
+    /**
+     * Return the read buffer to the buffer pool, the pending bytes in it are
+     * discarded. Must be invoked in the thread which reads the session.
+     */
+    protected final void releaseReadBuffer() {
+        if (readBuffer != null) {
+            getBufferPool().release(readBuffer);
+            readBuffer = null;
+        }
+        if (readChunks != null)
+            readChunks.clear();
+    }
+
     public void onEvent(Object event, Object attachment) {
         if (log.isTraceEnabled())
             log.trace("session " + getId() + " on event: [Event] " + event
@@ -329,7 +597,16 @@ public abstract class AbstractSession implements SessionSpi {
         });
     }
 
-    protected void dispatchMessageReceived(final Message message) {
+    protected void dispatchMessageReceived(Message received) {
+        final Message message;
+        try {
+            message = pipeline.received(this, received);
+        } catch (Exception e) { //Protection catch
+            dispatchException(e);
+            return;
+        }
+        if (message == null) //Dropped by interceptor
+            return;
         if (log.isDebugEnabled())
             log.debug("session " + sessionId + " received message " + message);
         dispatch(new DispatchObject() {
@@ -359,6 +636,23 @@ public abstract class AbstractSession implements SessionSpi {
         });
     }
 
+    protected void dispatchSessionWritabilityChanged(final boolean writable) {
+        if (log.isDebugEnabled())
+            log.debug("session " + sessionId + (writable ? " writable"
+                    : " unwritable"));
+        dispatch(new DispatchObject() {
+
+            protected void doRun() throws Exception {
+                for (Iterator iter = sessionListeners.iterator(); iter
+                        .hasNext();) {
+                    SessionListener listener = (SessionListener) iter.next();
+                    listener.sessionWritabilityChanged(AbstractSession.this,
+                            writable);
+                }
+            }
+        });
+    }
+
     /**
      * Recognize message from ByteBuffer.
      * 
@@ -370,6 +664,8 @@ public abstract class AbstractSession implements SessionSpi {
         try {
             if (log.isTraceEnabled())
                 log.trace("session " + sessionId + " recognize message");
+            if (pipeline.hasDecoder())
+                return pipeline.decode(this, ChunkedByteBuffer.wrap(buffer));
 
             Message message = messageRecognizer.recognize(this, buffer
                     .asReadOnlyBuffer());
@@ -388,35 +684,71 @@ public abstract class AbstractSession implements SessionSpi {
         return null;
     }
 
-    private abstract class DispatchObject implements Runnable {
-
-        public void run() {
-            try {
-                doRun();
-            } catch (Exception e) {
-                dispatchException(e);
-            }
+    /**
+     * Decode the next message from the chunked buffer by the decoders of
+     * the pipeline.
+     * 
+     * @param buffer
+     * 		the received bytes
+     * @return
+     * 		the decoded message, null if not decoded
+     */
+    final Message decodeMessage(ChunkedByteBuffer buffer) {
+        try {
+            return pipeline.decode(this, buffer);
+        } catch (Exception e) { //Protection catch
+            dispatchException(e);
         }
+        return null;
+    }
 
-        protected abstract void doRun() throws Exception;
+    /**
+     * The pipeline have any decoder, if not the message recognizer is
+     * used.
+     * 
+     * @return
+     * 		have decoder
+     */
+    final boolean hasDecoder() {
+        return pipeline.hasDecoder();
     }
 
     /**
-     * This class act as a lock when block write message.
+     * Pass the written message through the interceptors of the pipeline.
      * 
-     * @author Roger Chen
+     * @param message
+     * 		the written message
+     * @return
+     * 		the message to write, null if dropped
      */
-    protected static class WriteLock {
+    protected final Message interceptWrite(Message message) {
+        return pipeline.writing(this, message);
+    }
 
-        private boolean success;
+    /**
+     * Convert the message to bytes by the encoders of the pipeline, or by
+     * Message.toByteBuffer if no encoder encodes it.
+     * 
+     * @param message
+     * 		the message
+     * @return
+     * 		the bytes
+     */
+    protected final ByteBuffer[] encodeMessage(Message message) {
+        return pipeline.encode(this, message);
+    }
 
-        public boolean isSuccess() {
-            return success;
-        }
+    private abstract class DispatchObject implements Runnable {
 
-        public void setSuccess(boolean success) {
-            this.success = success;
+        public void run() {
+            try {
+                doRun();
+            } catch (Exception e) {
+                dispatchException(e);
+            }
         }
+
+        protected abstract void doRun() throws Exception;
     }
 
 }
\ No newline at end of file
@@ -17,12 +17,9 @@ package net.sf.cindy.impl;
 
 import java.io.IOException;
 import java.net.SocketTimeoutException;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
 
 import net.sf.cindy.Message;
+import net.sf.cindy.WriteFuture;
 import net.sf.cindy.util.ElapsedTime;
 import net.sf.cindy.util.Utils;
 
@@ -41,14 +38,42 @@ public abstract class AbstractSimulatedSession extends AbstractSession {
     private static final Log log = LogFactory
             .getLog(AbstractSimulatedSession.class);
 
-    private final Set writeLocks = Collections.synchronizedSet(new HashSet());
-
     private volatile boolean closing;
 
-    private SimulateThread thread;
+    private Thread thread;
+
+    private boolean useVirtualThread = Constants.USE_VIRTUAL_THREAD;
 
     private int idleTime;
 
+    /**
+     * Is the session run in a virtual thread. Blocking receive and listener
+     * code in a virtual thread don't hold a platform thread.
+     * 
+     * @return
+     * 		use virtual thread
+     */
+    public boolean isUseVirtualThread() {
+        return useVirtualThread;
+    }
+
+    /**
+     * Set the session run in a virtual thread or a platform thread, platform
+     * thread is used if virtual thread is not supported.
+     * 
+     * @param useVirtualThread
+     * 		use virtual thread
+     * @throws IllegalStateException
+     * 		the session have been started
+     */
+    public synchronized void setUseVirtualThread(boolean useVirtualThread)
+            throws IllegalStateException {
+        if (isStarted())
+            throw new IllegalStateException(
+                    "can't set run mode when session have already started");
+        this.useVirtualThread = useVirtualThread;
+    }
+
     public boolean isClosing() {
         return closing;
     }
@@ -58,15 +83,6 @@ public abstract class AbstractSimulatedSession extends AbstractSession {
             return;
         synchronized (this) {
             closing = true;
-            synchronized (writeLocks) {
-                for (Iterator iter = writeLocks.iterator(); iter.hasNext();) {
-                    Object writeLock = (Object) iter.next();
-                    iter.remove();
-                    synchronized (writeLock) {
-                        writeLock.notify(); //Notify
-                    }
-                }
-            }
             idleTime = 0;
             doClose();
             if (Thread.currentThread() != thread && thread != null) {
@@ -78,6 +94,7 @@ public abstract class AbstractSimulatedSession extends AbstractSession {
                 }
             }
             thread = null;
+            failWrites(); //The simulate thread have stopped or is current thread
             closing = false;
             dispatchSessionClosed();
         }
@@ -98,7 +115,9 @@ public abstract class AbstractSimulatedSession extends AbstractSession {
         }
         idleTime = 0;
         dispatchSessionEstablished();
-        thread = new SimulateThread();
+        thread = Utils.newThread(new SimulateRunnable(), Utils
+                .getClassSimpleName(getClass())
+                + "-" + i++, useVirtualThread);
         thread.start();
     }
 
@@ -121,61 +140,87 @@ public abstract class AbstractSimulatedSession extends AbstractSession {
     public void write(Message message) throws IllegalArgumentException,
             IllegalStateException {
         checkWriteToWriteQueue(message);
+        message = interceptWrite(message);
+        if (message == null) //Dropped by interceptor
+            return;
         if (log.isTraceEnabled())
             log.trace("session " + getId() + " write message " + message);
-        writeQueue.push(new Object[] { message, null });
+        writeQueue.push(createWriteQueueEntry(message, null));
     }
 
-    public boolean blockWrite(Message message) throws IllegalArgumentException,
-            IllegalStateException {
+    public WriteFuture writeAsync(Message message)
+            throws IllegalArgumentException, IllegalStateException {
         checkWriteToWriteQueue(message);
+        DefaultWriteFuture future = new DefaultWriteFuture(message);
+        message = interceptWrite(message);
+        if (message == null) { //Dropped by interceptor
+            future.complete(false);
+            return future;
+        }
         if (log.isTraceEnabled())
-            log.trace("session " + getId() + " block write message " + message);
-        final WriteLock writeLock = new WriteLock();
-        synchronized (writeLock) {
-            writeQueue.push(new Object[] { message, writeLock });
-            if (Thread.currentThread() != thread) {
-                writeLocks.add(writeLock);
-                synchronized (writeLock) {
-                    try {
-                        writeLock.wait();
-                    } catch (InterruptedException e) {
-                    }
+            log.trace("session " + getId() + " write message " + message);
+        writeQueue.push(createWriteQueueEntry(message, future));
+        return future;
+    }
+
+    public boolean blockWrite(Message message) throws IllegalArgumentException,
+            IllegalStateException {
+        WriteFuture future = writeAsync(message);
+        if (Thread.currentThread() == thread) {
+            try {
+                sendLoop(future);
+            } catch (IOException e) {
+                if (isStarted()) {
+                    dispatchException(e);
+                    close();
                 }
-                writeLocks.remove(writeLock);
-                return writeLock.isSuccess();
-            } else {
+            }
+            return future.isSuccess();
+        }
+
+        boolean interrupted = false;
+        try {
+            while (true) {
                 try {
-                    sendLoop(message);
-                } catch (IOException e) {
-                    if (isStarted()) {
-                        dispatchException(e);
-                        close();
-                    }
+                    return future.await();
+                } catch (InterruptedException e) {
+                    interrupted = true;
                 }
             }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
         }
-        return false;
     }
 
-    private void sendLoop(Message blockWriteMessage) throws IOException {
+    /**
+     * Discard all messages not sent, fail their futures.
+     */
+    private void failWrites() {
+        while (true) {
+            Object[] objs = (Object[]) writeQueue.pop();
+            if (objs == null)
+                break;
+            if (objs[1] != null)
+                ((DefaultWriteFuture) objs[1]).complete(false);
+        }
+    }
+
+    private void sendLoop(WriteFuture blockWriteFuture) throws IOException {
         while (isStarted()) {
             Object[] objs = (Object[]) writeQueue.pop();
             if (objs == null)
                 break;
             Message message = (Message) objs[0];
-            WriteLock writeLock = (WriteLock) objs[1];
+            DefaultWriteFuture future = (DefaultWriteFuture) objs[1];
 
             send(message);
+            recordQueueTime(objs);
             dispatchMessageSent(message);
             idleTime = 0;
-            if (writeLock != null) {
-                writeLock.setSuccess(true);
-                synchronized (writeLock) {
-                    writeLock.notify();
-                }
-            }
-            if (message == blockWriteMessage)
+            if (future != null)
+                future.complete(true);
+            if (future != null && future == blockWriteFuture)
                 return;
         }
     }
@@ -186,13 +231,7 @@ public abstract class AbstractSimulatedSession extends AbstractSession {
 
     private static int i; //Used to build thread name
 
-    private class SimulateThread extends Thread {
-
-        public SimulateThread() {
-            super(Utils.getClassSimpleName(AbstractSimulatedSession.this
-                    .getClass())
-                    + "-" + i++);
-        }
+    private class SimulateRunnable implements Runnable {
 
         public void run() {
             try {
@@ -216,6 +255,7 @@ public abstract class AbstractSimulatedSession extends AbstractSession {
                     dispatchException(e);
             } finally {
                 close();
+                releaseReadBuffer();
             }
         }
 
@@ -15,52 +15,206 @@
  */
 package net.sf.cindy.impl;
 
+import java.util.Timer;
+import java.util.TimerTask;
+
+import net.sf.cindy.spi.EventGeneratorSpi;
+
 /**
  * Added check timeout support.
+ * <p>
+ * The session schedules its deadline on the timing wheel of the 
+ * {@link net.sf.cindy.impl.SimpleEventGenerator SimpleEventGenerator} 
+ * it runs on, or of the group member it registered on. Activity only 
+ * records the time, the deadline is moved forward when it expires, so only 
+ * sessions which may timeout cost anything. Sessions on other event 
+ * generators have no timing wheel, a shared timer sends EV_CHECK_TIMEOUT to 
+ * them every check interval and the idle time is counted instead.
  * 
  * @author Roger Chen
  */
 public abstract class AbstractTimeoutSession extends AbstractSession {
 
+    private static Timer checker; //Sends EV_CHECK_TIMEOUT, created when first used
+
     private boolean established = false;
 
-    private int idleTimes = 0; //Session idle time
+    private SimpleEventGenerator timingWheelOwner; //the only thread may use the wheel
+    private TimingWheel timingWheel;
+    private boolean timeoutStarting; //established on another thread
+    private long lastActiveTime; //timing wheel time of last event
+    private boolean detached; //left the timing wheel when migrating
+    private long detachedIdleTime;
+    private final TimingWheel.Timeout timeoutCheck = new TimingWheel.Timeout() {
+
+        protected void expired() {
+            checkTimeout();
+        }
+    };
+
+    private int idleTimes = 0; //Session idle time, without timing wheel
+    private TimerTask checkTask;
+
+    private static synchronized Timer getChecker() {
+        if (checker == null)
+            checker = new Timer("SessionTimeoutChecker", true);
+        return checker;
+    }
 
     protected void dispatchSessionEstablished() {
         established = true;
+        SimpleEventGenerator generator = getRunningEventGenerator();
+        if (generator != null) {
+            timingWheelOwner = generator;
+            timingWheel = generator.getTimingWheel();
+            if (generator.isEventGeneratorThread()) {
+                lastActiveTime = timingWheel.getTime();
+                scheduleTimeout();
+            } else { //The wheel is not thread safe, let its thread start it
+                timeoutStarting = true;
+                generator.register(this, Constants.EV_RESCHEDULE_TIMEOUT);
+            }
+        } else
+            startCheckTask();
         super.dispatchSessionEstablished();
     }
 
     protected void dispatchSessionClosed() {
         established = false;
+        detached = false;
+        timeoutStarting = false;
+        if (timingWheel != null) {
+            if (timingWheelOwner.isEventGeneratorThread()) //otherwise expired check will ignore it
+                timingWheel.cancel(timeoutCheck);
+            timingWheel = null;
+            timingWheelOwner = null;
+        }
+        if (checkTask != null) {
+            checkTask.cancel();
+            checkTask = null;
+        }
         idleTimes = 0;
         super.dispatchSessionClosed();
     }
 
+    private void startCheckTask() {
+        final int interval = Constants.CHECK_SESSION_TIMEOUT_INTERVAL;
+        checkTask = new TimerTask() {
+
+            public void run() {
+                ((EventGeneratorSpi) getEventGenerator()).register(
+                        AbstractTimeoutSession.this,
+                        Constants.EV_CHECK_TIMEOUT);
+            }
+        };
+        getChecker().schedule(checkTask, interval, interval);
+    }
+
+    /**
+     * Leave the timing wheel of current event generator before the session
+     * migrates. The idle time is kept, the wheels do not share a time base.
+     */
+    final void detachTimingWheel() {
+        if (timingWheel == null)
+            return;
+        if (timeoutStarting) {
+            timeoutStarting = false;
+            detachedIdleTime = 0;
+        } else {
+            detachedIdleTime = timingWheel.getTime() - lastActiveTime;
+            timingWheel.cancel(timeoutCheck);
+        }
+        timingWheel = null;
+        timingWheelOwner = null;
+        detached = true;
+    }
+
+    /**
+     * Join the timing wheel of the event generator the session migrated to,
+     * invoked by its thread.
+     */
+    final void attachTimingWheel() {
+        if (!detached)
+            return;
+        detached = false;
+        if (!established)
+            return;
+        SimpleEventGenerator generator = getRunningEventGenerator();
+        if (generator != null) {
+            timingWheelOwner = generator;
+            timingWheel = generator.getTimingWheel();
+            lastActiveTime = timingWheel.getTime() - detachedIdleTime;
+            scheduleTimeout();
+        }
+    }
+
+    protected void sessionTimeoutChanged() {
+        if (established && timingWheel != null)
+            ((EventGeneratorSpi) getEventGenerator()).register(this,
+                    Constants.EV_RESCHEDULE_TIMEOUT);
+    }
+
     public void onEvent(Object event, Object attachment) {
-        if (event == Constants.EV_CHECK_TIMEOUT)
-            checkTimeout(((Integer) attachment).intValue());
-        else if (event == Constants.EV_EVENT_HAPPEN)
+        if (event == Constants.EV_READABLE || event == Constants.EV_WRITABLE
+                || event == Constants.EV_ACCEPTABLE
+                || event == Constants.EV_CONNECTABLE)
             eventHappen();
+        else if (event == Constants.EV_RESCHEDULE_TIMEOUT)
+            scheduleTimeout();
+        else if (event == Constants.EV_CHECK_TIMEOUT)
+            countIdleTime();
         super.onEvent(event, attachment);
     }
 
-    private void checkTimeout(int interval) {
-        if (!established)
+    private void scheduleTimeout() {
+        if (!established || timingWheel == null)
             return;
-        if (getSessionTimeout() > 0) {
-            idleTimes += interval;
-            if (idleTimes >= getSessionTimeout()) {
-                dispatchSessionTimeout();
-                idleTimes = 0;//prevent timeout event repeat frequently
+        if (timeoutStarting) {
+            timeoutStarting = false;
+            lastActiveTime = timingWheel.getTime();
+        }
+        int timeout = getSessionTimeout();
+        if (timeout > 0)
+            timingWheel.schedule(timeoutCheck, lastActiveTime + timeout
+                    - timingWheel.getTime());
+        else
+            timingWheel.cancel(timeoutCheck);
+    }
+
+    private void checkTimeout() {
+        if (!established || timingWheel == null)
+            return;
+        long now = timingWheel.getTime();
+        int timeout = getSessionTimeout();
+        if (timeout > 0 && now - lastActiveTime >= timeout) {
+            lastActiveTime = now; //prevent timeout event repeat frequently
+            dispatchSessionTimeout();
+            if (writeQueue.isEmpty()) {
+                dispatchSessionIdle();
             }
         }
-        if (writeQueue.isEmpty()) {
-            dispatchSessionIdle();
+        scheduleTimeout();
+    }
+
+    private void countIdleTime() {
+        if (!established || checkTask == null)
+            return;
+        int timeout = getSessionTimeout();
+        if (timeout > 0) {
+            idleTimes += Constants.CHECK_SESSION_TIMEOUT_INTERVAL;
+            if (idleTimes >= timeout) {
+                idleTimes = 0; //prevent timeout event repeat frequently
+                dispatchSessionTimeout();
+                if (writeQueue.isEmpty()) {
+                    dispatchSessionIdle();
+                }
+            }
         }
     }
 
     private void eventHappen() {
         idleTimes = 0;
+        if (timingWheel != null && !timeoutStarting)
+            lastActiveTime = timingWheel.getTime();
     }
 }
\ No newline at end of file
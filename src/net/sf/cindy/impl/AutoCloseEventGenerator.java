@@ -20,7 +20,8 @@ import java.nio.channels.Selector;
 import net.sf.cindy.spi.SessionSpi;
 
 /**
- * When no session avaiable, will auto close.
+ * When no session avaiable, will auto close. It does not close while
+ * sessions are migrating to it.
  * 
  * @author Roger Chen
  */
@@ -41,6 +42,6 @@ public class AutoCloseEventGenerator extends SimpleEventGenerator {
     protected void beforeSelect(Selector selector) {
         super.beforeSelect(selector);
         if (addedSession && selector.keys().size() == 0)
-            stop();
+            stopIfNoArrival();
     }
 }
\ No newline at end of file
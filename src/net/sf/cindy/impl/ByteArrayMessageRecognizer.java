@@ -18,15 +18,21 @@ package net.sf.cindy.impl;
 import java.nio.ByteBuffer;
 
 import net.sf.cindy.Message;
-import net.sf.cindy.MessageRecognizer;
 import net.sf.cindy.Session;
+import net.sf.cindy.StreamMessageRecognizer;
+import net.sf.cindy.util.ChunkedByteBuffer;
 
 /**
  * Recognize {@link net.sf.cindy.impl.ByteArrayMessage ByteArrayMessage}.
+ * The message is all the received bytes.
  * 
  * @author Roger Chen
  */
-public class ByteArrayMessageRecognizer implements MessageRecognizer {
+public class ByteArrayMessageRecognizer implements StreamMessageRecognizer {
+
+    public int getMessageLength(Session session, ChunkedByteBuffer buffer) {
+        return buffer.remaining() > 0 ? buffer.remaining() : -1;
+    }
 
     public Message recognize(Session session, ByteBuffer buffer) {
         if (buffer.hasRemaining()) {
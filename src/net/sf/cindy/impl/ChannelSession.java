@@ -21,13 +21,15 @@ import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
 
 import net.sf.cindy.Message;
+import net.sf.cindy.WriteFuture;
 import net.sf.cindy.spi.EventGeneratorSpi;
+import net.sf.cindy.util.queue.Queue;
+import net.sf.cindy.util.queue.QueueFactory;
+import net.sf.cindy.util.queue.SingleConsumerQueue;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -41,20 +43,46 @@ public abstract class ChannelSession extends AbstractTimeoutSession {
 
     private static final Log log = LogFactory.getLog(ChannelSession.class);
 
-    /**
-     * When use block write, this object will save all write locks.
-     */
-    private final Set writeLocks = Collections.synchronizedSet(new HashSet());
-
     private final Object closeLock = new Object();
     private final Object startLock = new Object();
 
     private SelectableChannel readChannel, writeChannel;
     private SelectionKey readKey, writeKey; //save this object to increase efficiency
+    private boolean reading, unregisteredWhileReading; //only used by the event generator thread
+
+    /**
+     * Messages popped from the writeQueue but not written completely. Only
+     * used by the event generator thread.
+     */
+    private final Object[][] batch = new Object[Constants.WRITE_BATCH_SIZE][];
+    private final Object[] batchMessages = new Object[batch.length];
+    private final Message[] sentMessages = new Message[batch.length];
+    private volatile int batchCount;
+
+    /**
+     * Messages written completely, removed from the batch while their
+     * listeners and futures are notified. A listener which flushes again
+     * finds them in use and allocates its own.
+     */
+    private final Object[][] completedBatch = new Object[batch.length][];
+    private final Message[] completedMessages = new Message[batch.length];
+    private boolean completing;
 
     private volatile boolean started = false;
     private volatile boolean closing = false;
 
+    /**
+     * Migration state. The target is set by the thread which requests the
+     * migration, the keys' interest is handed from the event generator the
+     * session leaves to the one it arrives through the register ring.
+     */
+    private volatile SimpleEventGenerator migrateTarget;
+    private volatile SimpleEventGenerator owner; //null if never migrated
+    private volatile boolean migrating;
+    private int migrateReadOps, migrateWriteOps;
+    private Object migrateAttachment;
+    private List heldEvents; //Events arrived before the session, only used by the owner
+
     public final boolean isStarted() {
         return started;
     }
@@ -71,7 +99,7 @@ public abstract class ChannelSession extends AbstractTimeoutSession {
 
             EventGeneratorSpi generator = ((EventGeneratorSpi) getEventGenerator());
             generator.register(this, Constants.EV_UNREGISTER);
-            if (block && (!generator.isEventGeneratorThread())) {
+            if (block && (!isEventGeneratorThread())) {
                 try {
                     closeLock.wait();
                 } catch (InterruptedException e) {
@@ -87,11 +115,29 @@ public abstract class ChannelSession extends AbstractTimeoutSession {
         }
     }
 
+    /**
+     * Judge current thread is the thread which generate events for current
+     * session. When sessions are spread over an 
+     * {@link EventGeneratorGroup EventGeneratorGroup}, other event generator
+     * threads of the group are not.
+     * 
+     * @return
+     * 		current thread is the event generator thread of the session
+     */
+    protected final boolean isEventGeneratorThread() {
+        EventGeneratorSpi generator = (EventGeneratorSpi) getEventGenerator();
+        if (generator instanceof EventGeneratorGroup)
+            return ((EventGeneratorGroup) generator)
+                    .isEventGeneratorThread(this);
+        return generator.isEventGeneratorThread();
+    }
+
     protected void startSession(SelectableChannel readChannel,
             SelectableChannel writeChannel, boolean block) {
         synchronized (startLock) {
             if (isStarted())
                 return;
+            owner = null;
             try {
                 if (readChannel != null)
                     readChannel.configureBlocking(false);
@@ -121,7 +167,7 @@ public abstract class ChannelSession extends AbstractTimeoutSession {
             if (!generator.isStarted())
                 generator.start();
             generator.register(this, Constants.EV_REGISTER); //If can't started, will close the session, then the started status become false
-            if (block && !generator.isEventGeneratorThread())
+            if (block && !isEventGeneratorThread())
                 try {
                     startLock.wait();
                 } catch (InterruptedException e) {
@@ -134,6 +180,12 @@ public abstract class ChannelSession extends AbstractTimeoutSession {
             onReadable();
         else if (event == Constants.EV_ENABLE_READ)
             onEnableRead();
+        else if (event == Constants.EV_READ_PENDING)
+            onReadPending();
+        else if (event == Constants.EV_MIGRATE)
+            onMigrate();
+        else if (event == Constants.EV_MIGRATED)
+            onArrive((Selector) attachment);
         else if (event == Constants.EV_WRITABLE)
             onWritable();
         else if (event == Constants.EV_ENABLE_WRITE)
@@ -163,6 +215,151 @@ public abstract class ChannelSession extends AbstractTimeoutSession {
         writeKey = writeChannel.keyFor(selector);
     }
 
+    /**
+     * Request to move the session from the source event generator to the
+     * target, invoked by {@link EventGeneratorGroup EventGeneratorGroup}.
+     * 
+     * @return
+     * 		false if the session is not available or is migrating
+     */
+    final boolean migrate(SimpleEventGenerator source,
+            SimpleEventGenerator target) {
+        synchronized (closeLock) {
+            if (!isAvailable() || migrateTarget != null)
+                return false;
+            migrateTarget = target;
+        }
+        source.register(this, Constants.EV_MIGRATE);
+        return true;
+    }
+
+    /**
+     * Judge the event should be processed by the event generator, invoked
+     * by the event generator before delivering an event. Events left on the
+     * event generator which the session migrated from are passed to the
+     * new one, events arrived before the session are held until it arrives.
+     * 
+     * @return
+     * 		false if the event is passed or held
+     */
+    final boolean acceptEvent(SimpleEventGenerator generator, Object event) {
+        SimpleEventGenerator owner = this.owner;
+        if (owner == null)
+            return true;
+        if (owner != generator) {
+            owner.register(this, event);
+            return false;
+        }
+        if (migrating && event != Constants.EV_MIGRATED) {
+            if (heldEvents == null)
+                heldEvents = new ArrayList();
+            heldEvents.add(event);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Leave current event generator. The keys are cancelled with their
+     * interest saved, bytes not read stay in the channel and the write
+     * queue is untouched, so nothing is lost or reordered.
+     */
+    private void onMigrate() {
+        SimpleEventGenerator target = migrateTarget;
+        if (target == null)
+            return;
+        if (readChannel == null || isClosing()) { //Closed before leaving
+            migrateTarget = null;
+            target.arrived();
+            return;
+        }
+
+        migrateAttachment = this;
+        migrateReadOps = 0;
+        migrateWriteOps = 0;
+        if (readKey != null) {
+            if (readKey.isValid()) {
+                migrateReadOps = readKey.interestOps();
+                migrateAttachment = readKey.attachment();
+            }
+            readKey.cancel();
+        }
+        if (writeKey != null && writeKey != readKey) {
+            if (writeKey.isValid())
+                migrateWriteOps = writeKey.interestOps();
+            writeKey.cancel();
+        }
+        detachTimingWheel();
+
+        migrating = true; //Set before owner, the new owner will see it
+        owner = target;
+        ((EventGeneratorGroup) getEventGenerator()).migrated(this, target);
+    }
+
+    /**
+     * Arrive at the new event generator, register the channels with the
+     * saved interest and deliver the events held meanwhile.
+     */
+    private void onArrive(Selector selector) {
+        if (isKeyCancelled(readChannel, selector)
+                || isKeyCancelled(writeChannel, selector)) { //Left this selector just now, wait until the key is deregistered by select
+            ((EventGeneratorSpi) getEventGenerator()).register(this,
+                    Constants.EV_MIGRATED);
+            return;
+        }
+        SimpleEventGenerator target = migrateTarget;
+        migrating = false;
+        migrateTarget = null;
+        List held = heldEvents;
+        heldEvents = null;
+
+        if (readChannel != null) { //Not closed
+            try {
+                int writeOps = (batchCount > 0 || !writeQueue.isEmpty()) ? SelectionKey.OP_WRITE
+                        : 0; //Write requests may have been lost while migrating
+                if (writeChannel == readChannel) {
+                    readKey = readChannel.register(selector, migrateReadOps
+                            | writeOps, migrateAttachment);
+                    writeKey = readKey;
+                } else {
+                    readKey = readChannel.register(selector, migrateReadOps,
+                            migrateAttachment);
+                    writeKey = writeChannel.register(selector,
+                            migrateWriteOps | writeOps, migrateAttachment);
+                }
+                onMigrated(selector);
+            } catch (ClosedChannelException e) {
+                close();
+            }
+            attachTimingWheel();
+        }
+        migrateAttachment = null;
+        target.arrived(); //Registered, or closed meanwhile
+
+        if (held != null)
+            for (int i = 0; i < held.size(); i++)
+                onEvent(held.get(i), selector);
+    }
+
+    private static boolean isKeyCancelled(SelectableChannel channel,
+            Selector selector) {
+        if (channel == null)
+            return false;
+        SelectionKey key = channel.keyFor(selector);
+        return key != null && !key.isValid();
+    }
+
+    /**
+     * The session have migrated to another event generator, and its
+     * channels have been registered on the selector. Subclass which saves
+     * selection keys should update them.
+     * 
+     * @param selector
+     * 		the selector of the new event generator
+     */
+    protected void onMigrated(Selector selector) {
+    }
+
     protected void onUnregister() {
         try {
             if (readKey != null) {
@@ -184,32 +381,42 @@ public abstract class ChannelSession extends AbstractTimeoutSession {
         } catch (IOException e) {
             dispatchException(e);
         }
-        writeQueue.clear();
+        failWrites();
+        if (reading) //Still used by readFromChannel, release after it returns
+            unregisteredWhileReading = true;
+        else
+            releaseReadBuffer();
 
         synchronized (startLock) { //When block start, will wake up
             synchronized (closeLock) { //When block close, will wake up
-                synchronized (writeLocks) {
-                    for (Iterator iter = writeLocks.iterator(); iter.hasNext();) {
-                        Object writeLock = (Object) iter.next();
-                        iter.remove();
-                        synchronized (writeLock) {
-                            writeLock.notify(); //When block write, will wake up
-                        }
-                    }
-                }
                 closing = false;
                 started = false;
                 startLock.notify();
                 closeLock.notify();
             }
         }
+        wakeUpBlockedWriters();
         dispatchSessionClosed();
     }
 
     private void onReadable() {
+        read(true);
+    }
+
+    private void onReadPending() {
+        if (readChannel != null)
+            read(false);
+    }
+
+    private void read(boolean readable) {
+        reading = true;
         try {
-            readKey.interestOps(readKey.interestOps() & ~SelectionKey.OP_READ);
-            readFromChannel(readChannel);
+            if (readable) {
+                readKey.interestOps(readKey.interestOps()
+                        & ~SelectionKey.OP_READ);
+                readFromChannel(readChannel);
+            } else
+                readPending(readChannel);
         } catch (CancelledKeyException cke) {
             close();
         } catch (ClosedChannelException cce) {
@@ -219,6 +426,12 @@ public abstract class ChannelSession extends AbstractTimeoutSession {
             close();
         } catch (Exception e) {
             dispatchException(e);
+        } finally {
+            reading = false;
+        }
+        if (unregisteredWhileReading) {
+            unregisteredWhileReading = false;
+            releaseReadBuffer();
         }
     }
 
@@ -227,34 +440,11 @@ public abstract class ChannelSession extends AbstractTimeoutSession {
             writeKey.interestOps(writeKey.interestOps()
                     & ~SelectionKey.OP_WRITE);
 
-            boolean writeComplete = false;
-            while (true) {
-                Object[] objs = (Object[]) writeQueue.peek();
-                if (objs == null) {
-                    writeComplete = true;
-                    break;
-                }
-                Message message = writeToChannel(writeChannel, objs[0]);
-                if (message != null) { //write complete
-                    writeQueue.pop();
-                    dispatchMessageSent(message);
-                    WriteLock writeLock = (WriteLock) objs[1];
-                    if (writeLock != null) {
-                        writeLock.setSuccess(true);
-                        synchronized (writeLock) {
-                            writeLock.notify();
-                        }
-                    }
-                } else { //not write complete, but write buffer is full
-                    break;
-                }
-            }
-
-            if (writeComplete)
+            if (flush())
                 dispatchSessionIdle();
-            else
+            else if (isStarted())
                 ((EventGeneratorSpi) getEventGenerator()).register(this,
-                        Constants.EV_ENABLE_WRITE); //not write complete keep listening OP_WRITE
+                        Constants.EV_ENABLE_WRITE); //not write complete, keep listening OP_WRITE
         } catch (CancelledKeyException cke) {
             close();
         } catch (ClosedChannelException cce) {
@@ -267,6 +457,103 @@ public abstract class ChannelSession extends AbstractTimeoutSession {
         }
     }
 
+    /**
+     * Move messages from the writeQueue to the batch and write them until
+     * the write buffer is full. Only invoked by the event generator thread.
+     * 
+     * @return
+     * 		all messages have been written
+     * @throws IOException
+     */
+    private boolean flush() throws IOException {
+        while (isStarted()) {
+            while (batchCount < batch.length) {
+                Object[] objs = (Object[]) writeQueue.pop();
+                if (objs == null)
+                    break;
+                batch[batchCount] = objs;
+                batchMessages[batchCount] = objs[0];
+                batchCount++;
+            }
+            if (batchCount == 0)
+                return true;
+
+            int count = writeToChannel(writeChannel, batchMessages,
+                    batchCount, sentMessages);
+            if (count == 0) //write buffer is full
+                return false;
+            if (batchCount == 0) //closed when writing
+                return false;
+
+            //Remove completed ones before dispatching, listeners may flush again
+            boolean nested = completing;
+            Object[][] completed = completedBatch;
+            Message[] messages = completedMessages;
+            if (nested) {
+                completed = new Object[count][];
+                messages = new Message[count];
+            }
+            System.arraycopy(batch, 0, completed, 0, count);
+            System.arraycopy(sentMessages, 0, messages, 0, count);
+            batchCount -= count;
+            System.arraycopy(batch, count, batch, 0, batchCount);
+            System.arraycopy(batchMessages, count, batchMessages, 0,
+                    batchCount);
+            for (int i = batchCount; i < batchCount + count; i++) {
+                batch[i] = null;
+                batchMessages[i] = null;
+            }
+            for (int i = 0; i < count; i++)
+                sentMessages[i] = null;
+
+            completing = true;
+            try {
+                for (int i = 0; i < count; i++) {
+                    decreaseWriteQueueBytes(getWriteSize(completed[i][0]));
+                    recordQueueTime(completed[i]);
+                    dispatchMessageSent(messages[i]);
+                    DefaultWriteFuture future = (DefaultWriteFuture) completed[i][1];
+                    if (future != null)
+                        future.complete(true);
+                }
+            } finally {
+                if (!nested) {
+                    completing = false;
+                    for (int i = 0; i < count; i++) {
+                        completed[i] = null;
+                        messages[i] = null;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Discard all messages not written, fail their futures.
+     */
+    private void failWrites() {
+        for (int i = 0; i < batch.length; i++) {
+            if (batch[i] != null) {
+                decreaseWriteQueueBytes(getWriteSize(batch[i][0]));
+                if (batch[i][1] != null)
+                    ((DefaultWriteFuture) batch[i][1]).complete(false);
+            }
+            batch[i] = null;
+            batchMessages[i] = null;
+            sentMessages[i] = null;
+        }
+        batchCount = 0;
+        while (true) {
+            Object[] objs = (Object[]) writeQueue.pop();
+            if (objs == null)
+                break;
+            decreaseWriteQueueBytes(getWriteSize(objs[0]));
+            if (objs[1] != null)
+                ((DefaultWriteFuture) objs[1]).complete(false);
+        }
+    }
+
     /**
      * Read message from Channel.
      * 
@@ -278,6 +565,18 @@ public abstract class ChannelSession extends AbstractTimeoutSession {
             throws IOException {
     }
 
+    /**
+     * Continue the read work left by {@link #readFromChannel(SelectableChannel)}
+     * after the session exhausted its read budget. Invoked by the event
+     * generator thread in a later loop, after other ready sessions.
+     * 
+     * @param channel
+     * 		The channel that register OP_READ on EventGenerator
+     * @throws IOException
+     */
+    protected void readPending(SelectableChannel channel) throws IOException {
+    }
+
     /**
      * Write message to Channel.
      * 
@@ -294,7 +593,51 @@ public abstract class ChannelSession extends AbstractTimeoutSession {
         return null;
     }
 
+    /**
+     * Write several messages to Channel. Subclass which supports gathering
+     * write can write as many messages as it can with one operation, the
+     * default implementation writes the first message only.
+     * 
+     * @param channel
+     * 		The channel that register OP_WRITE on EventGenerator
+     * @param writeMessages
+     * 		The messages popped from writeQueue, in queued order
+     * @param count
+     * 		message count, at least 1
+     * @param sentMessages
+     * 		the written messages of the completed write messages, in order
+     * @return
+     * 		count of the completed write messages from the first one, 0 if
+     * the write buffer is full
+     * @throws IOException
+     */
+    protected int writeToChannel(SelectableChannel channel,
+            Object[] writeMessages, int count, Message[] sentMessages)
+            throws IOException {
+        Message message = writeToChannel(channel, writeMessages[0]);
+        if (message == null)
+            return 0;
+        sentMessages[0] = message;
+        return 1;
+    }
+
+    public int getWriteQueueSize() {
+        return writeQueue.size() + batchCount;
+    }
+
+    protected Queue createWriteQueue() {
+        if (Constants.LOCK_FREE_WRITE_QUEUE) //Written by many threads, only read by event generator thread
+            return QueueFactory.createSingleConsumerQueue();
+        return super.createWriteQueue();
+    }
+
     private void writeToWriteQueue(Object obj) {
+        if (writeQueue instanceof SingleConsumerQueue) {
+            if (((SingleConsumerQueue) writeQueue).offer(obj))
+                ((EventGeneratorSpi) getEventGenerator()).register(this,
+                        Constants.EV_ENABLE_WRITE);
+            return;
+        }
         synchronized (writeQueue) {
             if (writeQueue.isEmpty()) {
                 writeQueue.push(obj);
@@ -323,73 +666,119 @@ public abstract class ChannelSession extends AbstractTimeoutSession {
 
     public void write(Message message) throws IllegalArgumentException,
             IllegalStateException {
+        writeToWriteQueue(message, null);
+    }
+
+    public WriteFuture writeAsync(Message message)
+            throws IllegalArgumentException, IllegalStateException {
+        DefaultWriteFuture future = new DefaultWriteFuture(message);
+        writeToWriteQueue(message, future);
+        return future;
+    }
+
+    void writeToWriteQueue(Message message, DefaultWriteFuture future)
+            throws IllegalArgumentException, IllegalStateException {
         if (message == null)
             throw new IllegalArgumentException("message is null");
         if (!isAvailable())
             throw new IllegalStateException("session is not available");
-        if (log.isTraceEnabled())
-            log.trace("session " + getId() + " write message " + message);
-        writeToWriteQueue(new Object[] { transMessage(message), null });
+        message = interceptWrite(message);
+        if (message == null) { //Dropped by interceptor
+            if (future != null)
+                future.complete(false);
+            return;
+        }
+        enqueue(message, future);
     }
 
-    public boolean blockWrite(Message message) throws IllegalArgumentException,
-            IllegalStateException {
-        if (message == null)
-            throw new IllegalArgumentException("message is null");
+    /**
+     * Queue the message without passing the pipeline interceptors, used for
+     * the messages of the transport itself.
+     */
+    void enqueue(Message message, DefaultWriteFuture future)
+            throws IllegalArgumentException, IllegalStateException {
         if (!isAvailable())
             throw new IllegalStateException("session is not available");
         if (log.isTraceEnabled())
-            log.trace("session " + getId() + " block write message " + message);
+            log.trace("session " + getId() + " write message " + message);
         Object obj = transMessage(message);
-        if (obj == null)
-            return false;
-        final WriteLock writeLock = new WriteLock();
-        synchronized (writeLock) { //don't lock on message
-            writeToWriteQueue(new Object[] { obj, writeLock });
-            if (!((SimpleEventGenerator) getEventGenerator())
-                    .isEventGeneratorThread()) {
-                writeLocks.add(writeLock); //When session closed, will receive notify
+        if (obj == null) {
+            if (future != null)
+                future.complete(false);
+            return;
+        }
+        int size = getWriteSize(obj);
+        if (!increaseWriteQueueBytes(size, !isEventGeneratorThread())) {
+            if (log.isDebugEnabled())
+                log.debug("session " + getId()
+                        + " write queue is full, drop message " + message);
+            if (future != null)
+                future.complete(false);
+            return;
+        }
+        if (!isAvailable()) { //Closed when waiting for the write queue
+            decreaseWriteQueueBytes(size);
+            if (future != null)
+                future.complete(false);
+            throw new IllegalStateException("session is not available");
+        }
+        writeToWriteQueue(createWriteQueueEntry(obj, future));
+    }
+
+    /**
+     * Get bytes of the object which will be written to the writeQueue, used
+     * by the write queue watermarks.
+     * 
+     * @param writeMessage
+     * 		the object returned by transMessage
+     * @return
+     * 		bytes, 0 if unknown
+     */
+    protected int getWriteSize(Object writeMessage) {
+        return 0;
+    }
+
+    public boolean blockWrite(Message message) throws IllegalArgumentException,
+            IllegalStateException {
+        WriteFuture future = writeAsync(message);
+        if (isEventGeneratorThread()) { //Can't wait, the event generator would stop
+            flushOnce();
+            if (!future.isDone())
+                return false; //Written when the channel becomes writable
+        }
+
+        boolean interrupted = false;
+        try {
+            while (true) {
                 try {
-                    writeLock.wait();
+                    return future.await();
                 } catch (InterruptedException e) {
-                }
-                writeLocks.remove(writeLock);
-                return writeLock.isSuccess();
-            } else {
-                try {
-                    while (true) {
-                        // block write
-                        Object[] objs = (Object[]) writeQueue.peek();
-                        Message msg = writeToChannel(writeChannel, objs[0]);
-                        if (msg != null) {
-                            writeQueue.pop();
-                            dispatchMessageSent(msg);
-                            if (objs[1] != null) {
-                                WriteLock lock = (WriteLock) objs[1];
-                                lock.setSuccess(true);
-                                synchronized (lock) {
-                                    lock.notify();
-                                }
-                            }
-                            if (obj == objs[0]) //write completed
-                                return true;
-                            continue;
-                        }
-                        try {
-                            Thread.sleep(10); //wait next time to write
-                        } catch (InterruptedException e) {
-                        }
-                    }
-                } catch (ClosedChannelException cce) {
-                    close();
-                } catch (IOException ioe) {
-                    dispatchException(ioe);
-                    close();
-                } catch (Exception e) {
-                    dispatchException(e);
+                    interrupted = true;
                 }
             }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Flush in the event generator thread as much as the channel accepts
+     * now. The messages not written stay queued, OP_WRITE is listened
+     * since they were queued.
+     */
+    private void flushOnce() {
+        try {
+            flush();
+        } catch (CancelledKeyException cke) {
+            close();
+        } catch (ClosedChannelException cce) {
+            close();
+        } catch (IOException ioe) {
+            dispatchException(ioe);
+            close();
+        } catch (Exception e) {
+            dispatchException(e);
         }
-        return false;
     }
 }
\ No newline at end of file
@@ -59,20 +59,45 @@ class Constants {
      */
     static final Object EV_READABLE = new String("readable");
 
+    /**
+     * The session exhausted its read budget with messages pending, continue
+     * in the next loop. Deferred by the event generator even if registered
+     * in the event generator thread.
+     */
+    static final Object EV_READ_PENDING = new String("read pending");
+
+    /**
+     * Move the session to another event generator, processed by the event
+     * generator the session leaves. Deferred like EV_READ_PENDING.
+     */
+    static final Object EV_MIGRATE = new String("migrate");
+
+    /**
+     * The session have been moved, processed by the event generator the
+     * session arrives. Deferred like EV_READ_PENDING.
+     */
+    static final Object EV_MIGRATED = new String("migrated");
+
     /**
      * The session is writable.
      */
     static final Object EV_WRITABLE = new String("writable");
 
     /**
-     * Check the session is timeout.
+     * Check the session is timeout. Sent every check interval to the
+     * sessions whose event generator have no timing wheel.
      */
     static final Object EV_CHECK_TIMEOUT = new String("check timeout");
 
     /**
-     * Some event happen, set the session timeout to 0.
+     * The session timeout changed, reschedule the timeout check.
      */
-    static final Object EV_EVENT_HAPPEN = new String("event happen");
+    static final Object EV_RESCHEDULE_TIMEOUT = new String("reschedule timeout");
+
+    /**
+     * Delegated tasks of SSLEngine completed.
+     */
+    static final Object EV_TASK_COMPLETED = new String("task completed");
 
     private static final String KEY_SESSION_TIMEOUT = "net.sf.cindy.sessionTimeout";
     private static final String KEY_BUFFER_CAPACITY = "net.sf.cindy.bufferCapacity";
@@ -80,6 +105,23 @@ class Constants {
     private static final String KEY_USE_DIRECT_BUFFER = "net.sf.cindy.useDirectBuffer";
     private static final String KEY_CHECK_SESSION_TIMEOUT_INTERVAL = "net.sf.cindy.checkSessionInterval";
     private static final String KEY_LOG_EXCEPTION = "net.sf.cindy.logException";
+    private static final String KEY_EVENT_GENERATOR_COUNT = "net.sf.cindy.eventGeneratorCount";
+    private static final String KEY_LOCK_FREE_WRITE_QUEUE = "net.sf.cindy.lockFreeWriteQueue";
+    private static final String KEY_REGISTER_QUEUE_CAPACITY = "net.sf.cindy.registerQueueCapacity";
+    private static final String KEY_TIMING_WHEEL_SIZE = "net.sf.cindy.timingWheelSize";
+    private static final String KEY_BUFFER_POOL_MAX_CAPACITY = "net.sf.cindy.bufferPoolMaxCapacity";
+    private static final String KEY_BUFFER_POOL_ARENA_SIZE = "net.sf.cindy.bufferPoolArenaSize";
+    private static final String KEY_BUFFER_POOL_THREAD_CACHE_SIZE = "net.sf.cindy.bufferPoolThreadCacheSize";
+    private static final String KEY_WRITE_BATCH_SIZE = "net.sf.cindy.writeBatchSize";
+    private static final String KEY_WRITE_BATCH_BYTES = "net.sf.cindy.writeBatchBytes";
+    private static final String KEY_WRITE_QUEUE_HIGH_WATERMARK = "net.sf.cindy.writeQueueHighWatermark";
+    private static final String KEY_WRITE_QUEUE_LOW_WATERMARK = "net.sf.cindy.writeQueueLowWatermark";
+    private static final String KEY_SSL_TASK_THREAD_POOL_SIZE = "net.sf.cindy.sslTaskThreadPoolSize";
+    private static final String KEY_USE_VIRTUAL_THREAD = "net.sf.cindy.useVirtualThread";
+    private static final String KEY_SLOW_CALLBACK_THRESHOLD = "net.sf.cindy.slowCallbackThreshold";
+    private static final String KEY_READ_BUDGET_BYTES = "net.sf.cindy.readBudgetBytes";
+    private static final String KEY_READ_BUDGET_MESSAGES = "net.sf.cindy.readBudgetMessages";
+    private static final String KEY_REBALANCE_INTERVAL = "net.sf.cindy.rebalanceInterval";
 
     private static final int DEF_SESSION_TIMEOUT = 0;
     private static final int DEF_BUFFER_CAPACITY = 8 * 1024;
@@ -87,6 +129,24 @@ class Constants {
     private static final boolean DEF_USE_DIRECT_BUFFER = false;
     private static final int DEF_CHECK_SESSION_TIMEOUT_INTERVAL = 1000;
     private static final boolean DEF_LOG_EXCEPTION = false;
+    private static final int DEF_EVENT_GENERATOR_COUNT = Runtime.getRuntime()
+            .availableProcessors();
+    private static final boolean DEF_LOCK_FREE_WRITE_QUEUE = true;
+    private static final int DEF_REGISTER_QUEUE_CAPACITY = 1024;
+    private static final int DEF_TIMING_WHEEL_SIZE = 512;
+    private static final int DEF_BUFFER_POOL_ARENA_SIZE = 64;
+    private static final int DEF_BUFFER_POOL_THREAD_CACHE_SIZE = 8;
+    private static final int DEF_WRITE_BATCH_SIZE = 64;
+    private static final int DEF_WRITE_BATCH_BYTES = 64 * 1024;
+    private static final int DEF_WRITE_QUEUE_HIGH_WATERMARK = 0;
+    private static final int DEF_WRITE_QUEUE_LOW_WATERMARK = 0;
+    private static final int DEF_SSL_TASK_THREAD_POOL_SIZE = Runtime
+            .getRuntime().availableProcessors();
+    private static final boolean DEF_USE_VIRTUAL_THREAD = false;
+    private static final int DEF_SLOW_CALLBACK_THRESHOLD = 100;
+    private static final int DEF_READ_BUDGET_BYTES = 64 * 1024;
+    private static final int DEF_READ_BUDGET_MESSAGES = 64;
+    private static final int DEF_REBALANCE_INTERVAL = 0;
 
     /**
      * Session default timeout.
@@ -118,6 +178,104 @@ class Constants {
      */
     static final boolean LOG_EXCEPTION;
 
+    /**
+     * Default event generator count of an 
+     * {@link net.sf.cindy.impl.EventGeneratorGroup EventGeneratorGroup}.
+     */
+    static final int EVENT_GENERATOR_COUNT;
+
+    /**
+     * Channel sessions use lock-free write queue or synchronized write queue.
+     */
+    static final boolean LOCK_FREE_WRITE_QUEUE;
+
+    /**
+     * Capacity of the register ring in each event generator.
+     */
+    static final int REGISTER_QUEUE_CAPACITY;
+
+    /**
+     * Bucket count of the timing wheel in each event generator, each 
+     * bucket covers a check session timeout interval.
+     */
+    static final int TIMING_WHEEL_SIZE;
+
+    /**
+     * The largest buffer capacity kept by the session buffer pool, default
+     * is the buffer capacity limit.
+     */
+    static final int BUFFER_POOL_MAX_CAPACITY;
+
+    /**
+     * Max idle buffers per size class in the shared arenas of the session
+     * buffer pool.
+     */
+    static final int BUFFER_POOL_ARENA_SIZE;
+
+    /**
+     * Max idle buffers per size class cached by each thread.
+     */
+    static final int BUFFER_POOL_THREAD_CACHE_SIZE;
+
+    /**
+     * Max messages and max buffers gathered by one channel write, 1 means
+     * write messages one by one.
+     */
+    static final int WRITE_BATCH_SIZE;
+
+    /**
+     * Stop gathering more messages into one channel write after so many
+     * bytes.
+     */
+    static final int WRITE_BATCH_BYTES;
+
+    /**
+     * Session default write queue high watermark, 0 means unbounded.
+     */
+    static final int WRITE_QUEUE_HIGH_WATERMARK;
+
+    /**
+     * Session default write queue low watermark, 0 means half of the high
+     * watermark.
+     */
+    static final int WRITE_QUEUE_LOW_WATERMARK;
+
+    /**
+     * Thread pool size of the default SSL task executor, 0 means run the
+     * delegated tasks in the event generator thread.
+     */
+    static final int SSL_TASK_THREAD_POOL_SIZE;
+
+    /**
+     * Run simulated sessions in virtual threads by default, ignored if
+     * virtual thread is not supported.
+     */
+    static final boolean USE_VIRTUAL_THREAD;
+
+    /**
+     * Event generator callbacks which run longer than it, in millisecond,
+     * are sampled, 0 means not sample.
+     */
+    static final int SLOW_CALLBACK_THRESHOLD;
+
+    /**
+     * Session default max bytes read from the channel per readable event,
+     * 0 means unlimited.
+     */
+    static final int READ_BUDGET_BYTES;
+
+    /**
+     * Session default max messages dispatched per readable event, 0 means
+     * unlimited.
+     */
+    static final int READ_BUDGET_MESSAGES;
+
+    /**
+     * Event generator group default rebalance interval, in millisecond, 0
+     * means not rebalance.
+     */
+    static final int REBALANCE_INTERVAL;
+
     /**
      * In JDK 1.4, it's has a bug when invoke SocketChannel.write(ByteBuffer[]),
      * see: http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=4854354.
@@ -174,6 +332,115 @@ class Constants {
         else
             LOG_EXCEPTION = logException.intValue() != 0;
 
+        int eventGeneratorCount = Integer.getInteger(
+                KEY_EVENT_GENERATOR_COUNT, DEF_EVENT_GENERATOR_COUNT)
+                .intValue();
+        if (eventGeneratorCount <= 0)
+            eventGeneratorCount = DEF_EVENT_GENERATOR_COUNT;
+        EVENT_GENERATOR_COUNT = eventGeneratorCount;
+
+        Integer lockFreeWriteQueue = Integer
+                .getInteger(KEY_LOCK_FREE_WRITE_QUEUE);
+        if (lockFreeWriteQueue == null)
+            LOCK_FREE_WRITE_QUEUE = DEF_LOCK_FREE_WRITE_QUEUE;
+        else
+            LOCK_FREE_WRITE_QUEUE = lockFreeWriteQueue.intValue() != 0;
+
+        int registerQueueCapacity = Integer.getInteger(
+                KEY_REGISTER_QUEUE_CAPACITY, DEF_REGISTER_QUEUE_CAPACITY)
+                .intValue();
+        if (registerQueueCapacity <= 0)
+            registerQueueCapacity = DEF_REGISTER_QUEUE_CAPACITY;
+        REGISTER_QUEUE_CAPACITY = registerQueueCapacity;
+
+        int timingWheelSize = Integer.getInteger(KEY_TIMING_WHEEL_SIZE,
+                DEF_TIMING_WHEEL_SIZE).intValue();
+        if (timingWheelSize <= 0)
+            timingWheelSize = DEF_TIMING_WHEEL_SIZE;
+        TIMING_WHEEL_SIZE = timingWheelSize;
+
+        int bufferPoolMaxCapacity = Integer.getInteger(
+                KEY_BUFFER_POOL_MAX_CAPACITY, bufferCapacityLimit).intValue();
+        if (bufferPoolMaxCapacity < 0)
+            bufferPoolMaxCapacity = bufferCapacityLimit;
+        BUFFER_POOL_MAX_CAPACITY = bufferPoolMaxCapacity;
+
+        int bufferPoolArenaSize = Integer.getInteger(
+                KEY_BUFFER_POOL_ARENA_SIZE, DEF_BUFFER_POOL_ARENA_SIZE)
+                .intValue();
+        if (bufferPoolArenaSize < 0)
+            bufferPoolArenaSize = DEF_BUFFER_POOL_ARENA_SIZE;
+        BUFFER_POOL_ARENA_SIZE = bufferPoolArenaSize;
+
+        int bufferPoolThreadCacheSize = Integer.getInteger(
+                KEY_BUFFER_POOL_THREAD_CACHE_SIZE,
+                DEF_BUFFER_POOL_THREAD_CACHE_SIZE).intValue();
+        if (bufferPoolThreadCacheSize < 0)
+            bufferPoolThreadCacheSize = DEF_BUFFER_POOL_THREAD_CACHE_SIZE;
+        BUFFER_POOL_THREAD_CACHE_SIZE = bufferPoolThreadCacheSize;
+
+        int writeBatchSize = Integer.getInteger(KEY_WRITE_BATCH_SIZE,
+                DEF_WRITE_BATCH_SIZE).intValue();
+        if (writeBatchSize <= 0)
+            writeBatchSize = 1;
+        WRITE_BATCH_SIZE = writeBatchSize;
+
+        int writeBatchBytes = Integer.getInteger(KEY_WRITE_BATCH_BYTES,
+                DEF_WRITE_BATCH_BYTES).intValue();
+        if (writeBatchBytes <= 0)
+            writeBatchBytes = DEF_WRITE_BATCH_BYTES;
+        WRITE_BATCH_BYTES = writeBatchBytes;
+
+        int highWatermark = Integer.getInteger(KEY_WRITE_QUEUE_HIGH_WATERMARK,
+                DEF_WRITE_QUEUE_HIGH_WATERMARK).intValue();
+        if (highWatermark < 0)
+            highWatermark = DEF_WRITE_QUEUE_HIGH_WATERMARK;
+        WRITE_QUEUE_HIGH_WATERMARK = highWatermark;
+
+        int lowWatermark = Integer.getInteger(KEY_WRITE_QUEUE_LOW_WATERMARK,
+                DEF_WRITE_QUEUE_LOW_WATERMARK).intValue();
+        if (lowWatermark < 0)
+            lowWatermark = DEF_WRITE_QUEUE_LOW_WATERMARK;
+        WRITE_QUEUE_LOW_WATERMARK = lowWatermark;
+
+        int sslTaskThreadPoolSize = Integer.getInteger(
+                KEY_SSL_TASK_THREAD_POOL_SIZE, DEF_SSL_TASK_THREAD_POOL_SIZE)
+                .intValue();
+        if (sslTaskThreadPoolSize < 0)
+            sslTaskThreadPoolSize = DEF_SSL_TASK_THREAD_POOL_SIZE;
+        SSL_TASK_THREAD_POOL_SIZE = sslTaskThreadPoolSize;
+
+        Integer isUseVirtualThread = Integer.getInteger(KEY_USE_VIRTUAL_THREAD);
+        if (isUseVirtualThread == null)
+            USE_VIRTUAL_THREAD = DEF_USE_VIRTUAL_THREAD;
+        else
+            USE_VIRTUAL_THREAD = isUseVirtualThread.intValue() != 0;
+
+        int slowCallbackThreshold = Integer.getInteger(
+                KEY_SLOW_CALLBACK_THRESHOLD, DEF_SLOW_CALLBACK_THRESHOLD)
+                .intValue();
+        if (slowCallbackThreshold < 0)
+            slowCallbackThreshold = DEF_SLOW_CALLBACK_THRESHOLD;
+        SLOW_CALLBACK_THRESHOLD = slowCallbackThreshold;
+
+        int readBudgetBytes = Integer.getInteger(KEY_READ_BUDGET_BYTES,
+                DEF_READ_BUDGET_BYTES).intValue();
+        if (readBudgetBytes < 0)
+            readBudgetBytes = DEF_READ_BUDGET_BYTES;
+        READ_BUDGET_BYTES = readBudgetBytes;
+
+        int readBudgetMessages = Integer.getInteger(KEY_READ_BUDGET_MESSAGES,
+                DEF_READ_BUDGET_MESSAGES).intValue();
+        if (readBudgetMessages < 0)
+            readBudgetMessages = DEF_READ_BUDGET_MESSAGES;
+        READ_BUDGET_MESSAGES = readBudgetMessages;
+
+        int rebalanceInterval = Integer.getInteger(KEY_REBALANCE_INTERVAL,
+                DEF_REBALANCE_INTERVAL).intValue();
+        if (rebalanceInterval < 0)
+            rebalanceInterval = DEF_REBALANCE_INTERVAL;
+        REBALANCE_INTERVAL = rebalanceInterval;
+
         SUPPORT_WRITE_BUFFER_ARRAY = !Utils.isJdk14();
         SUPPORT_SSL = SUPPORT_WRITE_BUFFER_ARRAY;
 
@@ -103,10 +103,7 @@ public class DatagramSession extends PacketChannelSession {
             return;
         if (channel == null) {
             try {
-                channel = DatagramChannel.open();
-                channel.socket().bind(localAddress);
-                if (remoteAddress != null)
-                    channel.connect(remoteAddress);
+                channel = openChannel(localAddress, remoteAddress);
             } catch (IOException e) {
                 dispatchException(e);
                 if (channel != null) {
@@ -123,6 +120,32 @@ public class DatagramSession extends PacketChannelSession {
         startSession(channel, channel, block);
     }
 
+    /**
+     * Open the channel when the session starts without a channel set.
+     * Subclass can override it to configure the channel before it is bound.
+     * 
+     * @param localAddress
+     * 		the local address, null means any
+     * @param remoteAddress
+     * 		the remote address, null means not connect
+     * @return
+     * 		the bound channel
+     * @throws IOException
+     */
+    protected DatagramChannel openChannel(SocketAddress localAddress,
+            SocketAddress remoteAddress) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.socket().bind(localAddress);
+            if (remoteAddress != null)
+                channel.connect(remoteAddress);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
     /**
      * the session is connected.
      * 
@@ -150,10 +173,19 @@ public class DatagramSession extends PacketChannelSession {
         super.onUnregister();
     }
 
+    /**
+     * Receive datagrams into one pooled buffer. At most
+     * {@link Constants#READ_BUDGET_MESSAGES} datagrams are received per
+     * readable event, the rest are received when the channel is selected
+     * again, after other ready sessions.
+     */
     protected void readFromChannel(SelectableChannel channel)
             throws IOException {
-        while ((lastSocketAddress = ((DatagramChannel) channel)
-                .receive(readBuffer)) != null) {
+        borrowReadBuffer(Constants.BUFFER_CAPACITY);
+        int budget = Constants.READ_BUDGET_MESSAGES;
+        for (int count = 0; (budget <= 0 || count < budget)
+                && (lastSocketAddress = ((DatagramChannel) channel)
+                        .receive(readBuffer)) != null; count++) {
             readBuffer.flip();
             if (getStatistic() != null)
                 ((SessionStatisticSpi) getStatistic()).received(readBuffer
@@ -163,6 +195,7 @@ public class DatagramSession extends PacketChannelSession {
                 dispatchMessageReceived(message);
             readBuffer.clear();
         }
+        releaseReadBuffer(); //Datagrams never leave bytes pending
         ((EventGeneratorSpi) getEventGenerator()).register(this,
                 Constants.EV_ENABLE_READ);
     }
@@ -187,7 +220,7 @@ public class DatagramSession extends PacketChannelSession {
     protected Message writeToChannel(SelectableChannel channel,
             Object writeMessage) throws IOException {
         Message message = (Message) writeMessage;
-        ByteBuffer[] buffers = message.toByteBuffer();
+        ByteBuffer[] buffers = encodeMessage(message);
 
         if (ByteBufferUtils.hasRemaining(buffers)) {
             long writeCount = 0;
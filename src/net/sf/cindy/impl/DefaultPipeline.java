@@ -0,0 +1,244 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.impl;
+
+import java.nio.ByteBuffer;
+
+import net.sf.cindy.Message;
+import net.sf.cindy.MessageDecoder;
+import net.sf.cindy.MessageEncoder;
+import net.sf.cindy.MessageInterceptor;
+import net.sf.cindy.Pipeline;
+import net.sf.cindy.Session;
+import net.sf.cindy.SessionHandler;
+import net.sf.cindy.util.ChunkedByteBuffer;
+
+/**
+ * Copy-on-write pipeline. Changes rebuild the stage arrays under the lock,
+ * the reading and writing threads only read the volatile arrays, so
+ * passing a message through the pipeline never locks or allocates.
+ * 
+ * @author Roger Chen
+ */
+class DefaultPipeline implements Pipeline {
+
+    private static final String[] EMPTY_NAMES = new String[0];
+    private static final SessionHandler[] EMPTY_HANDLERS = new SessionHandler[0];
+
+    private String[] names = EMPTY_NAMES;
+    private SessionHandler[] handlers = EMPTY_HANDLERS;
+
+    //Stages by type, in pipeline order
+    private volatile MessageDecoder[] decoders = new MessageDecoder[0];
+    private volatile MessageEncoder[] encoders = new MessageEncoder[0];
+    private volatile MessageInterceptor[] interceptors = new MessageInterceptor[0];
+
+    public synchronized void addFirst(String name, SessionHandler handler)
+            throws IllegalArgumentException {
+        add(0, name, handler);
+    }
+
+    public synchronized void addLast(String name, SessionHandler handler)
+            throws IllegalArgumentException {
+        add(names.length, name, handler);
+    }
+
+    public synchronized void addBefore(String baseName, String name,
+            SessionHandler handler) throws IllegalArgumentException {
+        add(indexOfBase(baseName), name, handler);
+    }
+
+    public synchronized void addAfter(String baseName, String name,
+            SessionHandler handler) throws IllegalArgumentException {
+        add(indexOfBase(baseName) + 1, name, handler);
+    }
+
+    public synchronized SessionHandler remove(String name) {
+        int index = indexOf(name);
+        if (index < 0)
+            return null;
+        SessionHandler handler = handlers[index];
+        String[] newNames = new String[names.length - 1];
+        SessionHandler[] newHandlers = new SessionHandler[handlers.length - 1];
+        System.arraycopy(names, 0, newNames, 0, index);
+        System.arraycopy(names, index + 1, newNames, index, newNames.length
+                - index);
+        System.arraycopy(handlers, 0, newHandlers, 0, index);
+        System.arraycopy(handlers, index + 1, newHandlers, index,
+                newHandlers.length - index);
+        update(newNames, newHandlers);
+        return handler;
+    }
+
+    public synchronized SessionHandler get(String name) {
+        int index = indexOf(name);
+        return index < 0 ? null : handlers[index];
+    }
+
+    public synchronized String[] getNames() {
+        return names.clone();
+    }
+
+    /**
+     * Add all handlers to the end of another pipeline, used to build the
+     * pipeline of an accepted session from its server.
+     * 
+     * @param pipeline
+     * 		the other pipeline
+     */
+    synchronized void copyTo(Pipeline pipeline) {
+        for (int i = 0; i < names.length; i++)
+            pipeline.addLast(names[i], handlers[i]);
+    }
+
+    private void add(int index, String name, SessionHandler handler) {
+        if (name == null)
+            throw new IllegalArgumentException("name is null");
+        if (handler == null)
+            throw new IllegalArgumentException("handler is null");
+        if (indexOf(name) >= 0)
+            throw new IllegalArgumentException("duplicate handler name "
+                    + name);
+        String[] newNames = new String[names.length + 1];
+        SessionHandler[] newHandlers = new SessionHandler[handlers.length + 1];
+        System.arraycopy(names, 0, newNames, 0, index);
+        System.arraycopy(names, index, newNames, index + 1, names.length
+                - index);
+        System.arraycopy(handlers, 0, newHandlers, 0, index);
+        System.arraycopy(handlers, index, newHandlers, index + 1,
+                handlers.length - index);
+        newNames[index] = name;
+        newHandlers[index] = handler;
+        update(newNames, newHandlers);
+    }
+
+    private int indexOf(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name))
+                return i;
+        }
+        return -1;
+    }
+
+    private int indexOfBase(String baseName) {
+        int index = indexOf(baseName);
+        if (index < 0)
+            throw new IllegalArgumentException("handler " + baseName
+                    + " not found");
+        return index;
+    }
+
+    private void update(String[] newNames, SessionHandler[] newHandlers) {
+        int decoderCount = 0, encoderCount = 0, interceptorCount = 0;
+        for (int i = 0; i < newHandlers.length; i++) {
+            if (newHandlers[i] instanceof MessageDecoder)
+                decoderCount++;
+            if (newHandlers[i] instanceof MessageEncoder)
+                encoderCount++;
+            if (newHandlers[i] instanceof MessageInterceptor)
+                interceptorCount++;
+        }
+        MessageDecoder[] newDecoders = new MessageDecoder[decoderCount];
+        MessageEncoder[] newEncoders = new MessageEncoder[encoderCount];
+        MessageInterceptor[] newInterceptors = new MessageInterceptor[interceptorCount];
+        decoderCount = encoderCount = interceptorCount = 0;
+        for (int i = 0; i < newHandlers.length; i++) {
+            if (newHandlers[i] instanceof MessageDecoder)
+                newDecoders[decoderCount++] = (MessageDecoder) newHandlers[i];
+            if (newHandlers[i] instanceof MessageEncoder)
+                newEncoders[encoderCount++] = (MessageEncoder) newHandlers[i];
+            if (newHandlers[i] instanceof MessageInterceptor)
+                newInterceptors[interceptorCount++] = (MessageInterceptor) newHandlers[i];
+        }
+        names = newNames;
+        handlers = newHandlers;
+        decoders = newDecoders;
+        encoders = newEncoders;
+        interceptors = newInterceptors;
+    }
+
+    /**
+     * The pipeline have any decoder.
+     * 
+     * @return
+     * 		have decoder
+     */
+    boolean hasDecoder() {
+        return decoders.length > 0;
+    }
+
+    /**
+     * Try the decoders from the first to the last.
+     * 
+     * @return
+     * 		the decoded message, null if no decoder decoded a message
+     */
+    Message decode(Session session, ChunkedByteBuffer buffer) {
+        MessageDecoder[] decoders = this.decoders;
+        for (int i = 0; i < decoders.length; i++) {
+            Message message = decoders[i].decode(session, buffer);
+            if (message != null)
+                return message;
+        }
+        return null;
+    }
+
+    /**
+     * Try the encoders from the last to the first.
+     * 
+     * @return
+     * 		the encoded bytes, the result of Message.toByteBuffer if no
+     * encoder encoded the message
+     */
+    ByteBuffer[] encode(Session session, Message message) {
+        MessageEncoder[] encoders = this.encoders;
+        for (int i = encoders.length - 1; i >= 0; i--) {
+            ByteBuffer[] buffers = encoders[i].encode(session, message);
+            if (buffers != null)
+                return buffers;
+        }
+        return message.toByteBuffer();
+    }
+
+    /**
+     * Pass the received message through the interceptors, from the first to
+     * the last.
+     * 
+     * @return
+     * 		the message, null if dropped
+     */
+    Message received(Session session, Message message) {
+        MessageInterceptor[] interceptors = this.interceptors;
+        for (int i = 0; i < interceptors.length && message != null; i++)
+            message = interceptors[i].messageReceived(session, message);
+        return message;
+    }
+
+    /**
+     * Pass the written message through the interceptors, from the last to
+     * the first.
+     * 
+     * @return
+     * 		the message, null if dropped
+     */
+    Message writing(Session session, Message message) {
+        MessageInterceptor[] interceptors = this.interceptors;
+        for (int i = interceptors.length - 1; i >= 0 && message != null; i--)
+            message = interceptors[i].messageWriting(session, message);
+        return message;
+    }
+
+}
\ No newline at end of file
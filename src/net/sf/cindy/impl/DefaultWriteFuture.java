@@ -0,0 +1,127 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import net.sf.cindy.Message;
+import net.sf.cindy.WriteFuture;
+import net.sf.cindy.WriteFutureListener;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Default write future, completed by the session.
+ * 
+ * @author Roger Chen
+ */
+class DefaultWriteFuture implements WriteFuture {
+
+    private static final Log log = LogFactory.getLog(DefaultWriteFuture.class);
+
+    private final Message message;
+
+    private boolean done;
+    private boolean success;
+    private List listeners;
+
+    DefaultWriteFuture(Message message) {
+        this.message = message;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    public synchronized boolean isSuccess() {
+        return success;
+    }
+
+    public synchronized boolean await() throws InterruptedException {
+        while (!done)
+            wait();
+        return success;
+    }
+
+    public synchronized boolean await(long timeout) throws InterruptedException {
+        if (timeout <= 0)
+            return await();
+        long deadline = System.currentTimeMillis() + timeout;
+        while (!done) {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0)
+                break;
+            wait(wait);
+        }
+        return success;
+    }
+
+    public void addListener(WriteFutureListener listener) {
+        if (listener == null)
+            return;
+        synchronized (this) {
+            if (!done) {
+                if (listeners == null)
+                    listeners = new ArrayList(1);
+                listeners.add(listener);
+                return;
+            }
+        }
+        notifyListener(listener);
+    }
+
+    /**
+     * Complete the write, only the first invocation takes effect.
+     * 
+     * @param success
+     * 		write successful
+     */
+    void complete(boolean success) {
+        List listeners;
+        synchronized (this) {
+            if (done)
+                return;
+            done = true;
+            this.success = success;
+            listeners = this.listeners;
+            this.listeners = null;
+            notifyAll();
+        }
+        if (listeners != null)
+            for (Iterator iter = listeners.iterator(); iter.hasNext();)
+                notifyListener((WriteFutureListener) iter.next());
+    }
+
+    private void notifyListener(WriteFutureListener listener) {
+        try {
+            listener.writeCompleted(this);
+        } catch (Throwable e) { //Protection catch
+            log.error(e, e);
+        }
+    }
+
+    public String toString() {
+        return "WriteFuture [" + message + "] "
+                + (done ? (success ? "success" : "failed") : "pending");
+    }
+}
\ No newline at end of file
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.impl;
+
+import net.sf.cindy.Session;
+
+/**
+ * Choose which {@link net.sf.cindy.impl.SimpleEventGenerator SimpleEventGenerator}
+ * of an {@link net.sf.cindy.impl.EventGeneratorGroup EventGeneratorGroup}
+ * a new session will be registered on.
+ *
+ * @author Roger Chen
+ */
+public interface EventGeneratorChooser {
+
+    /**
+     * Choose an event generator for the session.
+     *
+     * @param session
+     * 		the session which will be registered
+     * @param generators
+     * 		all event generators in the group, never empty
+     * @return
+     * 		the chosen event generator, must be one of generators
+     */
+    public SimpleEventGenerator choose(Session session,
+            SimpleEventGenerator[] generators);
+}
\ No newline at end of file
@@ -0,0 +1,445 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.cindy.Session;
+import net.sf.cindy.spi.EventGeneratorSpi;
+import net.sf.cindy.spi.SessionSpi;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A group of {@link net.sf.cindy.impl.SimpleEventGenerator SimpleEventGenerator},
+ * each one runs its own selector thread. When a session registers, an
+ * {@link net.sf.cindy.impl.EventGeneratorChooser EventGeneratorChooser}
+ * decides which event generator the session belongs to, all later events
+ * of the session go to the same event generator, until the session is
+ * migrated to another one. A rebalancer can migrate hot sessions off an
+ * overloaded event generator periodically.
+ *
+ * <pre>
+ *
+ *                          +--> SimpleEventGenerator 0
+ *                          |
+ *   EventGeneratorGroup ---+--> SimpleEventGenerator 1
+ *                          |
+ *                          +--> SimpleEventGenerator n-1
+ *
+ * </pre>
+ *
+ * @author Roger Chen
+ */
+public class EventGeneratorGroup implements EventGeneratorSpi,
+        EventGeneratorGroupMBean {
+
+    private static final Log log = LogFactory.getLog(EventGeneratorGroup.class);
+
+    private final SimpleEventGenerator[] generators;
+    private final Map sessionMap = new WeakHashMap(); //Key=Session, Value=SimpleEventGenerator, only changed on register and migration
+
+    private EventGeneratorChooser chooser;
+    private volatile boolean started = false;
+    private int priority = Thread.NORM_PRIORITY;
+
+    private final EventGeneratorRebalancer rebalancer;
+    private long rebalanceInterval = Constants.REBALANCE_INTERVAL;
+    private final AtomicLong migrationCount = new AtomicLong();
+
+    /**
+     * Create a group, the event generator count is the available processor
+     * count, and use least loaded chooser.
+     */
+    public EventGeneratorGroup() {
+        this(Constants.EVENT_GENERATOR_COUNT);
+    }
+
+    public EventGeneratorGroup(int count) {
+        this(count, new LeastLoadedChooser());
+    }
+
+    public EventGeneratorGroup(int count, EventGeneratorChooser chooser) {
+        if (count <= 0)
+            throw new IllegalArgumentException(
+                    "event generator count must be positive");
+        generators = new SimpleEventGenerator[count];
+        for (int i = 0; i < count; i++)
+            generators[i] = newEventGenerator();
+        rebalancer = new EventGeneratorRebalancer(this, count);
+        setChooser(chooser);
+    }
+
+    /**
+     * Create an event generator of the group. Subclass can override this
+     * method to provide its own event generator.
+     *
+     * @return
+     * 		new event generator
+     */
+    protected SimpleEventGenerator newEventGenerator() {
+        return new SimpleEventGenerator();
+    }
+
+    public EventGeneratorChooser getChooser() {
+        return chooser;
+    }
+
+    public void setChooser(EventGeneratorChooser chooser) {
+        if (chooser == null)
+            throw new IllegalArgumentException("chooser is null");
+        this.chooser = chooser;
+    }
+
+    /**
+     * Get all event generators in the group.
+     *
+     * @return
+     * 		event generators
+     */
+    public SimpleEventGenerator[] getEventGenerators() {
+        SimpleEventGenerator[] result = new SimpleEventGenerator[generators.length];
+        System.arraycopy(generators, 0, result, 0, generators.length);
+        return result;
+    }
+
+    public int getEventGeneratorCount() {
+        return generators.length;
+    }
+
+    public int[] getKeyCounts() {
+        int[] counts = new int[generators.length];
+        for (int i = 0; i < generators.length; i++)
+            counts[i] = generators[i].getKeyCount();
+        return counts;
+    }
+
+    public double[] getBusyRatios() {
+        double[] ratios = new double[generators.length];
+        for (int i = 0; i < generators.length; i++)
+            ratios[i] = generators[i].getBusyRatio();
+        return ratios;
+    }
+
+    public synchronized long getRebalanceInterval() {
+        return rebalanceInterval;
+    }
+
+    public synchronized void setRebalanceInterval(long interval) {
+        if (interval < 0)
+            interval = 0;
+        this.rebalanceInterval = interval;
+        if (started)
+            rebalancer.schedule(interval);
+    }
+
+    public double getRebalanceThreshold() {
+        return rebalancer.getThreshold();
+    }
+
+    public void setRebalanceThreshold(double threshold) {
+        rebalancer.setThreshold(threshold);
+    }
+
+    public long getMigrationCount() {
+        return migrationCount.get();
+    }
+
+    public int rebalance() {
+        return rebalancer.rebalance();
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public void setPriority(int priority) throws IllegalArgumentException {
+        for (int i = 0; i < generators.length; i++)
+            generators[i].setPriority(priority);
+        this.priority = priority;
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    public synchronized void start() {
+        if (log.isTraceEnabled())
+            log.trace("start EventGeneratorGroup with " + generators.length
+                    + " event generators");
+        for (int i = 0; i < generators.length; i++)
+            generators[i].start();
+        started = true;
+        rebalancer.schedule(rebalanceInterval);
+    }
+
+    /**
+     * @deprecated replaced by stop().
+     */
+    @Deprecated
+    public synchronized void close() {
+        stop();
+    }
+
+    public synchronized void stop() {
+        if (!started)
+            return;
+        started = false;
+        rebalancer.schedule(0);
+        for (int i = 0; i < generators.length; i++)
+            generators[i].stop();
+        synchronized (sessionMap) {
+            sessionMap.clear();
+        }
+    }
+
+    /**
+     * Get the event generator which the session registered on.
+     *
+     * @param session
+     * 		the session
+     * @return
+     * 		the event generator, null if the session have not registered
+     */
+    public SimpleEventGenerator getEventGenerator(Session session) {
+        if (session instanceof AbstractSession)
+            return ((AbstractSession) session).groupMember;
+        synchronized (sessionMap) {
+            return (SimpleEventGenerator) sessionMap.get(session);
+        }
+    }
+
+    /**
+     * Bind the session to an event generator. Sessions keep their event
+     * generator themselves, so looking it up on every event takes no lock,
+     * the map is kept for the rebalancer.
+     */
+    private void setEventGenerator(Session session,
+            SimpleEventGenerator generator) {
+        if (session instanceof AbstractSession)
+            ((AbstractSession) session).groupMember = generator;
+        synchronized (sessionMap) {
+            sessionMap.put(session, generator);
+        }
+    }
+
+    /**
+     * Get a snapshot of the registered sessions.
+     * 
+     * @return
+     * 		Key=Session, Value=SimpleEventGenerator
+     */
+    Map getSessionMap() {
+        synchronized (sessionMap) {
+            return new HashMap(sessionMap);
+        }
+    }
+
+    /**
+     * Move a started session to another event generator of the group. The
+     * migration completes asynchronously: the event generator the session
+     * leaves cancels its selection keys, then the target registers the
+     * channels with the same interest and takes over the pending writes and
+     * the timeout. Bytes not read stay in the channel, so nothing is lost
+     * or reordered.
+     * 
+     * @param session
+     * 		the session
+     * @param target
+     * 		the event generator, must belong to the group
+     * @return
+     * 		false if the session is not a started channel session of the
+     * group, is already on the target, is migrating, or the target is
+     * stopping by itself
+     * @throws IllegalArgumentException
+     * 		if the target does not belong to the group
+     */
+    public boolean migrate(Session session, SimpleEventGenerator target)
+            throws IllegalArgumentException {
+        boolean found = false;
+        for (int i = 0; i < generators.length && !found; i++)
+            found = generators[i] == target;
+        if (!found)
+            throw new IllegalArgumentException(
+                    "target is not an event generator of the group");
+        if (!(session instanceof ChannelSession)
+                || session.getEventGenerator() != this)
+            return false;
+        SimpleEventGenerator source = getEventGenerator(session);
+        if (source == null || source == target)
+            return false;
+        if (!target.isStarted())
+            target.start();
+        if (!target.reserveArrival()) //Stopping by itself
+            return false;
+        if (!((ChannelSession) session).migrate(source, target)) {
+            target.arrived();
+            return false;
+        }
+        migrationCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * The session have left its event generator, invoked by the event
+     * generator thread it left. Events registered after this go to the
+     * target, and are held by the session until it arrives.
+     */
+    void migrated(ChannelSession session, SimpleEventGenerator target) {
+        setEventGenerator(session, target);
+        //Not under the lock, the target's register ring may be full
+        target.register(session, Constants.EV_MIGRATED);
+    }
+
+    public void register(SessionSpi session, Object event) {
+        SimpleEventGenerator generator = null;
+        if (event != Constants.EV_REGISTER)
+            generator = getEventGenerator(session);
+        if (generator == null) {
+            generator = chooser.choose(session, generators);
+            setEventGenerator(session, generator);
+        }
+        if (!generator.isStarted())
+            generator.start();
+        generator.register(session, event);
+    }
+
+    /**
+     * Judge current thread is any event generator thread of the group.
+     */
+    public boolean isEventGeneratorThread() {
+        for (int i = 0; i < generators.length; i++) {
+            if (generators[i].isEventGeneratorThread())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Judge current thread is the event generator thread which the
+     * session registered on.
+     *
+     * @param session
+     * 		the session
+     * @return
+     * 		the current thread is the session's event generator thread
+     */
+    public boolean isEventGeneratorThread(Session session) {
+        SimpleEventGenerator generator = getEventGenerator(session);
+        return generator != null && generator.isEventGeneratorThread();
+    }
+
+    /**
+     * Choose event generators in turn.
+     */
+    public static class RoundRobinChooser implements EventGeneratorChooser {
+
+        private int pos = -1;
+
+        public synchronized SimpleEventGenerator choose(Session session,
+                SimpleEventGenerator[] generators) {
+            pos = (pos + 1) % generators.length;
+            return generators[pos];
+        }
+    }
+
+    /**
+     * Choose the event generator which have the least registered keys.
+     */
+    public static class LeastLoadedChooser implements EventGeneratorChooser {
+
+        public SimpleEventGenerator choose(Session session,
+                SimpleEventGenerator[] generators) {
+            SimpleEventGenerator result = generators[0];
+            int min = result.getKeyCount();
+            for (int i = 1; i < generators.length && min > 0; i++) {
+                int count = generators[i].getKeyCount();
+                if (count < min) {
+                    min = count;
+                    result = generators[i];
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Sessions which have the same affinity key will be registered on the
+     * same event generator. Sessions without affinity key are delegated to
+     * the fallback chooser.
+     */
+    public static abstract class AffinityChooser implements
+            EventGeneratorChooser {
+
+        private final Map affinityMap = new WeakHashMap(); //Key=affinity key, Value=SimpleEventGenerator
+        private final EventGeneratorChooser fallback;
+
+        public AffinityChooser() {
+            this(new LeastLoadedChooser());
+        }
+
+        public AffinityChooser(EventGeneratorChooser fallback) {
+            this.fallback = fallback;
+        }
+
+        public SimpleEventGenerator choose(Session session,
+                SimpleEventGenerator[] generators) {
+            Object key = getAffinityKey(session);
+            if (key == null)
+                return fallback.choose(session, generators);
+            synchronized (affinityMap) {
+                SimpleEventGenerator generator = (SimpleEventGenerator) affinityMap
+                        .get(key);
+                if (generator == null) {
+                    generator = fallback.choose(session, generators);
+                    affinityMap.put(key, generator);
+                }
+                return generator;
+            }
+        }
+
+        /**
+         * Judge the session can be migrated to the event generator when the
+         * group rebalances. Default only sessions without affinity key can,
+         * moving the others would split the sessions of their key.
+         *
+         * @param session
+         * 		the session
+         * @param target
+         * 		the event generator the session would be migrated to
+         * @return
+         * 		the session can be migrated
+         */
+        protected boolean canMigrate(Session session,
+                SimpleEventGenerator target) {
+            return getAffinityKey(session) == null;
+        }
+
+        /**
+         * Get the affinity key of the session.
+         *
+         * @param session
+         * 		the session
+         * @return
+         * 		affinity key, or null if the session have no affinity
+         */
+        protected abstract Object getAffinityKey(Session session);
+    }
+}
\ No newline at end of file
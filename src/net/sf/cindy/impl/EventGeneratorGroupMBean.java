@@ -0,0 +1,121 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.impl;
+
+import net.sf.cindy.EventGenerator;
+
+/**
+ * JMX support interface.
+ *
+ * @see net.sf.cindy.impl.EventGeneratorGroup
+ *
+ * @author Roger Chen
+ */
+public interface EventGeneratorGroupMBean extends EventGenerator {
+
+    /**
+     * Get the count of event generators in the group.
+     *
+     * @return
+     * 		event generator count
+     */
+    public int getEventGeneratorCount();
+
+    /**
+     * Get the registered key count of each event generator.
+     *
+     * @return
+     * 		registered key count, indexed by event generator
+     */
+    public int[] getKeyCounts();
+
+    /**
+     * Get the busy ratio of each event generator.
+     *
+     * @return
+     * 		busy ratio, indexed by event generator
+     * @see SimpleEventGeneratorMBean#getBusyRatio()
+     */
+    public double[] getBusyRatios();
+
+    /**
+     * Get the interval of rebalancing, in millisecond.
+     *
+     * @return
+     * 		rebalance interval, 0 means not rebalance
+     */
+    public long getRebalanceInterval();
+
+    /**
+     * Set the interval of rebalancing, in millisecond.
+     *
+     * @param interval
+     * 		rebalance interval, 0 means not rebalance
+     */
+    public void setRebalanceInterval(long interval);
+
+    /**
+     * Get the busy ratio difference between the busiest and the idlest
+     * event generator which triggers migrations.
+     *
+     * @return
+     * 		rebalance threshold
+     */
+    public double getRebalanceThreshold();
+
+    /**
+     * Set the busy ratio difference between the busiest and the idlest
+     * event generator which triggers migrations.
+     *
+     * @param threshold
+     * 		rebalance threshold
+     */
+    public void setRebalanceThreshold(double threshold);
+
+    /**
+     * Get the count of session migrations requested, by the rebalancer or
+     * by {@link EventGeneratorGroup#migrate(net.sf.cindy.Session, SimpleEventGenerator)}.
+     *
+     * @return
+     * 		migration count
+     */
+    public long getMigrationCount();
+
+    /**
+     * Rebalance now.
+     *
+     * @return
+     * 		migrated session count
+     */
+    public int rebalance();
+
+    /**
+     * Get thread priority.
+     *
+     * @return
+     * 		priority
+     */
+    public int getPriority();
+
+    /**
+     * Set thread priority of all event generators.
+     *
+     * @param priority
+     * 		thread priority
+     * @throws IllegalArgumentException
+     */
+    public void setPriority(int priority) throws IllegalArgumentException;
+}
\ No newline at end of file
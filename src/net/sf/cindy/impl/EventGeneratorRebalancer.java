@@ -0,0 +1,181 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.WeakHashMap;
+
+import net.sf.cindy.Session;
+
+/**
+ * Moves hot sessions off an overloaded event generator of a group. Each
+ * pass measures the busy ratio of every event generator and the callback
+ * time of every session since the previous pass. When the busiest event
+ * generator is busy enough and busier than the idlest one by more than the
+ * threshold, its busiest sessions are migrated to the idlest one, until
+ * about half of the difference have been moved. A session heavier than
+ * that is left alone, moving it would only move the hot spot. An
+ * {@link EventGeneratorGroup.AffinityChooser AffinityChooser} of the group
+ * can veto the migration of a session.
+ * 
+ * @author Roger Chen
+ */
+class EventGeneratorRebalancer {
+
+    private static final double MIN_BUSY_RATIO = 0.5;
+    private static final int MAX_MIGRATIONS = 8; //per pass
+
+    private static Timer timer; //Shared by all groups
+
+    private final EventGeneratorGroup group;
+    private final long[] lastSelectTime;
+    private final long[] lastProcessTime;
+    private final Map lastEventTime = new WeakHashMap(); //Key=Session, Value=Long, in nanosecond
+
+    private volatile double threshold = 0.2;
+    private TimerTask task;
+
+    EventGeneratorRebalancer(EventGeneratorGroup group, int generatorCount) {
+        this.group = group;
+        lastSelectTime = new long[generatorCount];
+        lastProcessTime = new long[generatorCount];
+    }
+
+    private static synchronized Timer getTimer() {
+        if (timer == null)
+            timer = new Timer("EventGeneratorRebalancer", true);
+        return timer;
+    }
+
+    double getThreshold() {
+        return threshold;
+    }
+
+    void setThreshold(double threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Run passes periodically.
+     * 
+     * @param interval
+     * 		interval in millisecond, 0 means stop
+     */
+    synchronized void schedule(long interval) {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        if (interval <= 0)
+            return;
+        task = new TimerTask() {
+
+            public void run() {
+                rebalance();
+            }
+        };
+        getTimer().schedule(task, interval, interval);
+    }
+
+    /**
+     * Run a pass.
+     * 
+     * @return
+     * 		migrated session count
+     */
+    synchronized int rebalance() {
+        SimpleEventGenerator[] generators = group.getEventGenerators();
+        double[] ratios = new double[generators.length];
+        long[] periods = new long[generators.length];
+        int hot = 0, cold = 0;
+        for (int i = 0; i < generators.length; i++) {
+            long selectTime = generators[i].getSelectTime(); //in millisecond
+            long processTime = generators[i].getProcessTime();
+            long select = selectTime - lastSelectTime[i];
+            long process = processTime - lastProcessTime[i];
+            lastSelectTime[i] = selectTime;
+            lastProcessTime[i] = processTime;
+            if (select < 0 || process < 0) //Health statistic have been reset
+                select = process = 0;
+            periods[i] = select + process;
+            if (periods[i] > 0)
+                ratios[i] = (double) process / periods[i];
+            if (ratios[i] > ratios[hot])
+                hot = i;
+            if (ratios[i] < ratios[cold])
+                cold = i;
+        }
+
+        //Callback time of every session since the previous pass
+        EventGeneratorChooser chooser = group.getChooser();
+        EventGeneratorGroup.AffinityChooser affinity = null;
+        if (chooser instanceof EventGeneratorGroup.AffinityChooser)
+            affinity = (EventGeneratorGroup.AffinityChooser) chooser;
+        Map sessionMap = group.getSessionMap();
+        List candidates = new ArrayList();
+        final Map loads = new HashMap();
+        for (Iterator iter = sessionMap.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry entry = (Map.Entry) iter.next();
+            Object session = entry.getKey();
+            if (!(session instanceof AbstractSession))
+                continue;
+            long eventTime = ((AbstractSession) session).eventTime;
+            Long last = (Long) lastEventTime.put(session, Long.valueOf(eventTime));
+            long load = last == null ? 0 : eventTime - last.longValue();
+            if (entry.getValue() == generators[hot] && load > 0
+                    && (affinity == null || affinity.canMigrate(
+                            (Session) session, generators[cold]))) {
+                candidates.add(session);
+                loads.put(session, Long.valueOf(load));
+            }
+        }
+
+        double difference = ratios[hot] - ratios[cold];
+        if (ratios[hot] < MIN_BUSY_RATIO || difference < threshold)
+            return 0;
+        Collections.sort(candidates, new Comparator() {
+
+            public int compare(Object o1, Object o2) {
+                long l1 = ((Long) loads.get(o1)).longValue();
+                long l2 = ((Long) loads.get(o2)).longValue();
+                return l1 > l2 ? -1 : (l1 == l2 ? 0 : 1);
+            }
+        });
+
+        long budget = (long) (difference / 2 * periods[hot] * 1000000); //in nanosecond, as session loads
+        int count = 0;
+        for (Iterator iter = candidates.iterator(); iter.hasNext()
+                && count < MAX_MIGRATIONS;) {
+            Session session = (Session) iter.next();
+            long load = ((Long) loads.get(session)).longValue();
+            if (load > budget)
+                continue;
+            if (group.migrate(session, generators[cold])) {
+                budget -= load;
+                count++;
+            }
+        }
+        return count;
+    }
+}
\ No newline at end of file
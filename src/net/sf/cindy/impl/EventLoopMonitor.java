@@ -0,0 +1,266 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.impl;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+import net.sf.cindy.Session;
+
+/**
+ * Health of an event generator loop: time blocked in select versus time
+ * processing, ready keys per select, and the longest callback. Callbacks
+ * which run longer than the slow callback threshold are sampled by a shared
+ * watchdog thread, which records the stack of the event generator thread
+ * while the callback is still running.
+ * <p>
+ * Counters are only written by the event generator thread.
+ * 
+ * @author Roger Chen
+ */
+class EventLoopMonitor {
+
+    private static final int SAMPLE_SIZE = 16;
+    private static final int MIN_CHECK_INTERVAL = 10;
+
+    private static Timer watchdog; //Shared by all event generators
+
+    private volatile long selectTime; //in nanosecond
+    private volatile long processTime; //in nanosecond
+    private volatile long selectCount;
+    private volatile long readyKeyCount;
+    private volatile int maxReadyKeyCount;
+    private volatile long maxCallbackTime; //in nanosecond
+    private volatile long slowCallbackCount;
+
+    private volatile Thread thread;
+    private volatile long callbackStart; //0 if no callback is running
+    private volatile Session callbackSession;
+    private volatile long sampledCallbackStart; //Only written by the watchdog
+
+    private volatile long slowCallbackThreshold = Constants.SLOW_CALLBACK_THRESHOLD; //in millisecond
+    private TimerTask checkTask;
+
+    private final String[] samples = new String[SAMPLE_SIZE];
+    private int samplePos;
+
+    private static synchronized Timer getWatchdog() {
+        if (watchdog == null)
+            watchdog = new Timer("EventLoopMonitor", true);
+        return watchdog;
+    }
+
+    /**
+     * The event generator thread started.
+     */
+    synchronized void started(Thread thread) {
+        this.thread = thread;
+        schedule();
+    }
+
+    /**
+     * The event generator thread stopped.
+     */
+    synchronized void stopped() {
+        thread = null;
+        callbackStart = 0;
+        callbackSession = null;
+        if (checkTask != null) {
+            checkTask.cancel();
+            checkTask = null;
+        }
+    }
+
+    private void schedule() {
+        if (checkTask != null) {
+            checkTask.cancel();
+            checkTask = null;
+        }
+        long threshold = slowCallbackThreshold;
+        if (thread == null || threshold <= 0)
+            return;
+        long interval = Math.max(threshold / 2, MIN_CHECK_INTERVAL);
+        checkTask = new TimerTask() {
+
+            public void run() {
+                check();
+            }
+        };
+        getWatchdog().schedule(checkTask, interval, interval);
+    }
+
+    /**
+     * A select and the events after it have been processed.
+     * 
+     * @param loopStart
+     * 		the time the loop started, in nanosecond
+     * @param selectStart
+     * 		the time select started
+     * @param selectEnd
+     * 		the time select returned
+     * @param loopEnd
+     * 		the time the loop ended
+     * @param readyKeys
+     * 		ready key count returned by select
+     */
+    void loopFinished(long loopStart, long selectStart, long selectEnd,
+            long loopEnd, int readyKeys) {
+        selectTime += selectEnd - selectStart;
+        processTime += (selectStart - loopStart) + (loopEnd - selectEnd);
+        selectCount++;
+        readyKeyCount += readyKeys;
+        if (readyKeys > maxReadyKeyCount)
+            maxReadyKeyCount = readyKeys;
+    }
+
+    /**
+     * A callback starts.
+     * 
+     * @return
+     * 		start time, pass to callbackFinished
+     */
+    long callbackStarted(Session session) {
+        long start = System.nanoTime();
+        callbackSession = session;
+        callbackStart = start;
+        return start;
+    }
+
+    void callbackFinished(long start) {
+        long time = System.nanoTime() - start;
+        Session session = callbackSession;
+        callbackStart = 0;
+        callbackSession = null;
+        if (session instanceof AbstractSession)
+            ((AbstractSession) session).eventTime += time;
+        if (time > maxCallbackTime)
+            maxCallbackTime = time;
+        long threshold = slowCallbackThreshold;
+        if (threshold > 0 && time >= threshold * 1000000) {
+            slowCallbackCount++;
+            if (sampledCallbackStart != start) //Finished before the watchdog checked
+                addSample(time / 1000000 + "ms in session "
+                        + String.valueOf(session) + ", stack not sampled");
+        }
+    }
+
+    /**
+     * Invoked by the watchdog, sample the stack of the callback which is
+     * running longer than the threshold, once per callback.
+     */
+    private void check() {
+        Thread thread = this.thread;
+        long start = callbackStart;
+        Session session = callbackSession;
+        if (thread == null || start == 0 || start == sampledCallbackStart)
+            return;
+        long time = System.nanoTime() - start;
+        if (time < slowCallbackThreshold * 1000000)
+            return;
+        StackTraceElement[] stack = thread.getStackTrace();
+        if (callbackStart != start) //Finished when sampling
+            return;
+        sampledCallbackStart = start;
+
+        StringBuffer buffer = new StringBuffer();
+        buffer.append(time / 1000000).append("ms in session ").append(
+                String.valueOf(session)).append(", ").append(
+                thread.getName());
+        for (int i = 0; i < stack.length; i++)
+            buffer.append("\n\tat ").append(stack[i]);
+        addSample(buffer.toString());
+    }
+
+    private synchronized void addSample(String sample) {
+        samples[samplePos] = sample;
+        samplePos = (samplePos + 1) % samples.length;
+    }
+
+    /**
+     * Get slow callback samples, the newest first.
+     */
+    synchronized String[] getSlowCallbacks() {
+        int count = 0;
+        for (int i = 0; i < samples.length; i++)
+            if (samples[i] != null)
+                count++;
+        String[] result = new String[count];
+        for (int i = 0, j = samplePos - 1; i < count; i++, j--)
+            result[i] = samples[(j + samples.length) % samples.length];
+        return result;
+    }
+
+    long getSlowCallbackThreshold() {
+        return slowCallbackThreshold;
+    }
+
+    synchronized void setSlowCallbackThreshold(long threshold) {
+        slowCallbackThreshold = Math.max(threshold, 0);
+        schedule();
+    }
+
+    long getSelectTime() {
+        return selectTime / 1000000;
+    }
+
+    long getProcessTime() {
+        return processTime / 1000000;
+    }
+
+    double getBusyRatio() {
+        long process = processTime;
+        long total = selectTime + process;
+        return total == 0 ? 0 : (double) process / total;
+    }
+
+    long getSelectCount() {
+        return selectCount;
+    }
+
+    double getAvgReadyKeyCount() {
+        long count = selectCount;
+        return count == 0 ? 0 : (double) readyKeyCount / count;
+    }
+
+    int getMaxReadyKeyCount() {
+        return maxReadyKeyCount;
+    }
+
+    long getMaxCallbackTime() {
+        return maxCallbackTime / 1000;
+    }
+
+    long getSlowCallbackCount() {
+        return slowCallbackCount;
+    }
+
+    /**
+     * Reset the counters and samples. Counters may be partly kept if the
+     * event generator thread is updating them.
+     */
+    synchronized void reset() {
+        selectTime = 0;
+        processTime = 0;
+        selectCount = 0;
+        readyKeyCount = 0;
+        maxReadyKeyCount = 0;
+        maxCallbackTime = 0;
+        slowCallbackCount = 0;
+        for (int i = 0; i < samples.length; i++)
+            samples[i] = null;
+        samplePos = 0;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.cindy.util.Histogram;
+import net.sf.cindy.util.Meter;
+
+/**
+ * Roll-up of the statistics of many sessions. Updated by all event
+ * generator threads at the same time, so every counter is striped per
+ * processor.
+ * 
+ * @author Roger Chen
+ * @see StripedSessionStatistic
+ */
+public class GlobalSessionStatistic implements GlobalSessionStatisticMBean {
+
+    private final int stripes = Runtime.getRuntime().availableProcessors();
+
+    private final Meter received = new Meter(stripes);
+    private final Meter sent = new Meter(stripes);
+    private final Histogram readSize = new Histogram(stripes);
+    private final Histogram writeSize = new Histogram(stripes);
+    private final Histogram queueTime = new Histogram(stripes);
+    private final AtomicInteger sessionCount = new AtomicInteger();
+
+    void received(long bytes) {
+        received.mark(bytes);
+        readSize.record(bytes);
+    }
+
+    void sent(long bytes) {
+        sent.mark(bytes);
+        writeSize.record(bytes);
+    }
+
+    void messageSent(long time) {
+        queueTime.record(time);
+    }
+
+    void sessionStarted() {
+        sessionCount.incrementAndGet();
+    }
+
+    void sessionStopped() {
+        sessionCount.decrementAndGet();
+    }
+
+    public int getSessionCount() {
+        return sessionCount.get();
+    }
+
+    public long getReceivedBytes() {
+        return received.getTotalValue();
+    }
+
+    public long getSentBytes() {
+        return sent.getTotalValue();
+    }
+
+    public double getReceiveSpeed() {
+        return received.getRate();
+    }
+
+    public double getSendSpeed() {
+        return sent.getRate();
+    }
+
+    public Histogram getReadSizeHistogram() {
+        return readSize;
+    }
+
+    public Histogram getWriteSizeHistogram() {
+        return writeSize;
+    }
+
+    public Histogram getQueueTimeHistogram() {
+        return queueTime;
+    }
+
+    public String getReadSize() {
+        return readSize.toString();
+    }
+
+    public String getWriteSize() {
+        return writeSize.toString();
+    }
+
+    public String getQueueTime() {
+        return queueTime.toString();
+    }
+
+    public void reset() {
+        received.reset();
+        sent.reset();
+        readSize.reset();
+        writeSize.reset();
+        queueTime.reset();
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.impl;
+
+import net.sf.cindy.util.Histogram;
+
+/**
+ * GlobalSessionStatistic MBean.
+ * 
+ * @author Roger Chen
+ */
+public interface GlobalSessionStatisticMBean {
+
+    /**
+     * Get count of started sessions which roll up to the statistic.
+     * 
+     * @return
+     * 		session count
+     */
+    public int getSessionCount();
+
+    public long getReceivedBytes();
+
+    public long getSentBytes();
+
+    /**
+     * Get current receive speed of all sessions, in byte/s.
+     * 
+     * @return
+     * 		receive speed
+     */
+    public double getReceiveSpeed();
+
+    /**
+     * Get current send speed of all sessions, in byte/s.
+     * 
+     * @return
+     * 		send speed
+     */
+    public double getSendSpeed();
+
+    public Histogram getReadSizeHistogram();
+
+    public Histogram getWriteSizeHistogram();
+
+    /**
+     * Get the histogram of the time messages stayed in the write queue, in
+     * nanosecond.
+     * 
+     * @return
+     * 		queue time histogram
+     */
+    public Histogram getQueueTimeHistogram();
+
+    /**
+     * Get the summary of read sizes, readable in jmx console.
+     * 
+     * @return
+     * 		read size summary
+     */
+    public String getReadSize();
+
+    public String getWriteSize();
+
+    public String getQueueTime();
+
+    /**
+     * Reset bytes, speeds and histograms.
+     */
+    public void reset();
+
+}
\ No newline at end of file
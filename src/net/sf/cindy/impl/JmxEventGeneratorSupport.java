@@ -0,0 +1,136 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import net.sf.cindy.EventGenerator;
+
+/**
+ * Register event generators on MBeanServer, so the health of event loops
+ * can be watched in jmx console. An EventGeneratorGroup is registered
+ * together with all its event generators. If current vm not support jmx,
+ * load this class will throw NoClassDefFoundError.
+ * 
+ * <pre>
+ * JmxEventGeneratorSupport.register(ManagementFactory.getPlatformMBeanServer(),
+ *         AbstractSession.DEFAULT_EVENT_GENERATOR);
+ * </pre>
+ * 
+ * @author Roger Chen
+ * @see JmxProxySessionFactory
+ */
+public class JmxEventGeneratorSupport {
+
+    private static final String DOMAIN = "net.sf.cindy";
+
+    private JmxEventGeneratorSupport() {
+    }
+
+    /**
+     * Get the object name of the event generator.
+     * 
+     * @param generator
+     * 		SimpleEventGenerator or EventGeneratorGroup
+     * @return
+     * 		object name, null if the event generator is not supported
+     * @throws MalformedObjectNameException
+     */
+    public static ObjectName getObjectName(EventGenerator generator)
+            throws MalformedObjectNameException {
+        if (generator instanceof SimpleEventGenerator)
+            return new ObjectName(DOMAIN + ":type=EventGenerator,id="
+                    + ((SimpleEventGenerator) generator).getId());
+        if (generator instanceof EventGeneratorGroup)
+            return new ObjectName(DOMAIN + ":type=EventGeneratorGroup,id="
+                    + Integer.toHexString(System.identityHashCode(generator)));
+        return null;
+    }
+
+    /**
+     * Register the event generator on the MBeanServer.
+     * 
+     * @param server
+     * 		the MBeanServer
+     * @param generator
+     * 		SimpleEventGenerator or EventGeneratorGroup
+     * @return
+     * 		registered object names
+     * @throws JMException
+     */
+    public static ObjectName[] register(MBeanServer server,
+            EventGenerator generator) throws JMException {
+        List names = new ArrayList();
+        if (generator instanceof EventGeneratorGroup) {
+            SimpleEventGenerator[] generators = ((EventGeneratorGroup) generator)
+                    .getEventGenerators();
+            for (int i = 0; i < generators.length; i++)
+                names.add(registerMBean(server, generators[i],
+                        SimpleEventGeneratorMBean.class));
+            names.add(registerMBean(server, generator,
+                    EventGeneratorGroupMBean.class));
+        } else if (generator instanceof SimpleEventGenerator)
+            names.add(registerMBean(server, generator,
+                    SimpleEventGeneratorMBean.class));
+        return (ObjectName[]) names.toArray(new ObjectName[names.size()]);
+    }
+
+    /**
+     * Unregister the event generator from the MBeanServer.
+     * 
+     * @param server
+     * 		the MBeanServer
+     * @param generator
+     * 		SimpleEventGenerator or EventGeneratorGroup
+     * @throws JMException
+     */
+    public static void unregister(MBeanServer server, EventGenerator generator)
+            throws JMException {
+        if (generator instanceof EventGeneratorGroup) {
+            SimpleEventGenerator[] generators = ((EventGeneratorGroup) generator)
+                    .getEventGenerators();
+            for (int i = 0; i < generators.length; i++)
+                unregisterMBean(server, generators[i]);
+        }
+        unregisterMBean(server, generator);
+    }
+
+    private static ObjectName registerMBean(MBeanServer server,
+            EventGenerator generator, Class mbeanInterface)
+            throws JMException {
+        ObjectName name = getObjectName(generator);
+        Object mbean = generator;
+        if (Constants.SUPPORT_JMX_1_2) //Subclasses have no MBean interface of their own
+            mbean = new StandardMBean(generator, mbeanInterface);
+        server.registerMBean(mbean, name);
+        return name;
+    }
+
+    private static void unregisterMBean(MBeanServer server,
+            EventGenerator generator) throws JMException {
+        ObjectName name = getObjectName(generator);
+        if (name != null && server.isRegistered(name))
+            server.unregisterMBean(name);
+    }
+
+}
\ No newline at end of file
@@ -41,9 +41,12 @@ import net.sf.cindy.Dispatcher;
 import net.sf.cindy.EventGenerator;
 import net.sf.cindy.Message;
 import net.sf.cindy.MessageRecognizer;
+import net.sf.cindy.Pipeline;
 import net.sf.cindy.Session;
 import net.sf.cindy.SessionListener;
 import net.sf.cindy.SessionStatistic;
+import net.sf.cindy.WriteFuture;
+import net.sf.cindy.WriteOverflowPolicy;
 import net.sf.cindy.spi.SessionSpi;
 
 import org.apache.commons.logging.Log;
@@ -67,6 +70,7 @@ public class JmxProxySessionFactory {
     private static final String MESSAGE_RECEIVED = "cindy.messageReceived";
     private static final String MESSAGE_SENT = "cindy.messageSent";
     private static final String EXCEPTION_CAUGHT = "cindy.exceptionCaught";
+    private static final String SESSION_WRITABILITY_CHANGED = "cindy.sessionWritabilityChanged";
 
     /**
      * Create jmx proxy session, the return session can be registered on
@@ -168,6 +172,12 @@ public class JmxProxySessionFactory {
                 sendNotification(session, SESSION_TIMEOUT, "");
             }
 
+            public void sessionWritabilityChanged(Session session,
+                    boolean writable) {
+                sendNotification(session, SESSION_WRITABILITY_CHANGED, String
+                        .valueOf(writable));
+            }
+
         }
 
         private final SessionSpi session;
@@ -211,7 +221,8 @@ public class JmxProxySessionFactory {
             if (info != null) {
                 String[] types = new String[] { SESSION_ESTABLISHED,
                         SESSION_CLOSED, SESSION_IDLE, SESSION_TIMEOUT,
-                        MESSAGE_RECEIVED, MESSAGE_SENT, EXCEPTION_CAUGHT };
+                        MESSAGE_RECEIVED, MESSAGE_SENT, EXCEPTION_CAUGHT,
+                        SESSION_WRITABILITY_CHANGED };
                 String name = Session.class.getName();
                 String description = "Session notification";
 
@@ -307,6 +318,11 @@ public class JmxProxySessionFactory {
             return session.blockWrite(message);
         }
 
+        public WriteFuture writeAsync(Message message)
+                throws IllegalArgumentException {
+            return session.writeAsync(message);
+        }
+
         public void close() {
             session.close();
         }
@@ -343,6 +359,10 @@ public class JmxProxySessionFactory {
             return session.getMessageRecognizer();
         }
 
+        public Pipeline getPipeline() {
+            return session.getPipeline();
+        }
+
         public int getSessionTimeout() {
             return session.getSessionTimeout();
         }
@@ -355,6 +375,38 @@ public class JmxProxySessionFactory {
             return session.getWriteQueueSize();
         }
 
+        public long getWriteQueueBytes() {
+            return session.getWriteQueueBytes();
+        }
+
+        public boolean isWritable() {
+            return session.isWritable();
+        }
+
+        public int getWriteQueueHighWatermark() {
+            return session.getWriteQueueHighWatermark();
+        }
+
+        public void setWriteQueueHighWatermark(int highWatermark) {
+            session.setWriteQueueHighWatermark(highWatermark);
+        }
+
+        public int getWriteQueueLowWatermark() {
+            return session.getWriteQueueLowWatermark();
+        }
+
+        public void setWriteQueueLowWatermark(int lowWatermark) {
+            session.setWriteQueueLowWatermark(lowWatermark);
+        }
+
+        public WriteOverflowPolicy getWriteOverflowPolicy() {
+            return session.getWriteOverflowPolicy();
+        }
+
+        public void setWriteOverflowPolicy(WriteOverflowPolicy policy) {
+            session.setWriteOverflowPolicy(policy);
+        }
+
         public boolean isAvailable() {
             return session.isAvailable();
         }
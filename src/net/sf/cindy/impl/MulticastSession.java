@@ -0,0 +1,171 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.impl;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.util.Enumeration;
+
+/**
+ * Multicast session driven by the event generator. The channel joins the
+ * multicast group through a MembershipKey when the session starts, and
+ * datagrams are received like a DatagramSession, so a multicast session
+ * costs no thread of its own.
+ *
+ * @author Roger Chen
+ */
+public class MulticastSession extends DatagramSession {
+
+    private InetAddress multicastAddress;
+    private NetworkInterface networkInterface;
+    private volatile MembershipKey membershipKey;
+
+    /**
+     * Set the port which session bind to, same as set local address to
+     * the wildcard address with the port.
+     *
+     * @param port
+     * 		bind port
+     * @throws IllegalStateException
+     */
+    public void setBindPort(int port) throws IllegalStateException {
+        setLocalAddress(new InetSocketAddress(port));
+    }
+
+    /**
+     * Set the multicast address which session will join.
+     *
+     * @param address
+     * 		multicast address
+     * @throws IllegalStateException
+     */
+    public void setMulticastAddress(InetAddress address)
+            throws IllegalStateException {
+        if (isStarted())
+            throw new IllegalStateException(
+                    "can't set multicast address after session started");
+        this.multicastAddress = address;
+    }
+
+    /**
+     * Get the multicast address which session will join.
+     *
+     * @return
+     * 		multicast address
+     */
+    public InetAddress getMulticastAddress() {
+        return multicastAddress;
+    }
+
+    /**
+     * Set the network interface which session join the group on. If not
+     * set, the first multicast interface which is up will be used.
+     *
+     * @param networkInterface
+     * 		network interface
+     * @throws IllegalStateException
+     */
+    public void setNetworkInterface(NetworkInterface networkInterface)
+            throws IllegalStateException {
+        if (isStarted())
+            throw new IllegalStateException(
+                    "can't set network interface after session started");
+        this.networkInterface = networkInterface;
+    }
+
+    /**
+     * Get the network interface which session join the group on.
+     *
+     * @return
+     * 		network interface
+     */
+    public NetworkInterface getNetworkInterface() {
+        return networkInterface;
+    }
+
+    /**
+     * Get the membership key of the joined group.
+     *
+     * @return
+     * 		membership key, null if the session not joined any group
+     */
+    public MembershipKey getMembershipKey() {
+        return membershipKey;
+    }
+
+    protected DatagramChannel openChannel(SocketAddress localAddress,
+            SocketAddress remoteAddress) throws IOException {
+        if (multicastAddress == null)
+            return super.openChannel(localAddress, remoteAddress);
+
+        DatagramChannel channel = DatagramChannel
+                .open(multicastAddress instanceof Inet6Address ? StandardProtocolFamily.INET6
+                        : StandardProtocolFamily.INET);
+        try {
+            NetworkInterface ni = networkInterface;
+            if (ni == null)
+                ni = getDefaultInterface();
+            if (ni == null)
+                throw new SocketException("no multicast network interface");
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR,
+                    Boolean.TRUE);
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, ni);
+            channel.bind(localAddress);
+            if (remoteAddress != null)
+                channel.connect(remoteAddress);
+            membershipKey = channel.join(multicastAddress, ni);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    protected void onUnregister() {
+        membershipKey = null; //Dropped by closing the channel
+        super.onUnregister();
+    }
+
+    /**
+     * Get the first multicast interface which is up, prefer non-loopback
+     * interface.
+     */
+    private static NetworkInterface getDefaultInterface()
+            throws SocketException {
+        NetworkInterface loopback = null;
+        Enumeration e = NetworkInterface.getNetworkInterfaces();
+        while (e != null && e.hasMoreElements()) {
+            NetworkInterface ni = (NetworkInterface) e.nextElement();
+            if (!ni.isUp() || !ni.supportsMulticast())
+                continue;
+            if (!ni.isLoopback())
+                return ni;
+            if (loopback == null)
+                loopback = ni;
+        }
+        return loopback;
+    }
+
+}
\ No newline at end of file
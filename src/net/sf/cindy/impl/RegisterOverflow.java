@@ -0,0 +1,124 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.cindy.spi.SessionSpi;
+
+/**
+ * Unbounded list of (session, event) pairs which did not fit in the
+ * {@link RegisterRing RegisterRing}, only used when the ring is full. Two 
+ * pairs of arrays are swapped under the lock, producers fill one while the 
+ * event generator thread delivers the other outside the lock, so arrays 
+ * are only allocated when the list grows past its largest size.
+ *
+ * @author Roger Chen
+ */
+class RegisterOverflow {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private SessionSpi[] sessions = new SessionSpi[INITIAL_CAPACITY];
+    private Object[] events = new Object[INITIAL_CAPACITY];
+    private int count; //Filled count of sessions and events
+
+    private SessionSpi[] drainSessions = new SessionSpi[INITIAL_CAPACITY];
+    private Object[] drainEvents = new Object[INITIAL_CAPACITY];
+
+    private final AtomicInteger size = new AtomicInteger(); //Not delivered yet
+
+    /**
+     * Add a pair to the list.
+     *
+     * @param session
+     * 		the session
+     * @param event
+     * 		the event
+     */
+    synchronized void add(SessionSpi session, Object event) {
+        if (count == sessions.length) {
+            SessionSpi[] newSessions = new SessionSpi[count * 2];
+            Object[] newEvents = new Object[count * 2];
+            System.arraycopy(sessions, 0, newSessions, 0, count);
+            System.arraycopy(events, 0, newEvents, 0, count);
+            sessions = newSessions;
+            events = newEvents;
+        }
+        sessions[count] = session;
+        events[count] = event;
+        count++;
+        size.incrementAndGet();
+    }
+
+    /**
+     * Deliver the pairs to their sessions, in the order they were added.
+     * Only invoked by the event generator thread.
+     *
+     * @param generator
+     * 		the event generator which delivers the events
+     * @return
+     * 		delivered count
+     */
+    int drain(SimpleEventGenerator generator) {
+        if (size.get() == 0)
+            return 0;
+        SessionSpi[] sessions;
+        Object[] events;
+        int count;
+        synchronized (this) {
+            sessions = this.sessions;
+            events = this.events;
+            count = this.count;
+            this.sessions = drainSessions;
+            this.events = drainEvents;
+            this.count = 0;
+            drainSessions = sessions;
+            drainEvents = events;
+        }
+        for (int i = 0; i < count; i++) {
+            SessionSpi session = sessions[i];
+            Object event = events[i];
+            sessions[i] = null;
+            events[i] = null;
+            size.decrementAndGet();
+            generator.deliver(session, event);
+        }
+        return count;
+    }
+
+    /**
+     * Discard all pairs.
+     */
+    synchronized void clear() {
+        for (int i = 0; i < count; i++) {
+            sessions[i] = null;
+            events[i] = null;
+        }
+        count = 0;
+        size.set(0);
+    }
+
+    /**
+     * Get the count of pairs waiting to be delivered.
+     *
+     * @return
+     * 		pending count
+     */
+    int size() {
+        return size.get();
+    }
+}
\ No newline at end of file
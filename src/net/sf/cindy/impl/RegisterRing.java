@@ -0,0 +1,134 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.sf.cindy.spi.SessionSpi;
+
+/**
+ * Preallocated lock-free ring of (session, event) pairs, written by any
+ * thread and drained by the event generator thread. Each slot carries a
+ * sequence number: a producer claims a slot by advancing the tail, fills
+ * it, then publishes it by setting the sequence, so no object is allocated
+ * per registration.
+ *
+ * @author Roger Chen
+ */
+class RegisterRing {
+
+    private final int mask;
+    private final SessionSpi[] sessions;
+    private final Object[] events;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+
+    private volatile long head; //Only changed by consumer
+
+    RegisterRing(int capacity) {
+        int size = 1;
+        while (size < capacity)
+            size <<= 1;
+        mask = size - 1;
+        sessions = new SessionSpi[size];
+        events = new Object[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+    }
+
+    /**
+     * Add a pair to the ring.
+     *
+     * @param session
+     * 		the session
+     * @param event
+     * 		the event
+     * @return
+     * 		false if the ring is full
+     */
+    boolean offer(SessionSpi session, Object event) {
+        while (true) {
+            long pos = tail.get();
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    sessions[index] = session;
+                    events[index] = event;
+                    sequences.set(index, pos + 1); //publish
+                    return true;
+                }
+            } else if (diff < 0) { //the slot have not been consumed
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Deliver all published pairs to their sessions, in the order they
+     * were added.
+     *
+     * @param generator
+     * 		the event generator which delivers the events
+     * @return
+     * 		delivered count
+     */
+    int drain(SimpleEventGenerator generator) {
+        int count = 0;
+        while (true) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1)
+                break;
+            SessionSpi session = sessions[index];
+            Object event = events[index];
+            sessions[index] = null;
+            events[index] = null;
+            sequences.set(index, head + mask + 1); //free the slot
+            head++;
+            count++;
+            generator.deliver(session, event);
+        }
+        return count;
+    }
+
+    /**
+     * Discard all published pairs.
+     */
+    void clear() {
+        while (true) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1)
+                break;
+            sessions[index] = null;
+            events[index] = null;
+            sequences.set(index, head + mask + 1);
+            head++;
+        }
+    }
+
+    /**
+     * Get the count of pairs waiting to be drained.
+     *
+     * @return
+     * 		pending count
+     */
+    int size() {
+        long size = tail.get() - head;
+        return size < 0 ? 0 : (int) size;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.cindy.util.ElapsedTime;
+import net.sf.cindy.util.Utils;
+import net.sf.cindy.util.queue.DefaultQueueThreadPool;
+import net.sf.cindy.util.queue.QueueThread;
+
+/**
+ * Run the delegated tasks of SSLEngine, such as the key exchange of a
+ * handshake, out of the event generator thread. Also records the
+ * handshake times of the sessions which use it.
+ * <p>
+ * If the thread pool size is 0, sessions run the tasks in the event
+ * generator thread.
+ * 
+ * @author Roger Chen
+ */
+public class SSLTaskExecutor implements SSLTaskExecutorMBean {
+
+    private static int i = 0;
+
+    private final boolean daemon;
+    private final DefaultQueueThreadPool pool;
+
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong taskTime = new AtomicLong();
+    private final AtomicLong handshakeCount = new AtomicLong();
+    private final AtomicLong handshakeTime = new AtomicLong();
+    private final AtomicLong maxHandshakeTime = new AtomicLong();
+
+    public SSLTaskExecutor() {
+        this(true, Constants.SSL_TASK_THREAD_POOL_SIZE);
+    }
+
+    public SSLTaskExecutor(boolean daemon, int poolSize) {
+        this.daemon = daemon;
+        pool = new TaskThreadPool();
+        setThreadPoolSize(poolSize);
+    }
+
+    /**
+     * Run the task in the thread pool.
+     * 
+     * @param task
+     * 		the task
+     */
+    public void execute(Runnable task) {
+        submittedCount.incrementAndGet();
+        pool.add(task);
+    }
+
+    /**
+     * A handshake completed.
+     * 
+     * @param time
+     * 		handshake time, in millisecond
+     */
+    void handshakeCompleted(long time) {
+        handshakeCount.incrementAndGet();
+        handshakeTime.addAndGet(time);
+        while (true) {
+            long max = maxHandshakeTime.get();
+            if (time <= max || maxHandshakeTime.compareAndSet(max, time))
+                break;
+        }
+    }
+
+    public int getThreadPoolSize() {
+        return pool.getThreadPoolSize();
+    }
+
+    public void setThreadPoolSize(int poolSize) {
+        pool.setThreadPoolSize(poolSize);
+    }
+
+    public long getPendingTaskCount() {
+        return submittedCount.get() - completedCount.get();
+    }
+
+    public long getCompletedTaskCount() {
+        return completedCount.get();
+    }
+
+    public double getAverageTaskTime() {
+        long count = completedCount.get();
+        return count == 0 ? 0 : (double) taskTime.get() / count;
+    }
+
+    public long getHandshakeCount() {
+        return handshakeCount.get();
+    }
+
+    public double getAverageHandshakeTime() {
+        long count = handshakeCount.get();
+        return count == 0 ? 0 : (double) handshakeTime.get() / count;
+    }
+
+    public long getMaxHandshakeTime() {
+        return maxHandshakeTime.get();
+    }
+
+    private class TaskThreadPool extends DefaultQueueThreadPool {
+
+        protected QueueThread newQueueThread() {
+            QueueThread thread = super.newQueueThread();
+            thread.setDaemon(daemon);
+            thread.setName(Utils.getClassSimpleName(SSLTaskExecutor.this
+                    .getClass())
+                    + "-" + ++i);
+            return thread;
+        }
+
+        protected void action(Object obj) {
+            ElapsedTime elapsedTime = new ElapsedTime();
+            try {
+                ((Runnable) obj).run();
+            } finally {
+                taskTime.addAndGet(elapsedTime.getElapsedTime());
+                completedCount.incrementAndGet();
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.impl;
+
+/**
+ * SSLTaskExecutor MBean.
+ * 
+ * @author Roger Chen
+ */
+public interface SSLTaskExecutorMBean {
+
+    public int getThreadPoolSize();
+
+    public void setThreadPoolSize(int poolSize);
+
+    /**
+     * Get count of the tasks submitted but not completed, include the
+     * running ones.
+     * 
+     * @return
+     * 		pending task count
+     */
+    public long getPendingTaskCount();
+
+    public long getCompletedTaskCount();
+
+    /**
+     * Get average time of running one delegated task, in millisecond.
+     * 
+     * @return
+     * 		average task time
+     */
+    public double getAverageTaskTime();
+
+    public long getHandshakeCount();
+
+    /**
+     * Get average time from the beginning of a handshake to its completion,
+     * in millisecond.
+     * 
+     * @return
+     * 		average handshake time
+     */
+    public double getAverageHandshakeTime();
+
+    public long getMaxHandshakeTime();
+
+}
\ No newline at end of file
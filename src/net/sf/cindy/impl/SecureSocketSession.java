@@ -18,6 +18,8 @@ package net.sf.cindy.impl;
 import java.io.IOException;
 import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
@@ -28,7 +30,11 @@ import javax.net.ssl.SSLEngineResult.HandshakeStatus;
 import javax.net.ssl.SSLEngineResult.Status;
 
 import net.sf.cindy.Message;
+import net.sf.cindy.WriteFuture;
+import net.sf.cindy.spi.EventGeneratorSpi;
+import net.sf.cindy.spi.SessionStatisticSpi;
 import net.sf.cindy.util.ByteBufferUtils;
+import net.sf.cindy.util.ElapsedTime;
 import net.sf.cindy.util.queue.Queue;
 import net.sf.cindy.util.queue.QueueFactory;
 
@@ -56,11 +62,29 @@ import net.sf.cindy.util.queue.QueueFactory;
  * 
  *                      Net data
  * </pre>
+ * <p>
+ * The plain text of several queued messages is wrapped directly into one
+ * pooled netWriteBuffer, which is written to the channel as is. Received
+ * data is unwrapped into a pooled application buffer, the decoded plain
+ * text is dispatched before the buffer is grown.
+ * <p>
+ * TLS is the transport under the session {@link net.sf.cindy.Pipeline
+ * Pipeline}: the decoders read the unwrapped plain text, the bytes of the
+ * encoders are wrapped, and handshake messages never pass the
+ * interceptors.
+ * <p>
+ * The delegated tasks of SSLEngine are run by an {@link SSLTaskExecutor}.
+ * While they are running, the session stops reading and writing, and
+ * resumes the handshake when they completed.
  * 
  * @author Roger Chen
  */
 public class SecureSocketSession extends SocketSession {
 
+    private static final ByteBuffer[] EMPTY_BUFFERS = new ByteBuffer[0];
+
+    public static final SSLTaskExecutor DEFAULT_TASK_EXECUTOR = new SSLTaskExecutor();
+
     /**
      * Rehandshaking data may be mixed with application data.
      */
@@ -77,7 +101,25 @@ public class SecureSocketSession extends SocketSession {
     private SSLContext sslc;
     private SSLEngine engine;
     private ByteBuffer decodedReadBuffer; //save the plain text decoded from the readBuffer
-    private ByteBuffer encodedWriteBuffer; //save the encoded text which encoded from the write message
+    private ByteBuffer netWriteBuffer; //the cipher text not written, flipped
+    private ByteBuffer[] srcBuffers; //the plain text wrapped together
+    private int wrappedCount; //the queued messages wrapped into netWriteBuffer completely
+    private int packetBufferSize;
+    private int applicationBufferSize;
+
+    private SSLTaskExecutor taskExecutor = DEFAULT_TASK_EXECUTOR;
+    private ElapsedTime handshakeTime;
+
+    /**
+     * Only used by the event generator thread.
+     */
+    private DelegatedTasks runningTasks; //not resumed
+    private boolean readSuspended, writeSuspended;
+    private boolean blockWriting;
+    private boolean unwrapPending; //the handshake may continue with the received data
+    private boolean wrapStalled; //wrap made no progress, wait until some data unwrapped
+    private boolean decodedPending; //plain text left when the message budget exhausted
+    private int eventDepth;
 
     /**
      * Set the SSLContext which secure socket session will used.
@@ -110,6 +152,21 @@ public class SecureSocketSession extends SocketSession {
         useClientMode = b;
     }
 
+    /**
+     * Set the executor which runs the delegated tasks of SSLEngine.
+     * 
+     * @param executor
+     * 		the executor, null means run the tasks in the event generator
+     * thread
+     */
+    public void setTaskExecutor(SSLTaskExecutor executor) {
+        this.taskExecutor = executor;
+    }
+
+    public SSLTaskExecutor getTaskExecutor() {
+        return taskExecutor;
+    }
+
     public boolean isHandshakeCompleted() {
         return handshakeCompleted;
     }
@@ -142,16 +199,32 @@ public class SecureSocketSession extends SocketSession {
         engine.setUseClientMode(useClientMode);
     }
 
+    /**
+     * Buffers are borrowed from the buffer pool when used, only record the
+     * sizes here.
+     */
     private void initBuffer() {
         SSLSession session = engine.getSession();
-        if (session.getPacketBufferSize() > readBuffer.capacity())
-            readBuffer = ByteBufferUtils.increaseCapacity(readBuffer, session
-                    .getPacketBufferSize()
-                    - readBuffer.capacity());
-        decodedReadBuffer = ByteBufferUtils.allocate(session
-                .getApplicationBufferSize(), Constants.USE_DIRECT_BUFFER);
-        encodedWriteBuffer = ByteBufferUtils.allocate(session
-                .getPacketBufferSize(), Constants.USE_DIRECT_BUFFER);
+        packetBufferSize = session.getPacketBufferSize();
+        applicationBufferSize = session.getApplicationBufferSize();
+        if (readBuffer != null && packetBufferSize > readBuffer.capacity())
+            readBuffer = getBufferPool().increaseCapacity(readBuffer,
+                    packetBufferSize - readBuffer.capacity());
+        if (decodedReadBuffer != null) { //Plain text left by last connection
+            getBufferPool().release(decodedReadBuffer);
+            decodedReadBuffer = null;
+        }
+    }
+
+    /**
+     * SSLEngine unwraps records from readBuffer.
+     */
+    protected boolean isChunkedRead() {
+        return false;
+    }
+
+    protected int getReadBufferCapacity() {
+        return Math.max(super.getReadBufferCapacity(), packetBufferSize);
     }
 
     /**
@@ -166,32 +239,16 @@ public class SecureSocketSession extends SocketSession {
     private void doHandshake() {
         try {
             handshakeCompleted = false;
+            handshakeTime = new ElapsedTime();
             engine.beginHandshake();
             if (useClientMode) //otherwise wait received message
-                super.write(new HandshakeMessage());
+                enqueue(new HandshakeMessage(), null);
         } catch (SSLException e) {
             dispatchException(e);
             close();
         }
     }
 
-    /**
-     * First encode the message.toByteBuffer to encoedWriteBuffer, then
-     * get content from the encodedWriteBuffer.
-     * 
-     * @return
-     * 		encoded buffer
-     */
-    private ByteBuffer getContentFromEncodedWriteBuffer() {
-        if (encodedWriteBuffer.hasRemaining()) {
-            byte[] b = new byte[encodedWriteBuffer.remaining()];
-            encodedWriteBuffer.get(b);
-            encodedWriteBuffer.clear(); //then can encode new buffer
-            return ByteBuffer.wrap(b);
-        }
-        return null;
-    }
-
     /**
      * If the first handshake not completed, write to temp queue, wait handshake completed.
      * 
@@ -201,29 +258,51 @@ public class SecureSocketSession extends SocketSession {
      */
     public void write(Message message) throws IllegalArgumentException {
         if (firstHandshake)
-            tempWriteQueue.push(message);
+            tempWriteQueue.push(new Object[] { message, null });
         else
             super.write(message);
     }
 
+    public WriteFuture writeAsync(Message message)
+            throws IllegalArgumentException {
+        if (firstHandshake) {
+            DefaultWriteFuture future = new DefaultWriteFuture(message);
+            tempWriteQueue.push(new Object[] { message, future });
+            return future;
+        }
+        return super.writeAsync(message);
+    }
+
     public boolean blockWrite(Message message) throws IllegalArgumentException,
             IllegalStateException {
-        if (isHandshakeCompleted())
-            return super.blockWrite(message);
-        else
+        if (isHandshakeCompleted()) {
+            if (!isEventGeneratorThread())
+                return super.blockWrite(message);
+            blockWriting = true; //Can't wait the resume event
+            try {
+                return super.blockWrite(message);
+            } finally {
+                blockWriting = false;
+            }
+        } else
             throw new IllegalStateException(
                     "can't block write until handshake completed");
     }
 
     protected synchronized void handshakeCompleted() {
         handshakeCompleted = true;
+        SSLTaskExecutor executor = taskExecutor;
+        if (handshakeTime != null && executor != null)
+            executor.handshakeCompleted(handshakeTime.getElapsedTime());
+        handshakeTime = null;
         if (firstHandshake) {
             firstHandshake = false;
             while (true) {
-                Message message = (Message) tempWriteQueue.pop();
-                if (message == null)
+                Object[] objs = (Object[]) tempWriteQueue.pop();
+                if (objs == null)
                     break;
-                write(message);
+                writeToWriteQueue((Message) objs[0],
+                        (DefaultWriteFuture) objs[1]);
             }
         }
     }
@@ -232,13 +311,8 @@ public class SecureSocketSession extends SocketSession {
         if (engine != null) { //Close SSLEngine
             engine.closeOutbound();
             if (!engine.isInboundDone()) {
-                ByteBuffer[] closeBuffer = messageToByteBuffer(new HandshakeMessage());
                 try {
-                    while (ByteBufferUtils.hasRemaining(closeBuffer)) {
-                        long n = getChannel().write(closeBuffer);
-                        if (n == -1)
-                            break;
-                    }
+                    writeCloseNotify();
                 } catch (IOException e) {
                 }
             }
@@ -248,103 +322,492 @@ public class SecureSocketSession extends SocketSession {
             }
             engine = null;
         }
+        getBufferPool().release(netWriteBuffer);
+        netWriteBuffer = null;
+        wrappedCount = 0;
+        runningTasks = null;
+        readSuspended = false;
+        writeSuspended = false;
+        unwrapPending = false;
+        wrapStalled = false;
+        decodedPending = false;
+        handshakeTime = null;
         firstHandshake = true;
         handshakeCompleted = false;
-        tempWriteQueue.clear();
+        while (true) { //Never written
+            Object[] objs = (Object[]) tempWriteQueue.pop();
+            if (objs == null)
+                break;
+            if (objs[1] != null)
+                ((DefaultWriteFuture) objs[1]).complete(false);
+        }
         super.onUnregister();
     }
 
-    protected ByteBuffer[] messageToByteBuffer(Message message) {
-        ByteBuffer[] buffer = super.messageToByteBuffer(message);
-        if (buffer == null)
-            buffer = new ByteBuffer[0];
+    /**
+     * Wrap the plain text of the queued messages into netWriteBuffer, as
+     * many as the buffer can hold, then write the cipher text to the
+     * channel. A message is sent when all its cipher text have been
+     * written.
+     */
+    protected int writeToChannel(SelectableChannel channel,
+            Object[] writeMessages, int count, Message[] sentMessages)
+            throws IOException {
+        if (runningTasks != null && !runningTasks.isDone()) {
+            if (!blockWriting)
+                return 0; //Resumed when the tasks completed
+            runningTasks.await();
+            if (runningTasks.getFailure() != null) {
+                dispatchException(runningTasks.getFailure());
+                close();
+                return 0;
+            }
+        }
+
+        int wrapped = wrappedCount;
+        int completed = 0;
+        while (true) {
+            if (netWriteBuffer != null
+                    && !writeNetBuffer((WritableByteChannel) channel))
+                break; //the write buffer is full
+            for (; completed < wrapped; completed++)
+                sentMessages[completed] = getWriteMessage(writeMessages[completed]);
+            if (wrapped == count)
+                break;
+            if (runningTasks != null && !runningTasks.isDone())
+                break;
+
+            int n;
+            try {
+                n = wrap(writeMessages, wrapped, count);
+            } catch (SSLException e) {
+                dispatchException(e);
+                close();
+                return 0;
+            }
+            if (n < 0) { //SSLEngine closed
+                close();
+                return 0;
+            }
+            if (n == wrapped && !netWriteBuffer.hasRemaining()) { //Should wait some received data
+                getBufferPool().release(netWriteBuffer);
+                netWriteBuffer = null;
+                wrapStalled = true; //Not listen OP_WRITE until unwrapped
+                break;
+            }
+            wrapped = n;
+        }
+        wrappedCount = wrapped - completed;
+        return completed;
+    }
+
+    /**
+     * Write netWriteBuffer to the channel, release it when all written.
+     * 
+     * @return
+     * 		all cipher text have been written
+     */
+    private boolean writeNetBuffer(WritableByteChannel channel)
+            throws IOException {
+        while (netWriteBuffer.hasRemaining()) {
+            int n = channel.write(netWriteBuffer);
+            if (n == 0)
+                return false;
+            if (getStatistic() != null)
+                ((SessionStatisticSpi) getStatistic()).sent(n);
+        }
+        getBufferPool().release(netWriteBuffer);
+        netWriteBuffer = null;
+        return true;
+    }
+
+    /**
+     * Wrap the queued messages from the specified one into netWriteBuffer,
+     * until the buffer is full. The buffers of several small messages are
+     * wrapped into one record.
+     * 
+     * @return
+     * 		index of the first message not wrapped completely, -1 if
+     * SSLEngine closed
+     */
+    private int wrap(Object[] writeMessages, int from, int count)
+            throws SSLException {
+        if (netWriteBuffer == null)
+            netWriteBuffer = getBufferPool().allocate(
+                    Math.max(packetBufferSize, Constants.WRITE_BATCH_BYTES),
+                    Constants.USE_DIRECT_BUFFER);
+        else
+            netWriteBuffer.compact();
+        if (srcBuffers == null)
+            srcBuffers = new ByteBuffer[Constants.WRITE_BATCH_SIZE];
         try {
             while (true) {
-                SSLEngineResult result = engine
-                        .wrap(buffer, encodedWriteBuffer);
+                int length = gather(writeMessages, from, count);
+                SSLEngineResult result;
+                try {
+                    result = engine.wrap(srcBuffers, 0, length,
+                            netWriteBuffer);
+                } catch (RuntimeException e) { //Rethrown from a failed delegated task
+                    throw new SSLException(e);
+                } finally {
+                    for (int i = 0; i < length; i++)
+                        srcBuffers[i] = null;
+                }
                 Status status = result.getStatus();
-                HandshakeStatus handshakeStatus = result.getHandshakeStatus();
-                if (status == Status.OK) {
-                    if (handshakeStatus == HandshakeStatus.NOT_HANDSHAKING) { //Not handshaking
-                        break;
-                    } else if (handshakeStatus == HandshakeStatus.NEED_UNWRAP) { //Should wait some received data
+                if (status == Status.BUFFER_OVERFLOW) {
+                    if (netWriteBuffer.position() > 0 && from < count) //Write it out first
                         break;
-                    } else if (handshakeStatus == HandshakeStatus.NEED_WRAP) { //Should wrap again
-                        continue;
-                    } else if (handshakeStatus == HandshakeStatus.NEED_TASK) {
-                        engine.getDelegatedTask().run();
-                    } else if (handshakeStatus == HandshakeStatus.FINISHED) {
-                        handshakeCompleted();
-                        break;
-                    }
-                } else if (status == Status.BUFFER_OVERFLOW) { //Increase buffer capacity
-                    encodedWriteBuffer = ByteBufferUtils.increaseCapacity(
-                            encodedWriteBuffer, Constants.BUFFER_CAPACITY);
+                    netWriteBuffer = getBufferPool().increaseCapacity(
+                            netWriteBuffer, packetBufferSize);
+                    continue;
                 } else if (status == Status.CLOSED) {
+                    return -1;
+                }
+
+                while (from < count
+                        && !ByteBufferUtils
+                                .hasRemaining(getWriteBuffer(writeMessages[from])))
+                    from++;
+
+                HandshakeStatus handshakeStatus = result.getHandshakeStatus();
+                if (handshakeStatus == HandshakeStatus.NEED_TASK) {
+                    if (delegateTasks())
+                        break;
+                    handshakeStatus = engine.getHandshakeStatus();
+                }
+                if (handshakeStatus == HandshakeStatus.FINISHED) {
+                    handshakeCompleted();
+                    unwrapPending = true;
+                } else if (handshakeStatus == HandshakeStatus.NEED_WRAP) { //Should wrap again
+                    continue;
+                } else if (handshakeStatus == HandshakeStatus.NEED_UNWRAP) {
+                    unwrapPending = true;
+                }
+
+                if (from == count)
+                    break;
+                if (result.bytesConsumed() == 0
+                        && result.bytesProduced() == 0) //Rehandshaking, wait received data
                     break;
-                } else if (status == Status.BUFFER_UNDERFLOW) { //Will never happen
-                    close(false);
-                    return null;
+            }
+            return from;
+        } finally {
+            netWriteBuffer.flip();
+        }
+    }
+
+    /**
+     * Collect the remaining buffers of the queued messages into srcBuffers.
+     * 
+     * @return
+     * 		collected buffer count
+     */
+    private int gather(Object[] writeMessages, int from, int count) {
+        int length = 0;
+        for (int i = from; i < count; i++) {
+            ByteBuffer[] buffer = getWriteBuffer(writeMessages[i]);
+            if (buffer == null) //HandshakeMessage
+                continue;
+            for (int j = 0; j < buffer.length; j++) {
+                if (buffer[j] != null && buffer[j].hasRemaining()) {
+                    if (length == srcBuffers.length)
+                        return length;
+                    srcBuffers[length++] = buffer[j];
                 }
             }
-            encodedWriteBuffer.flip();
-            return new ByteBuffer[] { getContentFromEncodedWriteBuffer() };
-        } catch (SSLException e) {
-            dispatchException(e);
+        }
+        return length;
+    }
+
+    /**
+     * Run the delegated tasks by the task executor, or in current thread if
+     * there is no executor or current thread is blocking write.
+     * 
+     * @return
+     * 		the tasks are running by the executor
+     * @throws SSLException
+     * 		some task failed in current thread
+     */
+    private boolean delegateTasks() throws SSLException {
+        SSLTaskExecutor executor = taskExecutor;
+        DelegatedTasks tasks = new DelegatedTasks(engine);
+        if (executor == null || executor.getThreadPoolSize() == 0
+                || blockWriting) {
+            tasks.runTasks();
+            if (tasks.getFailure() != null)
+                throw tasks.getFailure();
+            return false;
+        }
+        runningTasks = tasks;
+        executor.execute(tasks);
+        return true;
+    }
+
+    public void onEvent(Object event, Object attachment) {
+        if (wrapStalled && event == Constants.EV_ENABLE_WRITE) { //Resumed when some data unwrapped
+            writeSuspended = true;
+            return;
+        }
+        if (runningTasks != null) { //Suspend reading and writing
+            if (event == Constants.EV_ENABLE_READ) {
+                readSuspended = true;
+                return;
+            } else if (event == Constants.EV_ENABLE_WRITE) {
+                writeSuspended = true;
+                return;
+            }
+        }
+        eventDepth++;
+        try {
+            if (event == Constants.EV_TASK_COMPLETED)
+                onTasksCompleted();
+            super.onEvent(event, attachment);
+        } finally {
+            eventDepth--;
+        }
+        if (eventDepth == 0 && unwrapPending) { //Not reading or writing now
+            unwrapPending = false;
+            unwrapReadBuffer();
+        }
+    }
+
+    /**
+     * Resume the handshake after the delegated tasks completed, or close
+     * the session if some task failed.
+     */
+    private void onTasksCompleted() {
+        DelegatedTasks tasks = runningTasks;
+        if (tasks == null || !tasks.isDone()) //Of a closed connection
+            return;
+        runningTasks = null;
+        if (engine == null)
+            return;
+        if (tasks.getFailure() != null) {
+            dispatchException(tasks.getFailure());
             close();
-            return null;
+            return;
+        }
+
+        if (engine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP)
+            enqueue(new HandshakeMessage(), null);
+        unwrapPending = true;
+        EventGeneratorSpi generator = (EventGeneratorSpi) getEventGenerator();
+        if (readSuspended) {
+            readSuspended = false;
+            generator.register(this, Constants.EV_ENABLE_READ);
+        }
+        if (writeSuspended) {
+            writeSuspended = false;
+            generator.register(this, Constants.EV_ENABLE_WRITE);
         }
     }
 
     /**
-     * Decoded plain text from stream and then recognize
+     * Resume the writing suspended because wrap made no progress, after
+     * some received data have been unwrapped.
+     */
+    private void resumeStalledWrite() {
+        if (!wrapStalled)
+            return;
+        wrapStalled = false;
+        if (writeSuspended && runningTasks == null) { //Otherwise resumed when the tasks completed
+            writeSuspended = false;
+            ((EventGeneratorSpi) getEventGenerator()).register(this,
+                    Constants.EV_ENABLE_WRITE);
+        }
+    }
+
+    /**
+     * Unwrap the received data left in the read buffer, which is not
+     * unwrapped because the handshake is waiting for wrapping or delegated
+     * tasks.
+     */
+    private void unwrapReadBuffer() {
+        if (engine == null || runningTasks != null || readBuffer == null
+                || readBuffer.position() == 0)
+            return;
+        readBuffer.flip();
+        recognizeMessageAndDispatch(readBuffer);
+        if (readBuffer != null) { //Not closed
+            readBuffer.compact();
+            if (readBuffer.position() == 0)
+                releaseReadBuffer();
+        }
+    }
+
+    /**
+     * Write the cipher text not written and the close_notify message. Best
+     * effort, give up when the write buffer is full.
+     */
+    private void writeCloseNotify() throws IOException {
+        if (netWriteBuffer == null)
+            netWriteBuffer = getBufferPool().allocate(packetBufferSize,
+                    Constants.USE_DIRECT_BUFFER);
+        else
+            netWriteBuffer.compact();
+        try {
+            while (!engine.isOutboundDone()) {
+                SSLEngineResult result = engine.wrap(EMPTY_BUFFERS,
+                        netWriteBuffer);
+                if (result.getStatus() == Status.BUFFER_OVERFLOW
+                        || result.bytesProduced() == 0)
+                    break;
+            }
+        } finally {
+            netWriteBuffer.flip();
+        }
+        while (netWriteBuffer.hasRemaining()) {
+            if (getChannel().write(netWriteBuffer) <= 0)
+                break;
+        }
+    }
+
+    /**
+     * Decoded plain text from stream and then recognize. Stop unwrapping
+     * when the message budget is exhausted, the plain text left is
+     * dispatched first next time.
      * 
      * @param buffer
      * 		read buffer
      */
     protected void recognizeMessageAndDispatch(ByteBuffer buffer) {
+        if (decodedReadBuffer == null)
+            decodedReadBuffer = getBufferPool().allocate(
+                    applicationBufferSize, Constants.USE_DIRECT_BUFFER);
         try {
-            boolean recognized = false;
+            boolean recognized = decodedPending;
+            boolean unwrapped = false;
             boolean close = false;
-            while (true) {
-                SSLEngineResult result = engine.unwrap(buffer,
-                        decodedReadBuffer);
+            decodedPending = false;
+            while (runningTasks == null && !isMessageBudgetExhausted()) { //Otherwise unwrap when the tasks completed
+                SSLEngineResult result;
+                try {
+                    result = engine.unwrap(buffer, decodedReadBuffer);
+                } catch (RuntimeException e) { //Rethrown from a failed delegated task
+                    throw new SSLException(e);
+                }
+                if (result.bytesConsumed() > 0)
+                    unwrapped = true;
                 Status status = result.getStatus();
                 HandshakeStatus handshakeStatus = result.getHandshakeStatus();
                 if (status == Status.OK) {
+                    if (handshakeStatus == HandshakeStatus.NEED_TASK) {
+                        if (delegateTasks())
+                            break;
+                        handshakeStatus = engine.getHandshakeStatus();
+                    }
                     if (handshakeStatus == HandshakeStatus.NOT_HANDSHAKING) { //Recognized some message
                         recognized = true;
-                    } else if (handshakeStatus == HandshakeStatus.NEED_TASK) {
-                        engine.getDelegatedTask().run();
                     } else if (handshakeStatus == HandshakeStatus.NEED_UNWRAP) {
 
                     } else if (handshakeStatus == HandshakeStatus.NEED_WRAP) { //Need write something to network
-                        super.write(new HandshakeMessage());
+                        enqueue(new HandshakeMessage(), null);
                         break;
-                    } else if (handshakeStatus == HandshakeStatus.FINISHED) {
+                    } else if (handshakeStatus == HandshakeStatus.FINISHED) { //Application data may follow
                         handshakeCompleted();
-                        break;
                     }
                 } else if (status == Status.BUFFER_UNDERFLOW) { //Need more data, wait next time read
                     break;
-                } else if (status == Status.BUFFER_OVERFLOW) {//Increase buffer capacity
-                    decodedReadBuffer = ByteBufferUtils.increaseCapacity(
-                            decodedReadBuffer, Constants.BUFFER_CAPACITY);
+                } else if (status == Status.BUFFER_OVERFLOW) {
+                    int position = decodedReadBuffer.position();
+                    if (recognized) { //Dispatch the decoded plain text to make room
+                        recognized = false;
+                        dispatchDecoded();
+                        if (engine == null) //Closed by listener
+                            return;
+                        if (isMessageBudgetExhausted())
+                            break;
+                    }
+                    if (decodedReadBuffer.position() == position) //No room made, increase buffer capacity
+                        decodedReadBuffer = getBufferPool().increaseCapacity(
+                                decodedReadBuffer, applicationBufferSize);
                 } else if (status == Status.CLOSED) {
                     close = true;
                     break;
                 }
             }
-            if (recognized) {
-                decodedReadBuffer.flip();
-                super.recognizeMessageAndDispatch(decodedReadBuffer);
-                decodedReadBuffer.compact();
-            }
+            if (recognized)
+                dispatchDecoded();
+            if (isMessageBudgetExhausted() && engine != null)
+                decodedPending = true;
             if (close)
                 close();
+            else if (unwrapped && engine != null)
+                resumeStalledWrite();
         } catch (SSLException e) {
             dispatchException(e);
             close();
+        } finally {
+            if (decodedReadBuffer.position() == 0 || engine == null) { //No plain text pending, or closed
+                getBufferPool().release(decodedReadBuffer);
+                decodedReadBuffer = null;
+            }
+        }
+    }
+
+    private void dispatchDecoded() {
+        decodedReadBuffer.flip();
+        super.recognizeMessageAndDispatch(decodedReadBuffer);
+        decodedReadBuffer.compact();
+    }
+
+    /**
+     * Run all delegated tasks of the SSLEngine, then resume the session in
+     * the event generator thread, even if some task failed.
+     */
+    private class DelegatedTasks implements Runnable {
+
+        private final SSLEngine engine;
+        private volatile boolean done;
+        private volatile SSLException failure;
+
+        private DelegatedTasks(SSLEngine engine) {
+            this.engine = engine;
+        }
+
+        private void runTasks() {
+            try {
+                Runnable task;
+                while ((task = engine.getDelegatedTask()) != null)
+                    task.run();
+            } catch (RuntimeException e) { //Such as thrown by the trust manager
+                failure = new SSLException(e);
+            } finally {
+                synchronized (this) {
+                    done = true;
+                    notifyAll();
+                }
+            }
+        }
+
+        public void run() {
+            try {
+                runTasks();
+            } finally {
+                ((EventGeneratorSpi) getEventGenerator()).register(
+                        SecureSocketSession.this, Constants.EV_TASK_COMPLETED);
+            }
+        }
+
+        private boolean isDone() {
+            return done;
+        }
+
+        private SSLException getFailure() {
+            return failure;
+        }
+
+        private synchronized void await() {
+            boolean interrupted = false;
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
         }
     }
 
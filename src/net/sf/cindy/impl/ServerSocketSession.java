@@ -32,6 +32,7 @@ import net.sf.cindy.Message;
 import net.sf.cindy.Session;
 import net.sf.cindy.SessionAdapter;
 import net.sf.cindy.SessionListener;
+import net.sf.cindy.WriteFuture;
 
 /**
  * Like ServerSocket.
@@ -271,6 +272,11 @@ public abstract class ServerSocketSession extends ChannelSession {
                 "can't write message to ServerSocketSession");
     }
 
+    public WriteFuture writeAsync(Message message) {
+        throw new UnsupportedOperationException(
+                "can't write message to ServerSocketSession");
+    }
+
     /**
      * Build accepted session. Application can choose to return SocketSession 
      * or SecureSocketSession.
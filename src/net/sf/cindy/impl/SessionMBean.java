@@ -57,4 +57,16 @@ public interface SessionMBean {
     public boolean isAvailable();
 
     public int getWriteQueueSize();
+
+    public long getWriteQueueBytes();
+
+    public boolean isWritable();
+
+    public int getWriteQueueHighWatermark();
+
+    public void setWriteQueueHighWatermark(int highWatermark);
+
+    public int getWriteQueueLowWatermark();
+
+    public void setWriteQueueLowWatermark(int lowWatermark);
 }
\ No newline at end of file
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.impl;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.sf.cindy.Session;
+import net.sf.cindy.util.queue.Queue;
+import net.sf.cindy.util.queue.QueueFactory;
+
+/**
+ * Events of a session waiting to be dispatched, used by the ordered
+ * dispatchers which don't bind a session to a thread. The one which
+ * schedules the mailbox runs it, until it is unscheduled, so only one
+ * thread runs the events of a session at a time.
+ * 
+ * @author Roger Chen
+ */
+class SessionMailbox {
+
+    private final Object owner;
+    private final Session session;
+    private final Queue queue = QueueFactory.createSingleConsumerQueue(); //Only one thread runs the mailbox
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private SessionMailbox(Object owner, Session session) {
+        this.owner = owner;
+        this.session = session;
+    }
+
+    /**
+     * Get the mailbox of the session owned by the dispatcher.
+     * 
+     * @param owner
+     * 		the dispatcher
+     * @param session
+     * 		the session
+     * @param mailboxMap
+     * 		the mailboxes of the sessions which not extend AbstractSession,
+     * key is session, also used as the lock
+     * @return
+     * 		the mailbox
+     */
+    static SessionMailbox get(Object owner, Session session, Map mailboxMap) {
+        if (session instanceof AbstractSession) { //Saved in session
+            AbstractSession s = (AbstractSession) session;
+            Object obj = s.mailbox;
+            if (obj instanceof SessionMailbox
+                    && ((SessionMailbox) obj).owner == owner)
+                return (SessionMailbox) obj;
+            synchronized (mailboxMap) {
+                obj = s.mailbox;
+                if (obj instanceof SessionMailbox
+                        && ((SessionMailbox) obj).owner == owner)
+                    return (SessionMailbox) obj;
+                SessionMailbox mailbox = new SessionMailbox(owner, session);
+                s.mailbox = mailbox;
+                return mailbox;
+            }
+        }
+        synchronized (mailboxMap) {
+            SessionMailbox mailbox = (SessionMailbox) mailboxMap.get(session);
+            if (mailbox == null) {
+                mailbox = new SessionMailbox(owner, session);
+                mailboxMap.put(session, mailbox);
+            }
+            return mailbox;
+        }
+    }
+
+    Session getSession() {
+        return session;
+    }
+
+    /**
+     * Add an event.
+     * 
+     * @param runnable
+     * 		the event
+     * @return
+     * 		the mailbox have been scheduled by this invocation, the caller
+     * should run it
+     */
+    boolean add(Runnable runnable) {
+        queue.push(runnable);
+        return scheduled.compareAndSet(false, true);
+    }
+
+    /**
+     * Get the next event, only invoked by the one which runs the mailbox.
+     * 
+     * @return
+     * 		the event, null if empty
+     */
+    Runnable poll() {
+        return (Runnable) queue.pop();
+    }
+
+    /**
+     * Unschedule the mailbox if it is empty.
+     * 
+     * @return
+     * 		the mailbox have been unscheduled, false if it still have events
+     * and should be run again
+     */
+    boolean unschedule() {
+        if (!queue.isEmpty())
+            return false;
+        scheduled.set(false);
+        //Events may be added after the last poll, but before the flag is cleared
+        return queue.isEmpty() || !scheduled.compareAndSet(false, true);
+    }
+}
\ No newline at end of file
@@ -19,15 +19,16 @@ import java.io.IOException;
 import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Set;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.sf.cindy.Session;
 import net.sf.cindy.spi.EventGeneratorSpi;
 import net.sf.cindy.spi.SessionSpi;
-import net.sf.cindy.util.ElapsedTime;
 import net.sf.cindy.util.Utils;
 
 import org.apache.commons.logging.Log;
@@ -60,16 +61,53 @@ public class SimpleEventGenerator implements EventGeneratorSpi,
     private static int i = 0; //Used for build thread name
     private final int id = i++;
 
-    private final Collection register = new LinkedList();
-    private Thread thread = null;
-    private Selector selector;
+    private final RegisterRing register = new RegisterRing(
+            Constants.REGISTER_QUEUE_CAPACITY);
+    /**
+     * Registrations from other event generator threads which found the
+     * register ring full. They can't wait for this thread to drain the
+     * ring, this thread may be waiting for theirs. Drained after the ring.
+     */
+    private final RegisterOverflow overflow = new RegisterOverflow();
+    /**
+     * Set when some thread have woken up the selector since the event 
+     * generator thread last drained the register ring.
+     */
+    private final AtomicBoolean wakenUp = new AtomicBoolean();
+    private final AtomicLong wakeupCount = new AtomicLong();
+    private final AtomicLong suppressedWakeupCount = new AtomicLong();
+
+    /**
+     * Session and event pairs deferred by the event generator thread itself,
+     * such as sessions which exhausted their read budget, served after the
+     * ready keys of the next loop. Only accessed by the event generator
+     * thread.
+     */
+    private List deferred = new ArrayList();
+    private List deferredRunning = new ArrayList();
+    private volatile int deferredCount;
+    private final AtomicLong readBudgetExhaustedCount = new AtomicLong();
+
+    /**
+     * Count of sessions migrating to this event generator, which does not
+     * stop by itself until they arrive. -1 once it decided to stop by
+     * itself, then no more sessions can migrate to it.
+     */
+    private final AtomicInteger arrivals = new AtomicInteger();
+
+    private volatile Thread thread = null;
+    private volatile Selector selector;
 
     private volatile boolean close = false;
 
     /**
-     * The last select time, for judge session timeout.
+     * Session timeouts, only accessed by the event generator thread.
      */
-    private ElapsedTime lastSelectTime;
+    private final TimingWheel timingWheel = new TimingWheel(
+            Constants.CHECK_SESSION_TIMEOUT_INTERVAL,
+            Constants.TIMING_WHEEL_SIZE);
+
+    private final EventLoopMonitor monitor = new EventLoopMonitor();
 
     private int priority = Thread.NORM_PRIORITY;
 
@@ -93,6 +131,108 @@ public class SimpleEventGenerator implements EventGeneratorSpi,
         return thread != null;
     }
 
+    public long getWakeupCount() {
+        return wakeupCount.get();
+    }
+
+    public long getSuppressedWakeupCount() {
+        return suppressedWakeupCount.get();
+    }
+
+    public int getRegisterQueueSize() {
+        return register.size() + overflow.size();
+    }
+
+    public long getReadBudgetExhaustedCount() {
+        return readBudgetExhaustedCount.get();
+    }
+
+    /**
+     * A session stopped reading because it used up its read byte budget,
+     * the rest of the bytes wait in the channel.
+     */
+    void readBudgetExhausted() {
+        readBudgetExhaustedCount.incrementAndGet();
+    }
+
+    public int getDeferredEventCount() {
+        return deferredCount;
+    }
+
+    public int getTimeoutCount() {
+        return timingWheel.size();
+    }
+
+    /**
+     * Get the timing wheel of the session timeouts, only used by the event
+     * generator thread.
+     * 
+     * @return
+     * 		the timing wheel
+     */
+    TimingWheel getTimingWheel() {
+        return timingWheel;
+    }
+
+    public long getSelectTime() {
+        return monitor.getSelectTime();
+    }
+
+    public long getProcessTime() {
+        return monitor.getProcessTime();
+    }
+
+    public double getBusyRatio() {
+        return monitor.getBusyRatio();
+    }
+
+    public long getSelectCount() {
+        return monitor.getSelectCount();
+    }
+
+    public double getAvgReadyKeyCount() {
+        return monitor.getAvgReadyKeyCount();
+    }
+
+    public int getMaxReadyKeyCount() {
+        return monitor.getMaxReadyKeyCount();
+    }
+
+    public long getMaxCallbackTime() {
+        return monitor.getMaxCallbackTime();
+    }
+
+    public long getSlowCallbackThreshold() {
+        return monitor.getSlowCallbackThreshold();
+    }
+
+    public void setSlowCallbackThreshold(long threshold) {
+        monitor.setSlowCallbackThreshold(threshold);
+    }
+
+    public long getSlowCallbackCount() {
+        return monitor.getSlowCallbackCount();
+    }
+
+    public String[] getSlowCallbacks() {
+        return monitor.getSlowCallbacks();
+    }
+
+    public void resetHealthStatistic() {
+        monitor.reset();
+    }
+
+    public int getKeyCount() {
+        Selector selector = this.selector;
+        if (selector == null)
+            return 0;
+        try {
+            return selector.keys().size();
+        } catch (ClosedSelectorException e) {
+            return 0;
+        }
+    }
+
     public synchronized void start() {
         if (isStarted()) {
             close = false; //if current thread close and restart, just set close to false
@@ -105,18 +245,15 @@ public class SimpleEventGenerator implements EventGeneratorSpi,
         try {
             if (log.isTraceEnabled())
                 log.trace("start EventGenerator " + id);
-            lastSelectTime = null;
             register.clear();
+            wakenUp.set(false);
+            arrivals.set(0);
             close = false;
             selector = Selector.open();
-            thread = new Thread() {
-
-                public void run() {
-                    SimpleEventGenerator.this.run();
-                }
-            };
+            thread = new EventGeneratorThread();
             thread.setName(Utils.getClassSimpleName(getClass()) + id);
             thread.setPriority(priority);
+            monitor.started(thread);
             thread.start();
         } catch (IOException e) {
             log.error(e, e);
@@ -138,7 +275,8 @@ public class SimpleEventGenerator implements EventGeneratorSpi,
             log.trace("stop EventGenerator " + id);
         close = true;
         selector.wakeup();
-        if (!isEventGeneratorThread()) { //Wait until finished
+        Thread thread = this.thread; //will be set to null when finished
+        if (thread != null && !isEventGeneratorThread()) { //Wait until finished
             while (thread.isAlive()) {
                 try {
                     thread.join();
@@ -148,38 +286,122 @@ public class SimpleEventGenerator implements EventGeneratorSpi,
         }
     }
 
+    /**
+     * Stop the event generator by itself, unless some sessions are migrating
+     * to it. Invoked by the event generator thread.
+     */
+    protected final void stopIfNoArrival() {
+        if (arrivals.compareAndSet(0, -1))
+            stop();
+    }
+
+    /**
+     * Reserve the arrival of a migrating session, the event generator will
+     * not stop by itself until {@link #arrived()} is invoked.
+     * 
+     * @return
+     * 		false if the event generator is stopping by itself
+     */
+    boolean reserveArrival() {
+        while (true) {
+            int count = arrivals.get();
+            if (count < 0)
+                return false;
+            if (arrivals.compareAndSet(count, count + 1))
+                return true;
+        }
+    }
+
+    /**
+     * The migrating session have arrived, or will not come.
+     */
+    void arrived() {
+        arrivals.decrementAndGet();
+    }
+
+    /**
+     * The thread of a SimpleEventGenerator. Registrations made by any event
+     * generator thread must not wait for the register ring to drain.
+     */
+    private class EventGeneratorThread extends Thread {
+
+        public void run() {
+            SimpleEventGenerator.this.run();
+        }
+    }
+
     public boolean isEventGeneratorThread() {
         return Thread.currentThread() == thread;
     }
 
     public void register(SessionSpi session, Object event) {
-        if (isEventGeneratorThread())
-            session.onEvent(event, selector);
-        else {
-            synchronized (register) {
-                register.add(new Object[] { session, event });
+        if (isEventGeneratorThread()) {
+            if (event == Constants.EV_READ_PENDING) { //Let other sessions go first
+                defer(session, event);
+                readBudgetExhaustedCount.incrementAndGet();
+            } else if (event == Constants.EV_MIGRATE
+                    || event == Constants.EV_MIGRATED) //Not in the middle of a callback of the session
+                defer(session, event);
+            else
+                deliver(session, event);
+        } else if (Thread.currentThread() instanceof EventGeneratorThread) { //Another event generator thread
+            //Keep its registrations in order once one have overflowed
+            if (overflow.size() > 0 || !register.offer(session, event))
+                overflow.add(session, event);
+            wakeup();
+        } else {
+            while (!register.offer(session, event)) { //full, wait the event generator thread drain it
+                if (!isStarted())
+                    return;
+                wakeup();
+                Thread.yield();
             }
-            selector.wakeup();
+            wakeup();
+        }
+    }
+
+    /**
+     * Wake up the selector, at most once between two drains of the
+     * register ring.
+     */
+    private void wakeup() {
+        if (wakenUp.compareAndSet(false, true)) {
+            Selector selector = this.selector;
+            if (selector != null) {
+                selector.wakeup();
+                wakeupCount.incrementAndGet();
+            }
+        } else {
+            suppressedWakeupCount.incrementAndGet();
         }
     }
 
     private void run() {
+        AbstractSession.DEFAULT_BUFFER_POOL.useThreadCache();
         try {
             while (!close) {
+                long loopStart = System.nanoTime();
                 beforeSelect(selector);
                 if (close)
                     break;
+                arrivals.compareAndSet(-1, 0); //Restarted before leaving the loop
 
                 int readyKeyCount = 0;
+                long selectStart = System.nanoTime();
                 try {
-                    readyKeyCount = selector
-                            .select(Constants.CHECK_SESSION_TIMEOUT_INTERVAL);
+                    if (deferred.isEmpty())
+                        readyKeyCount = selector
+                                .select(Constants.CHECK_SESSION_TIMEOUT_INTERVAL);
+                    else
+                        readyKeyCount = selector.selectNow(); //Don't block deferred events
                 } catch (ClosedSelectorException cse) {
                     break;
                 } catch (IOException e) {
                     log.error(e, e);
                     break;
                 }
+                long selectEnd = System.nanoTime();
+                timingWheel.updateTime();
                 afterSelect(selector);
 
                 if (readyKeyCount > 0) {
@@ -188,16 +410,29 @@ public class SimpleEventGenerator implements EventGeneratorSpi,
                         SelectionKey key = (SelectionKey) iter.next();
                         iter.remove();
 
+                        long callbackStart = monitor
+                                .callbackStarted((Session) key.attachment());
                         try {
                             processKey(key);
                         } catch (Exception e) { //Protection catch
                             ((Session) key.attachment()).dispatchException(e);
+                        } finally {
+                            monitor.callbackFinished(callbackStart);
                         }
                     }
                 }
+                if (!deferred.isEmpty())
+                    processDeferred();
+                timingWheel.advance(); //After events, active sessions won't timeout
+                monitor.loopFinished(loopStart, selectStart, selectEnd, System
+                        .nanoTime(), readyKeyCount);
             }
         } finally {
+            monitor.stopped();
             finishedSelect(selector);
+            deferred.clear();
+            deferredCount = 0;
+            AbstractSession.DEFAULT_BUFFER_POOL.releaseThreadCache();
         }
     }
 
@@ -214,53 +449,75 @@ public class SimpleEventGenerator implements EventGeneratorSpi,
             session.onEvent(Constants.EV_WRITABLE, null);
     }
 
-    protected void beforeSelect(Selector selector) {
-        changeRegisterChannel();
+    /**
+     * Deliver a registered event to the session. Events of a session which
+     * have migrated to another event generator are passed to it.
+     * 
+     * @param session
+     * 		the session
+     * @param event
+     * 		the event
+     */
+    void deliver(SessionSpi session, Object event) {
+        if (session instanceof ChannelSession
+                && !((ChannelSession) session).acceptEvent(this, event))
+            return;
+        session.onEvent(event, selector);
     }
 
-    private void changeRegisterChannel() {
-        Object[] objects = null;
-        synchronized (register) {
-            objects = new Object[register.size()];
-            register.toArray(objects);
-            register.clear();
-        }
-
-        for (int i = 0; i < objects.length; i++) {
-            Object[] object = (Object[]) objects[i];
-            SessionSpi session = (SessionSpi) object[0];
-            session.onEvent(object[1], selector);
-        }
+    /**
+     * Let the session listeners handle an exception thrown by a deferred
+     * event, the same way the session reports its own exceptions.
+     */
+    private static void dispatchException(SessionSpi session, Exception e) {
+        if (session instanceof AbstractSession)
+            ((AbstractSession) session).dispatchException(e);
+        else
+            log.error(e, e);
     }
 
-    protected void afterSelect(Selector selector) {
-        checkSessionTimeout();
+    private void defer(SessionSpi session, Object event) {
+        deferred.add(session);
+        deferred.add(event);
+        deferredCount = deferred.size() / 2;
     }
 
-    private void checkSessionTimeout() {
-        if (lastSelectTime == null) {
-            lastSelectTime = new ElapsedTime();
-            return;
+    /**
+     * Deliver the events deferred in the previous loop. Events deferred by
+     * them, such as sessions which exhaust their read budget again, wait for
+     * the next loop.
+     */
+    private void processDeferred() {
+        List running = deferred;
+        deferred = deferredRunning;
+        deferredRunning = running;
+        for (int i = 0; i < running.size(); i += 2) {
+            SessionSpi session = (SessionSpi) running.get(i);
+            long callbackStart = monitor.callbackStarted(session);
+            try {
+                deliver(session, running.get(i + 1));
+            } catch (Exception e) { //Protection catch
+                dispatchException(session, e);
+            } finally {
+                monitor.callbackFinished(callbackStart);
+            }
         }
+        running.clear();
+        deferredCount = deferred.size() / 2;
+    }
 
-        Set selectedKeys = selector.selectedKeys();
-        for (Iterator iter = selectedKeys.iterator(); iter.hasNext();) {
-            SelectionKey key = (SelectionKey) iter.next();
-            SessionSpi session = (SessionSpi) key.attachment();
-            session.onEvent(Constants.EV_EVENT_HAPPEN, null);
-        }
+    protected void beforeSelect(Selector selector) {
+        changeRegisterChannel();
+    }
 
-        //imporve performance, do not check session timeout frequently
-        if (lastSelectTime.getElapsedTime() >= Constants.CHECK_SESSION_TIMEOUT_INTERVAL) {
-            Integer interval = new Integer((int) lastSelectTime.reset());
-            for (Iterator iter = selector.keys().iterator(); iter.hasNext();) {
-                SelectionKey key = (SelectionKey) iter.next();
-                if (!selectedKeys.contains(key)) { //no event happen, check timeout
-                    SessionSpi session = (SessionSpi) key.attachment();
-                    session.onEvent(Constants.EV_CHECK_TIMEOUT, interval);
-                }
-            }
-        }
+    private void changeRegisterChannel() {
+        //Reset before drain, registers after this will wake up next select
+        wakenUp.set(false);
+        register.drain(this);
+        overflow.drain(this);
+    }
+
+    protected void afterSelect(Selector selector) {
     }
 
     protected void finishedSelect(Selector selector) {
@@ -274,8 +531,9 @@ public class SimpleEventGenerator implements EventGeneratorSpi,
         } catch (IOException e) {
         }
         selector = null;
-        lastSelectTime = null;
+        timingWheel.clear();
         register.clear();
+        overflow.clear();
         close = false;
         thread = null;
     }
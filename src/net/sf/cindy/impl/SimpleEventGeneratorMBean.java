@@ -34,6 +34,139 @@ public interface SimpleEventGeneratorMBean extends EventGenerator {
      */
     public int getId();
 
+    /**
+     * Get the count of keys registered on the selector.
+     * 
+     * @return
+     * 		registered key count
+     */
+    public int getKeyCount();
+
+    /**
+     * Get the count of selector wakeups issued by register.
+     * 
+     * @return
+     * 		issued wakeup count
+     */
+    public long getWakeupCount();
+
+    /**
+     * Get the count of selector wakeups suppressed because the selector
+     * had been woken up already.
+     * 
+     * @return
+     * 		suppressed wakeup count
+     */
+    public long getSuppressedWakeupCount();
+
+    /**
+     * Get the count of times sessions exhausted their read budget, either
+     * the message budget with messages pending, which are continued in a
+     * later loop, or the byte budget with bytes left in the channel.
+     * 
+     * @return
+     * 		read budget exhausted count
+     */
+    public long getReadBudgetExhaustedCount();
+
+    /**
+     * Get the count of session events deferred to the next loop, such as
+     * sessions waiting to continue their pending reads.
+     * 
+     * @return
+     * 		deferred event count
+     */
+    public int getDeferredEventCount();
+
+    /**
+     * Get the count of registrations waiting for the event generator thread.
+     * 
+     * @return
+     * 		pending registration count
+     */
+    public int getRegisterQueueSize();
+
+    /**
+     * Get the count of sessions waiting for timeout check.
+     * 
+     * @return
+     * 		scheduled session timeout count
+     */
+    public int getTimeoutCount();
+
+    /**
+     * Get time blocked in select, in millisecond.
+     * 
+     * @return
+     * 		select time
+     */
+    public long getSelectTime();
+
+    /**
+     * Get time spent out of select, processing ready keys, registrations
+     * and timeouts, in millisecond.
+     * 
+     * @return
+     * 		process time
+     */
+    public long getProcessTime();
+
+    /**
+     * Get the ratio of process time to the total time, near 1 means the
+     * event generator is saturated.
+     * 
+     * @return
+     * 		busy ratio
+     */
+    public double getBusyRatio();
+
+    public long getSelectCount();
+
+    /**
+     * Get average count of keys ready per select.
+     * 
+     * @return
+     * 		average ready key count
+     */
+    public double getAvgReadyKeyCount();
+
+    public int getMaxReadyKeyCount();
+
+    /**
+     * Get the longest time of processing a single key, in microsecond.
+     * 
+     * @return
+     * 		max callback time
+     */
+    public long getMaxCallbackTime();
+
+    /**
+     * Get the threshold of slow callbacks, in millisecond. The stack of
+     * the event generator thread is sampled when a callback runs longer
+     * than it.
+     * 
+     * @return
+     * 		slow callback threshold, 0 means not sample
+     */
+    public long getSlowCallbackThreshold();
+
+    public void setSlowCallbackThreshold(long threshold);
+
+    public long getSlowCallbackCount();
+
+    /**
+     * Get recent slow callback samples, the newest first.
+     * 
+     * @return
+     * 		slow callback samples
+     */
+    public String[] getSlowCallbacks();
+
+    /**
+     * Reset select and process time, key counts and slow callbacks.
+     */
+    public void resetHealthStatistic();
+
     /**
      * Get thread priority.
      * 
@@ -24,7 +24,8 @@ import net.sf.cindy.util.CopyOnWriteCollection;
 
 /**
  * Simple server socket session. All connected socket session will have 
- * same behavior. If you want socket session connected from different
+ * same behavior, the handlers in the pipeline of the server session are
+ * added to the pipeline of each connected session. If you want socket session connected from different
  * address will have different behavior, you should extend from 
  * ServerSocketSession and override buildSession method.
  * <p>
@@ -78,6 +79,7 @@ public class SimpleServerSocketSession extends ServerSocketSession {
         else
             session = new SocketSession();
         session.setMessageRecognizer(getMessageRecognizer());
+        ((DefaultPipeline) getPipeline()).copyTo(session.getPipeline());
         session.setDispatcher(getDispatcher());
         session.setEventGenerator(getEventGenerator());
         session.setLogException(isLogException());
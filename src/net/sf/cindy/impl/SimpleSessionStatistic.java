@@ -105,6 +105,8 @@ public class SimpleSessionStatistic implements SessionStatisticSpi {
 
     public void received(final long bytes) {
         received.addValue(bytes);
+        if (listeners.isEmpty())
+            return;
         dispatch(new Runnable() {
 
             public void run() {
@@ -119,6 +121,8 @@ public class SimpleSessionStatistic implements SessionStatisticSpi {
 
     public void sent(final long bytes) {
         sent.addValue(bytes);
+        if (listeners.isEmpty())
+            return;
         dispatch(new Runnable() {
 
             public void run() {
@@ -131,6 +135,9 @@ public class SimpleSessionStatistic implements SessionStatisticSpi {
         });
     }
 
+    public void messageSent(long queueTime) {
+    }
+
     public synchronized void start() {
         avgReceiveSpeed = 0;
         avgSendSpeed = 0;
@@ -30,7 +30,10 @@ import net.sf.cindy.spi.SessionStatisticSpi;
  * NIO not support MulticastChannel now, so use MulticastSocket to simulate.
  * 
  * @author Roger Chen
+ * @deprecated use {@link MulticastSession}, which is driven by the event
+ * generator instead of a polling thread
  */
+@Deprecated
 public class SimulatedMulticastSession extends AbstractSimulatedSession {
 
     /**
@@ -140,6 +143,7 @@ public class SimulatedMulticastSession extends AbstractSimulatedSession {
     }
 
     protected Message receive() throws IOException {
+        borrowReadBuffer(Constants.BUFFER_CAPACITY);
         byte[] b = new byte[readBuffer.remaining()];
         DatagramPacket packet = new DatagramPacket(b, b.length);
         socket.receive(packet);
@@ -152,7 +156,7 @@ public class SimulatedMulticastSession extends AbstractSimulatedSession {
             ((PacketMessage) message).setSocketAddress(packet
                     .getSocketAddress());
         }
-        readBuffer.clear();
+        releaseReadBuffer();
         return message;
     }
 
@@ -168,7 +172,7 @@ public class SimulatedMulticastSession extends AbstractSimulatedSession {
     }
 
     private byte[] writeMessageToBytes(Message message) {
-        ByteBuffer[] buffers = message.toByteBuffer();
+        ByteBuffer[] buffers = encodeMessage(message);
         int remaining = 0;
         if (buffers != null)
             for (int i = 0; i < buffers.length; i++) {
@@ -153,6 +153,11 @@ public class SocketSession extends StreamChannelSession implements Serializable
         }
     }
 
+    protected void onMigrated(Selector selector) {
+        super.onMigrated(selector);
+        selectionKey = channel.keyFor(selector);
+    }
+
     protected void onUnregister() {
         channel = null;
         selectionKey = null;
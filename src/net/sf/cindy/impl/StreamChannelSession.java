@@ -23,9 +23,12 @@ import java.nio.channels.SelectableChannel;
 import java.nio.channels.WritableByteChannel;
 
 import net.sf.cindy.Message;
+import net.sf.cindy.MessageRecognizer;
+import net.sf.cindy.StreamMessageRecognizer;
 import net.sf.cindy.spi.EventGeneratorSpi;
 import net.sf.cindy.spi.SessionStatisticSpi;
 import net.sf.cindy.util.ByteBufferUtils;
+import net.sf.cindy.util.ChunkedByteBuffer;
 
 /**
  * StreamChannel have the same behavior when reading and writing.
@@ -34,72 +37,418 @@ import net.sf.cindy.util.ByteBufferUtils;
  */
 public abstract class StreamChannelSession extends ChannelSession {
 
+    private ByteBuffer[] gatherBuffers; //only used by the event generator thread
+
+    private volatile int readBudgetBytes = Constants.READ_BUDGET_BYTES;
+    private volatile int readBudgetMessages = Constants.READ_BUDGET_MESSAGES;
+    private int messageBudgetLeft = -1; //of the single readBuffer, negative means unlimited, only used by the event generator thread
+
+    /**
+     * Get max bytes read from the channel per readable event, 0 means
+     * unlimited. Bytes left in the channel are read when the channel is
+     * selected again, after other ready sessions.
+     * 
+     * @return
+     * 		read budget in bytes
+     */
+    public int getReadBudgetBytes() {
+        return readBudgetBytes;
+    }
+
+    /**
+     * Set max bytes read from the channel per readable event, 0 means
+     * unlimited.
+     * 
+     * @param readBudgetBytes
+     * 		read budget in bytes
+     */
+    public void setReadBudgetBytes(int readBudgetBytes) {
+        if (readBudgetBytes < 0)
+            readBudgetBytes = 0;
+        this.readBudgetBytes = readBudgetBytes;
+    }
+
+    /**
+     * Get max messages dispatched per readable event, 0 means unlimited.
+     * When it is exhausted, the session stops reading and continues
+     * dispatching in the next loop of the event generator, after other
+     * ready sessions.
+     * 
+     * @return
+     * 		read budget in messages
+     */
+    public int getReadBudgetMessages() {
+        return readBudgetMessages;
+    }
+
+    /**
+     * Set max messages dispatched per readable event, 0 means unlimited.
+     * 
+     * @param readBudgetMessages
+     * 		read budget in messages
+     */
+    public void setReadBudgetMessages(int readBudgetMessages) {
+        if (readBudgetMessages < 0)
+            readBudgetMessages = 0;
+        this.readBudgetMessages = readBudgetMessages;
+    }
+
     protected void readFromChannel(SelectableChannel channel)
             throws IOException {
-        if (!readBuffer.hasRemaining()) { //have no room for contain new data
-            readBuffer = ByteBufferUtils.increaseCapacity(readBuffer,
-                    Constants.BUFFER_CAPACITY);
+        if (isChunkedRead() && isChunkedRecognize()) {
+            readToChunks(channel);
+            return;
+        }
+        if (readBuffer == null)
+            borrowReadBuffer(getReadBufferCapacity());
+        else if (!readBuffer.hasRemaining()) { //have no room for contain new data, double it up to the limit
+            int size = Math.min(readBuffer.capacity(),
+                    getBufferCapacityLimit() - readBuffer.capacity());
+            readBuffer = getBufferPool().increaseCapacity(readBuffer,
+                    Math.max(size, Constants.BUFFER_CAPACITY));
         }
+        int budget = readBudgetBytes > 0 ? readBudgetBytes : Integer.MAX_VALUE;
         int n = -1;
         int readCount = 0;
-        while ((n = ((ReadableByteChannel) channel).read(readBuffer)) > 0) {
+        while (readCount < budget
+                && (n = ((ReadableByteChannel) channel).read(readBuffer)) > 0) {
             readCount += n;
         }
 
-        if (readCount > 0) {
-            if (getStatistic() != null)
-                ((SessionStatisticSpi) getStatistic()).received(readCount);
-            readBuffer.flip();
-            recognizeMessageAndDispatch(readBuffer);
-            readBuffer.compact();
-
-            if (readBuffer.position() >= getBufferCapacityLimit()) {
-                dispatchException(new RuntimeException(
-                        "ReadBuffer reaches it's max capacity. To prevent attack, session will be closed."));
-                close(false);
-                return;
+        if (readCount > 0 && getStatistic() != null)
+            ((SessionStatisticSpi) getStatistic()).received(readCount);
+        if (n < 0) { //Connection closed, dispatch all received messages first
+            if (readCount > 0) {
+                readBuffer.flip();
+                recognizeMessageAndDispatch(readBuffer);
             }
+            channel.close();
+            close();
+        } else if (!dispatchReadBuffer(readCount > 0) && readCount >= budget)
+            readBudgetExhausted(); //Counted once if both budgets are exhausted
+    }
+
+    /**
+     * Read into the chunked read buffer. Received bytes are appended to
+     * pooled chunks and never moved, until the buffer capacity limit or the
+     * read budget is reached.
+     */
+    private void readToChunks(SelectableChannel channel) throws IOException {
+        if (readChunks == null)
+            readChunks = new ChunkedByteBuffer(getBufferPool(),
+                    getReadBufferCapacity(), Constants.USE_DIRECT_BUFFER);
+        int limit = getBufferCapacityLimit();
+        int budget = readBudgetBytes > 0 ? readBudgetBytes : Integer.MAX_VALUE;
+        int n = 0;
+        int readCount = 0;
+        while (readChunks.remaining() < limit && readCount < budget) {
+            ByteBuffer buffer = readChunks.getWritableBuffer();
+            n = ((ReadableByteChannel) channel).read(buffer);
+            readChunks.commit(buffer);
+            if (n <= 0)
+                break;
+            readCount += n;
         }
-        if (n < 0) { //Connection closed
+
+        if (readCount > 0 && getStatistic() != null)
+            ((SessionStatisticSpi) getStatistic()).received(readCount);
+        if (n < 0) { //Connection closed, dispatch all received messages first
+            recognizeMessageAndDispatch(readChunks, 0);
             channel.close();
             close();
-        } else {
+        } else if (!dispatchReadChunks() && readCount >= budget)
+            readBudgetExhausted(); //Counted once if both budgets are exhausted
+    }
+
+    protected void readPending(SelectableChannel channel) throws IOException {
+        if (readBuffer != null) //Bytes pending in the single readBuffer
+            dispatchReadBuffer(true);
+        else if (readChunks != null)
+            dispatchReadChunks();
+    }
+
+    /**
+     * Dispatch the received messages of the single readBuffer within the
+     * message budget, the same way as {@link #dispatchReadChunks()}.
+     * 
+     * @param received
+     * 		some bytes have been read into the buffer
+     * @return
+     * 		true if the message budget is exhausted
+     */
+    private boolean dispatchReadBuffer(boolean received) {
+        boolean exhausted = false;
+        if (received) {
+            int budget = readBudgetMessages;
+            messageBudgetLeft = budget > 0 ? budget : -1;
+            try {
+                readBuffer.flip();
+                recognizeMessageAndDispatch(readBuffer);
+            } finally {
+                exhausted = messageBudgetLeft == 0;
+                messageBudgetLeft = -1;
+            }
+            if (readBuffer.position() > 0)
+                readBuffer.compact();
+            else { //Nothing recognized, not move the pending bytes
+                readBuffer.position(readBuffer.limit());
+                readBuffer.limit(readBuffer.capacity());
+            }
+        }
+        if (exhausted) { //More messages may be pending
             ((EventGeneratorSpi) getEventGenerator()).register(this,
-                    Constants.EV_ENABLE_READ);
+                    Constants.EV_READ_PENDING);
+            return true;
         }
+
+        if (readBuffer.position() >= getBufferCapacityLimit()) {
+            dispatchException(new RuntimeException(
+                    "ReadBuffer reaches it's max capacity. To prevent attack, session will be closed."));
+            close(false);
+            return false;
+        }
+        ((EventGeneratorSpi) getEventGenerator()).register(this,
+                Constants.EV_ENABLE_READ);
+        if (readBuffer.position() == 0)
+            releaseReadBuffer(); //No bytes pending
+        return false;
     }
 
+    /**
+     * Judge the message budget of current read is exhausted. Subclass which
+     * dispatches the messages of the single readBuffer by itself should stop
+     * decoding more messages, and dispatch the rest when
+     * {@link #recognizeMessageAndDispatch(ByteBuffer)} is invoked again.
+     * 
+     * @return
+     * 		the message budget is exhausted
+     */
+    protected final boolean isMessageBudgetExhausted() {
+        return messageBudgetLeft == 0;
+    }
+
+    /**
+     * Dispatch the received messages within the message budget. If the
+     * budget is exhausted, continue in the next loop without reading,
+     * otherwise listen OP_READ again.
+     * 
+     * @return
+     * 		true if the message budget is exhausted
+     */
+    private boolean dispatchReadChunks() {
+        int budget = readBudgetMessages;
+        int count = recognizeMessageAndDispatch(readChunks, budget);
+        if (budget > 0 && count >= budget) { //More messages may be pending
+            ((EventGeneratorSpi) getEventGenerator()).register(this,
+                    Constants.EV_READ_PENDING);
+            return true;
+        }
+
+        if (readChunks.remaining() >= getBufferCapacityLimit()) {
+            dispatchException(new RuntimeException(
+                    "ReadBuffer reaches it's max capacity. To prevent attack, session will be closed."));
+            close(false);
+            return false;
+        }
+        ((EventGeneratorSpi) getEventGenerator()).register(this,
+                Constants.EV_ENABLE_READ);
+        if (readChunks.remaining() == 0)
+            readChunks.clear(); //No bytes pending
+        return false;
+    }
+
+    /**
+     * Report the exhausted byte budget to the event generator which runs
+     * the session.
+     */
+    private void readBudgetExhausted() {
+        SimpleEventGenerator generator = getRunningEventGenerator();
+        if (generator != null)
+            generator.readBudgetExhausted();
+    }
+
+    /**
+     * Read into a chunked buffer instead of the single readBuffer. Subclass
+     * which processes readBuffer by overriding
+     * {@link #recognizeMessageAndDispatch(ByteBuffer)} should return false.
+     * 
+     * @return
+     * 		use chunked read buffer
+     */
+    protected boolean isChunkedRead() {
+        return true;
+    }
+
+    /**
+     * A recognizer which is not a StreamMessageRecognizer needs all the
+     * pending bytes as one ByteBuffer, the chunks would be merged again on
+     * every read while a message is not completed. So the bytes are read
+     * into the single readBuffer for it, unless bytes are pending in the
+     * chunked buffer.
+     * 
+     * @return
+     * 		recognize the messages from the chunked read buffer
+     */
+    private boolean isChunkedRecognize() {
+        if (readChunks != null && readChunks.remaining() > 0)
+            return true;
+        if (readBuffer != null && readBuffer.position() > 0)
+            return false;
+        return hasDecoder()
+                || getMessageRecognizer() instanceof StreamMessageRecognizer;
+    }
+
+    /**
+     * Recognize the messages in the chunked buffer and dispatch them. If the
+     * pipeline have decoders, they read the chunked buffer directly.
+     * Otherwise a message which spans chunks is copied to one chunk before recognized,
+     * if the recognizer is a StreamMessageRecognizer only its own bytes are
+     * copied.
+     * 
+     * @param buffer
+     * 		the chunked buffer
+     * @param budget
+     * 		max messages to dispatch, 0 means unlimited
+     * @return
+     * 		dispatched message count
+     */
+    protected int recognizeMessageAndDispatch(ChunkedByteBuffer buffer,
+            int budget) {
+        if (hasDecoder()) {
+            int count = 0;
+            while (buffer.remaining() > 0 && (budget <= 0 || count < budget)) {
+                Message message = decodeMessage(buffer);
+                if (message == null)
+                    break;
+                dispatchMessageReceived(message);
+                count++;
+            }
+            return count;
+        }
+        MessageRecognizer recognizer = getMessageRecognizer();
+        int count = 0;
+        while (buffer.remaining() > 0 && (budget <= 0 || count < budget)) {
+            int length = buffer.remaining();
+            if (recognizer instanceof StreamMessageRecognizer) {
+                try {
+                    length = ((StreamMessageRecognizer) recognizer)
+                            .getMessageLength(this, buffer);
+                } catch (Exception e) { //Protection catch
+                    dispatchException(e);
+                    break;
+                }
+                if (length < 0 || length > buffer.remaining())
+                    break;
+            }
+            ByteBuffer frame = buffer.getContiguous(length);
+            int start = frame.position();
+            Message message = recognizeMessage(frame);
+            if (message == null)
+                break;
+            buffer.skip(frame.position() - start);
+            dispatchMessageReceived(message);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Get the capacity of the read buffer borrowed when there are no bytes
+     * pending.
+     * 
+     * @return
+     * 		read buffer capacity
+     */
+    protected int getReadBufferCapacity() {
+        return Constants.BUFFER_CAPACITY;
+    }
+
+    /**
+     * Recognize the messages in the single readBuffer and dispatch them,
+     * until the message budget of current read is exhausted.
+     * 
+     * @param buffer
+     * 		the read buffer, flipped
+     */
     protected void recognizeMessageAndDispatch(ByteBuffer buffer) {
-        while (buffer.hasRemaining()) {
+        while (buffer.hasRemaining() && messageBudgetLeft != 0) {
             Message message = recognizeMessage(buffer);
             if (message == null)
                 break;
             dispatchMessageReceived(message);
+            if (messageBudgetLeft > 0)
+                messageBudgetLeft--;
         }
     }
 
+    /**
+     * Convert the message to ByteBuffer[] by the pipeline in the writing
+     * thread, so the bytes queued are known.
+     */
     protected final Object transMessage(Message message) {
-        return new WriteMessage(message);
+        return new WriteMessage(message, encodeMessage(message));
+    }
+
+    protected final int getWriteSize(Object writeMessage) {
+        return ((WriteMessage) writeMessage).size;
     }
 
     /**
-     * convert Message to ByteBuffer[]. Normally return message.toByteBuffer,
-     * but in some secure connection will return encoded content. 
+     * convert Message to ByteBuffer[]. Normally return the content of 
+     * message.toByteBuffer, but in some secure connection will return 
+     * encoded content. Invoked by the event generator thread before the
+     * message is written.
      * 
      * @param message
      * 		Message
+     * @param buffer
+     * 		the result of message.toByteBuffer
      * @return
      * 		converted ByteBuffer array
      */
-    protected ByteBuffer[] messageToByteBuffer(Message message) {
-        return message.toByteBuffer();
+    protected ByteBuffer[] messageToByteBuffer(Message message,
+            ByteBuffer[] buffer) {
+        return buffer;
+    }
+
+    /**
+     * Get the buffers of the write message which have not been written.
+     * Subclass which writes the queued messages by itself can consume them
+     * directly instead of converting them by messageToByteBuffer.
+     * 
+     * @param writeMessage
+     * 		the write message popped from writeQueue
+     * @return
+     * 		the buffers, may be null
+     */
+    protected final ByteBuffer[] getWriteBuffer(Object writeMessage) {
+        return ((WriteMessage) writeMessage).buffer;
+    }
+
+    /**
+     * Get the message of the write message.
+     * 
+     * @param writeMessage
+     * 		the write message popped from writeQueue
+     * @return
+     * 		the message
+     */
+    protected final Message getWriteMessage(Object writeMessage) {
+        return ((WriteMessage) writeMessage).message;
+    }
+
+    private void encode(WriteMessage message) {
+        if (!message.encoded) {
+            message.buffer = messageToByteBuffer(message.message,
+                    message.buffer);
+            message.encoded = true;
+        }
     }
 
     protected Message writeToChannel(SelectableChannel channel,
             Object writeMessage) throws IOException {
         WriteMessage message = (WriteMessage) writeMessage;
-        if (message.buffer == null)
-            message.buffer = messageToByteBuffer(message.message);
+        encode(message);
 
         ByteBuffer[] writeBuffer = message.buffer;
         if (writeBuffer == null || writeBuffer.length == 0)
@@ -118,6 +467,75 @@ public abstract class StreamChannelSession extends ChannelSession {
         }
     }
 
+    /**
+     * Gather the buffers of queued messages into one channel write, until
+     * the batch size or the batch bytes is reached.
+     */
+    protected int writeToChannel(SelectableChannel channel,
+            Object[] writeMessages, int count, Message[] sentMessages)
+            throws IOException {
+        if (count == 1 || !Constants.SUPPORT_WRITE_BUFFER_ARRAY)
+            return super.writeToChannel(channel, writeMessages, count,
+                    sentMessages);
+
+        if (gatherBuffers == null)
+            gatherBuffers = new ByteBuffer[Constants.WRITE_BATCH_SIZE];
+        int bufferCount = 0;
+        int messageCount = 0;
+        long remaining = 0;
+        for (; messageCount < count
+                && remaining < Constants.WRITE_BATCH_BYTES; messageCount++) {
+            WriteMessage message = (WriteMessage) writeMessages[messageCount];
+            if (!message.encoded) {
+                encode(message);
+                if (!isStarted()) //closed when converting
+                    return 0;
+            }
+            ByteBuffer[] buffer = message.buffer;
+            int length = buffer == null ? 0 : buffer.length;
+            if (bufferCount + length > gatherBuffers.length) {
+                if (messageCount == 0) //too many buffers, write it alone
+                    return super.writeToChannel(channel, writeMessages,
+                            count, sentMessages);
+                break;
+            }
+            for (int i = 0; i < length; i++) {
+                if (buffer[i] != null && buffer[i].hasRemaining()) {
+                    gatherBuffers[bufferCount++] = buffer[i];
+                    remaining += buffer[i].remaining();
+                }
+            }
+        }
+
+        try {
+            int offset = 0;
+            while (offset < bufferCount) {
+                long n = ((GatheringByteChannel) channel).write(
+                        gatherBuffers, offset, bufferCount - offset);
+                if (getStatistic() != null)
+                    ((SessionStatisticSpi) getStatistic()).sent(n);
+                remaining -= n;
+                while (offset < bufferCount
+                        && !gatherBuffers[offset].hasRemaining())
+                    offset++;
+                if (remaining > 0) //the write buffer is full
+                    break;
+            }
+        } finally {
+            for (int i = 0; i < bufferCount; i++)
+                gatherBuffers[i] = null;
+        }
+
+        int completed = 0;
+        for (; completed < messageCount; completed++) {
+            WriteMessage message = (WriteMessage) writeMessages[completed];
+            if (ByteBufferUtils.hasRemaining(message.buffer))
+                break;
+            sentMessages[completed] = message.message;
+        }
+        return completed;
+    }
+
     private long doRealWrite(SelectableChannel channel, ByteBuffer[] buffer)
             throws IOException {
         // Now JDK 1.4 have a bug when use SocketChannel
@@ -146,11 +564,16 @@ public abstract class StreamChannelSession extends ChannelSession {
      */
     private static class WriteMessage {
 
-        private Message message;
+        private final Message message;
+        private final int size;
         private ByteBuffer[] buffer;
+        private boolean encoded;
 
-        private WriteMessage(Message message) {
+        private WriteMessage(Message message, ByteBuffer[] buffer) {
             this.message = message;
+            this.buffer = buffer;
+            this.size = (int) Math.min(ByteBufferUtils.remaining(buffer),
+                    Integer.MAX_VALUE);
         }
 
         public ByteBuffer[] getBuffer() {
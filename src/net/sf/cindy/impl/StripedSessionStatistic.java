@@ -0,0 +1,230 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.impl;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+import net.sf.cindy.Session;
+import net.sf.cindy.SessionStatisticListener;
+import net.sf.cindy.spi.DispatcherSpi;
+import net.sf.cindy.spi.SessionStatisticSpi;
+import net.sf.cindy.util.CopyOnWriteCollection;
+import net.sf.cindy.util.Histogram;
+import net.sf.cindy.util.Meter;
+
+/**
+ * Lock-free session statistic. Bytes are counted by striped counters and
+ * speeds are exponentially weighted moving averages, so no monitor is taken
+ * on reading or writing, and listeners are only dispatched when there are
+ * some. Besides speeds, it records histograms of read sizes, write sizes
+ * and write queue time, and rolls them up into a global statistic shared
+ * by all sessions.
+ * <p>
+ * Enable it by:
+ * 
+ * <pre>
+ * session.setStatistic(new StripedSessionStatistic(session));
+ * session.setEnableStatistic(true);
+ * </pre>
+ * 
+ * @author Roger Chen
+ */
+public class StripedSessionStatistic implements SessionStatisticSpi,
+        StripedSessionStatisticMBean {
+
+    /**
+     * Statistic of all sessions which use StripedSessionStatistic and not
+     * specify another global statistic.
+     */
+    public static final GlobalSessionStatistic GLOBAL_STATISTIC = new GlobalSessionStatistic();
+
+    private final Session session;
+    private final GlobalSessionStatistic global;
+
+    //Read by the event generator thread, written by the event generator thread and blockWrite threads
+    private final Meter received = new Meter(1);
+    private final Meter sent = new Meter(2);
+    private final Histogram readSize = new Histogram(1);
+    private final Histogram writeSize = new Histogram(2);
+    private final Histogram queueTime = new Histogram(2);
+
+    private final Collection listeners = new CopyOnWriteCollection();
+
+    private volatile boolean stopped = true;
+    private double avgReceiveSpeed = 0;
+    private double avgSendSpeed = 0;
+    private long elapsedTime = 0;
+
+    public StripedSessionStatistic(Session session) {
+        this(session, GLOBAL_STATISTIC);
+    }
+
+    /**
+     * Create a session statistic.
+     * 
+     * @param session
+     * 		the session
+     * @param global
+     * 		the global statistic rolls up this statistic, can be null
+     */
+    public StripedSessionStatistic(Session session,
+            GlobalSessionStatistic global) {
+        this.session = session;
+        this.global = global;
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    public GlobalSessionStatistic getGlobalStatistic() {
+        return global;
+    }
+
+    public synchronized double getAvgReceiveSpeed() {
+        if (stopped)
+            return avgReceiveSpeed;
+        return received.getAvgRate();
+    }
+
+    public synchronized double getAvgSendSpeed() {
+        if (stopped)
+            return avgSendSpeed;
+        return sent.getAvgRate();
+    }
+
+    public synchronized long getElapsedTime() {
+        if (stopped)
+            return elapsedTime;
+        return received.getElapsedTime();
+    }
+
+    public long getReceivedBytes() {
+        return received.getTotalValue();
+    }
+
+    public long getSentBytes() {
+        return sent.getTotalValue();
+    }
+
+    public double getReceiveSpeed() {
+        if (stopped)
+            return 0;
+        return received.getRate();
+    }
+
+    public double getSendSpeed() {
+        if (stopped)
+            return 0;
+        return sent.getRate();
+    }
+
+    public Histogram getReadSizeHistogram() {
+        return readSize;
+    }
+
+    public Histogram getWriteSizeHistogram() {
+        return writeSize;
+    }
+
+    public Histogram getQueueTimeHistogram() {
+        return queueTime;
+    }
+
+    public void addListener(SessionStatisticListener listener) {
+        if (listener != null)
+            listeners.add(listener);
+    }
+
+    public void removeListener(SessionStatisticListener listener) {
+        if (listener != null)
+            listeners.remove(listener);
+    }
+
+    private void dispatch(Runnable runnable) {
+        ((DispatcherSpi) session.getDispatcher()).dispatch(session, runnable);
+    }
+
+    public void received(final long bytes) {
+        received.mark(bytes);
+        readSize.record(bytes);
+        if (global != null)
+            global.received(bytes);
+        if (listeners.isEmpty())
+            return;
+        dispatch(new Runnable() {
+
+            public void run() {
+                for (Iterator iter = listeners.iterator(); iter.hasNext();) {
+                    SessionStatisticListener listener = (SessionStatisticListener) iter
+                            .next();
+                    listener.received(StripedSessionStatistic.this, bytes);
+                }
+            }
+        });
+    }
+
+    public void sent(final long bytes) {
+        if (bytes <= 0) //The write buffer is full
+            return;
+        sent.mark(bytes);
+        writeSize.record(bytes);
+        if (global != null)
+            global.sent(bytes);
+        if (listeners.isEmpty())
+            return;
+        dispatch(new Runnable() {
+
+            public void run() {
+                for (Iterator iter = listeners.iterator(); iter.hasNext();) {
+                    SessionStatisticListener listener = (SessionStatisticListener) iter
+                            .next();
+                    listener.sent(StripedSessionStatistic.this, bytes);
+                }
+            }
+        });
+    }
+
+    public void messageSent(long queueTime) {
+        this.queueTime.record(queueTime);
+        if (global != null)
+            global.messageSent(queueTime);
+    }
+
+    public synchronized void start() {
+        avgReceiveSpeed = 0;
+        avgSendSpeed = 0;
+        elapsedTime = 0;
+        received.reset();
+        sent.reset();
+        readSize.reset();
+        writeSize.reset();
+        queueTime.reset();
+        if (stopped && global != null)
+            global.sessionStarted();
+        stopped = false;
+    }
+
+    public synchronized void stop() {
+        avgReceiveSpeed = received.getAvgRate();
+        avgSendSpeed = sent.getAvgRate();
+        elapsedTime = received.getElapsedTime();
+        if (!stopped && global != null)
+            global.sessionStopped();
+        stopped = true;
+    }
+}
\ No newline at end of file
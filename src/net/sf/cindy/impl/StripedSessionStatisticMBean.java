@@ -0,0 +1,53 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.impl;
+
+import net.sf.cindy.SessionStatistic;
+import net.sf.cindy.util.Histogram;
+
+/**
+ * StripedSessionStatistic MBean.
+ * 
+ * @author Roger Chen
+ */
+public interface StripedSessionStatisticMBean extends SessionStatistic {
+
+    /**
+     * Get the histogram of bytes read by each read operation.
+     * 
+     * @return
+     * 		read size histogram
+     */
+    public Histogram getReadSizeHistogram();
+
+    /**
+     * Get the histogram of bytes written by each write operation.
+     * 
+     * @return
+     * 		write size histogram
+     */
+    public Histogram getWriteSizeHistogram();
+
+    /**
+     * Get the histogram of the time messages stayed in the write queue, in
+     * nanosecond.
+     * 
+     * @return
+     * 		queue time histogram
+     */
+    public Histogram getQueueTimeHistogram();
+
+}
\ No newline at end of file
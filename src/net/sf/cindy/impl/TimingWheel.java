@@ -0,0 +1,210 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.impl;
+
+import net.sf.cindy.util.ElapsedTime;
+
+/**
+ * Hashed timing wheel owned by an event generator. Each bucket holds a
+ * doubly linked list of timeouts, so schedule and cancel are O(1) and
+ * advancing only touches the buckets whose ticks have passed.
+ * <p>
+ * Not thread-safe, all methods must be invoked in the event generator
+ * thread which owns the wheel.
+ *
+ * <pre>
+ *
+ *        tick 0   tick 1   tick 2         tick n-1
+ *       +--------+--------+--------+-...-+--------+
+ *       | bucket | bucket | bucket |     | bucket |
+ *       +---+----+--------+---+----+-...-+--------+
+ *           |                 |
+ *        Timeout           Timeout
+ *           |
+ *        Timeout
+ *
+ * </pre>
+ *
+ * @author Roger Chen
+ */
+class TimingWheel {
+
+    private final long tickDuration;
+    private final Timeout[] buckets;
+    private final int mask;
+    private final ElapsedTime elapsedTime = new ElapsedTime();
+
+    private long tick; //last processed tick
+    private long time; //cached time, in millisecond
+    private int size;
+
+    TimingWheel(long tickDuration, int wheelSize) {
+        if (tickDuration <= 0)
+            tickDuration = 1;
+        int n = 1;
+        while (n < wheelSize)
+            n <<= 1;
+        this.tickDuration = tickDuration;
+        this.buckets = new Timeout[n];
+        this.mask = n - 1;
+    }
+
+    /**
+     * Get the time of last advance, in millisecond. Cheap enough to be
+     * invoked on every event.
+     *
+     * @return
+     * 		cached time
+     */
+    long getTime() {
+        return time;
+    }
+
+    /**
+     * Get scheduled timeout count.
+     *
+     * @return
+     * 		scheduled timeout count
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Schedule the timeout, reschedule it if it have been scheduled.
+     *
+     * @param timeout
+     * 		the timeout
+     * @param delay
+     * 		delay in millisecond from the cached time
+     */
+    void schedule(Timeout timeout, long delay) {
+        if (timeout.wheel != null)
+            timeout.wheel.cancel(timeout);
+        if (delay < 0)
+            delay = 0;
+        long deadline = (time + delay + tickDuration - 1) / tickDuration;
+        if (deadline <= tick)
+            deadline = tick + 1;
+        timeout.deadline = deadline;
+        timeout.wheel = this;
+
+        int index = (int) (deadline & mask);
+        Timeout head = buckets[index];
+        timeout.prev = null;
+        timeout.next = head;
+        if (head != null)
+            head.prev = timeout;
+        buckets[index] = timeout;
+        size++;
+    }
+
+    /**
+     * Cancel the timeout. Do nothing if the timeout is not scheduled.
+     *
+     * @param timeout
+     * 		the timeout
+     */
+    void cancel(Timeout timeout) {
+        if (timeout.wheel != this)
+            return;
+        if (timeout.prev != null)
+            timeout.prev.next = timeout.next;
+        else
+            buckets[(int) (timeout.deadline & mask)] = timeout.next;
+        if (timeout.next != null)
+            timeout.next.prev = timeout.prev;
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.wheel = null;
+        size--;
+    }
+
+    /**
+     * Update the cached time.
+     */
+    void updateTime() {
+        time = elapsedTime.getElapsedTime();
+    }
+
+    /**
+     * Advance the wheel to the cached time, fire all expired timeouts.
+     */
+    void advance() {
+        long now = time / tickDuration;
+        if (now <= tick)
+            return;
+        long from = tick + 1;
+        if (now - from > mask) //Passed a whole round, visit every bucket once
+            from = now - mask;
+        tick = now;
+
+        //Unlink all expired timeouts first, expired() may schedule or cancel others
+        Timeout expired = null;
+        for (long t = from; t <= now; t++) {
+            Timeout timeout = buckets[(int) (t & mask)];
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.deadline <= now) {
+                    cancel(timeout);
+                    timeout.nextExpired = expired;
+                    expired = timeout;
+                }
+                timeout = next;
+            }
+        }
+        while (expired != null) {
+            Timeout timeout = expired;
+            expired = timeout.nextExpired;
+            timeout.nextExpired = null;
+            if (!timeout.isScheduled()) //not rescheduled by previous expired timeouts
+                timeout.expired();
+        }
+    }
+
+    /**
+     * Cancel all timeouts.
+     */
+    void clear() {
+        for (int i = 0; i < buckets.length; i++) {
+            while (buckets[i] != null)
+                cancel(buckets[i]);
+        }
+    }
+
+    /**
+     * A timeout which can be scheduled on a timing wheel. The same instance
+     * can be rescheduled any times.
+     *
+     * @author Roger Chen
+     */
+    static abstract class Timeout {
+
+        private TimingWheel wheel;
+        private Timeout prev, next;
+        private Timeout nextExpired;
+        private long deadline;
+
+        boolean isScheduled() {
+            return wheel != null;
+        }
+
+        /**
+         * The timeout expired. Invoked by the event generator thread.
+         */
+        protected abstract void expired();
+    }
+}
\ No newline at end of file
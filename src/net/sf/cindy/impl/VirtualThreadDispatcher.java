@@ -0,0 +1,155 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.impl;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.cindy.Session;
+import net.sf.cindy.spi.DispatcherSpi;
+import net.sf.cindy.util.Utils;
+
+/**
+ * Dispatcher which runs events in virtual threads, so listeners which block,
+ * such as invoking a remote service or blockWrite, don't hold a thread of
+ * a fixed size pool.
+ * <p>
+ * In ordered mode, which is the default, each session has a mailbox of its
+ * events, a virtual thread is started when the mailbox becomes non-empty,
+ * and exits when the mailbox is empty, so the events of a session are
+ * dispatched in the original order. In unordered mode, each event is run in
+ * its own virtual thread.
+ * <p>
+ * Before JDK 21, the events are dispatched by a
+ * {@link WorkStealingDispatcher} of a bounded daemon thread pool instead,
+ * a listener which blocks holds a thread of the pool.
+ * 
+ * @author Roger Chen
+ */
+public class VirtualThreadDispatcher implements DispatcherSpi,
+        VirtualThreadDispatcherMBean {
+
+    private static final int DEFAULT_FALLBACK_POOL_SIZE = 64; //Listeners may block, more threads than processors
+
+    private static int i = 0;
+
+    private final boolean ordered;
+    private final DispatcherSpi dispatcher = new SimpleDispatcher();
+    private final Map mailboxMap = new WeakHashMap(); //For sessions not extend AbstractSession
+    private final WorkStealingDispatcher fallback; //Before JDK 21
+
+    private final AtomicInteger runningCount = new AtomicInteger();
+    private final AtomicLong startedCount = new AtomicLong();
+    private final AtomicLong dispatchedCount = new AtomicLong();
+
+    public VirtualThreadDispatcher() {
+        this(true);
+    }
+
+    public VirtualThreadDispatcher(boolean ordered) {
+        this(ordered, DEFAULT_FALLBACK_POOL_SIZE);
+    }
+
+    /**
+     * @param ordered
+     * 		dispatch the events of a session in order
+     * @param fallbackPoolSize
+     * 		thread pool size used before JDK 21
+     */
+    public VirtualThreadDispatcher(boolean ordered, int fallbackPoolSize) {
+        this.ordered = ordered;
+        fallback = Utils.isSupportVirtualThread() ? null
+                : new WorkStealingDispatcher(true, fallbackPoolSize);
+    }
+
+    public void dispatch(final Session session, final Runnable runnable) {
+        if (fallback != null) {
+            fallback.dispatch(session, runnable);
+            return;
+        }
+        if (!ordered) {
+            start(new Runnable() {
+
+                public void run() {
+                    dispatcher.dispatch(session, runnable);
+                    dispatchedCount.incrementAndGet();
+                }
+            });
+            return;
+        }
+
+        final SessionMailbox mailbox = SessionMailbox.get(this, session,
+                mailboxMap);
+        if (mailbox.add(runnable)) {
+            start(new Runnable() {
+
+                public void run() {
+                    do {
+                        Runnable runnable;
+                        while ((runnable = mailbox.poll()) != null) {
+                            dispatcher.dispatch(session, runnable);
+                            dispatchedCount.incrementAndGet();
+                        }
+                    } while (!mailbox.unschedule());
+                }
+            });
+        }
+    }
+
+    private void start(final Runnable runnable) {
+        Thread thread = Utils.newThread(new Runnable() {
+
+            public void run() {
+                try {
+                    runnable.run();
+                } finally {
+                    runningCount.decrementAndGet();
+                }
+            }
+        }, "VirtualThreadDispatcher-" + i++, true);
+        thread.setDaemon(true); //Virtual thread is always daemon
+        runningCount.incrementAndGet();
+        startedCount.incrementAndGet();
+        thread.start();
+    }
+
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    public boolean isVirtualThread() {
+        return Utils.isSupportVirtualThread();
+    }
+
+    public int getRunningThreadCount() {
+        if (fallback != null)
+            return fallback.getThreadPoolSize();
+        return runningCount.get();
+    }
+
+    public long getStartedThreadCount() {
+        return startedCount.get();
+    }
+
+    public long getDispatchedCount() {
+        if (fallback != null)
+            return fallback.getDispatchedCount();
+        return dispatchedCount.get();
+    }
+
+}
\ No newline at end of file
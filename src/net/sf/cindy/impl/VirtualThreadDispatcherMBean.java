@@ -0,0 +1,48 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.impl;
+
+/**
+ * VirtualThreadDispatcher MBean.
+ * 
+ * @author Roger Chen
+ */
+public interface VirtualThreadDispatcherMBean {
+
+    /**
+     * Are the events of a session dispatched in order.
+     * 
+     * @return
+     * 		ordered
+     */
+    public boolean isOrdered();
+
+    /**
+     * Are the events run in virtual threads, false if virtual thread is
+     * not supported and a bounded platform thread pool is used.
+     * 
+     * @return
+     * 		use virtual thread
+     */
+    public boolean isVirtualThread();
+
+    public int getRunningThreadCount();
+
+    public long getStartedThreadCount();
+
+    public long getDispatchedCount();
+
+}
\ No newline at end of file
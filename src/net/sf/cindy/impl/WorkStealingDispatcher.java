@@ -0,0 +1,274 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.impl;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.cindy.Session;
+import net.sf.cindy.spi.DispatcherSpi;
+import net.sf.cindy.util.Utils;
+import net.sf.cindy.util.queue.Queue;
+import net.sf.cindy.util.queue.QueueFactory;
+
+/**
+ * Ordered dispatcher backed by a work-stealing thread pool. Each session
+ * has a mailbox of its events. A mailbox which have events is scheduled on
+ * the queue of one thread, and run by one thread at a time, so the events
+ * of a session are dispatched in the original order. But sessions are not
+ * bound to threads: a thread runs at most throughput events of a session
+ * before it turns to others, and an idle thread steals scheduled mailboxes
+ * from the others.
+ * <p>
+ * If the thread pool size is 0, events are run by the dispatching thread.
+ * 
+ * <pre>
+ * 
+ *    session  session  session
+ *       |        |        |
+ *    mailbox  mailbox  mailbox     (scheduled when not empty)
+ *       |        |        |
+ *       v        v        v
+ *   +-------+ +-------+ +-------+
+ *   | queue | | queue | | queue |  &lt;-- idle worker steals
+ *   +---+---+ +---+---+ +---+---+
+ *       |         |         |
+ *    worker    worker    worker
+ *    
+ * </pre>
+ * 
+ * @author Roger Chen
+ */
+public class WorkStealingDispatcher implements DispatcherSpi,
+        WorkStealingDispatcherMBean {
+
+    private static final int DEFAULT_THROUGHPUT = 32;
+
+    private static int i = 0;
+
+    private final boolean daemon;
+    private final DispatcherSpi dispatcher = new SimpleDispatcher();
+    private final Map mailboxMap = new WeakHashMap(); //For sessions not extend AbstractSession
+    private final ThreadLocal currentWorker = new ThreadLocal();
+
+    private volatile Worker[] workers = new Worker[0];
+    private volatile int throughput = DEFAULT_THROUGHPUT;
+    private int pos = -1; //Round-robin position, not need to be exact
+
+    private final Object idleLock = new Object();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final AtomicInteger scheduledCount = new AtomicInteger();
+    private final AtomicLong dispatchedCount = new AtomicLong();
+    private final AtomicLong stealCount = new AtomicLong();
+
+    public WorkStealingDispatcher() {
+        this(true);
+    }
+
+    public WorkStealingDispatcher(boolean daemon) {
+        this(daemon, Runtime.getRuntime().availableProcessors());
+    }
+
+    public WorkStealingDispatcher(boolean daemon, int poolSize) {
+        this.daemon = daemon;
+        setThreadPoolSize(poolSize);
+    }
+
+    public void dispatch(Session session, Runnable runnable) {
+        SessionMailbox mailbox = SessionMailbox.get(this, session, mailboxMap);
+        if (mailbox.add(runnable))
+            schedule(mailbox);
+    }
+
+    /**
+     * Put the mailbox on a queue. Invoked by the one which set the
+     * scheduled flag of the mailbox.
+     */
+    private void schedule(SessionMailbox mailbox) {
+        scheduledCount.incrementAndGet();
+        Worker worker = (Worker) currentWorker.get();
+        if (worker == null || worker.stopped) {
+            Worker[] workers = this.workers;
+            if (workers.length == 0) { //No thread, run it in current thread
+                while (run(mailbox))
+                    ;
+                return;
+            }
+            pos = (pos + 1) % workers.length;
+            worker = workers[Math.abs(pos % workers.length)];
+        }
+        worker.queue.push(mailbox);
+        if (worker.stopped) { //Removed from the pool after chosen
+            synchronized (idleLock) {
+                if (worker.exited) {
+                    SessionMailbox left;
+                    while ((left = (SessionMailbox) worker.queue.pop()) != null) {
+                        scheduledCount.decrementAndGet();
+                        schedule(left);
+                    }
+                    return;
+                }
+            }
+        }
+        if (idleCount.get() > 0) {
+            synchronized (idleLock) {
+                idleLock.notify();
+            }
+        }
+    }
+
+    /**
+     * Run some events of the mailbox.
+     * 
+     * @return
+     * 		the mailbox is still scheduled and should be run again
+     */
+    private boolean run(SessionMailbox mailbox) {
+        int n = throughput;
+        for (int i = 0; i < n; i++) {
+            Runnable runnable = mailbox.poll();
+            if (runnable == null)
+                break;
+            dispatcher.dispatch(mailbox.getSession(), runnable);
+            dispatchedCount.incrementAndGet();
+        }
+        if (mailbox.unschedule()) {
+            scheduledCount.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    public int getThreadPoolSize() {
+        return workers.length;
+    }
+
+    public void setThreadPoolSize(int poolSize) {
+        if (poolSize < 0)
+            throw new IllegalArgumentException(
+                    "thread pool size can't be negative");
+        synchronized (idleLock) {
+            Worker[] workers = this.workers;
+            if (poolSize == workers.length)
+                return;
+            Worker[] newWorkers = new Worker[poolSize];
+            System.arraycopy(workers, 0, newWorkers, 0, Math.min(
+                    poolSize, workers.length));
+            for (int i = workers.length; i < poolSize; i++) {
+                newWorkers[i] = new Worker();
+                newWorkers[i].start();
+            }
+            for (int i = poolSize; i < workers.length; i++)
+                workers[i].stopped = true; //Exit after its queue is empty
+            this.workers = newWorkers;
+            idleLock.notifyAll();
+        }
+    }
+
+    public int getThroughput() {
+        return throughput;
+    }
+
+    public void setThroughput(int throughput) {
+        if (throughput <= 0)
+            throw new IllegalArgumentException("throughput must be positive");
+        this.throughput = throughput;
+    }
+
+    public int getScheduledSessionCount() {
+        return scheduledCount.get();
+    }
+
+    public long getDispatchedCount() {
+        return dispatchedCount.get();
+    }
+
+    public long getStealCount() {
+        return stealCount.get();
+    }
+
+    private class Worker extends Thread {
+
+        private final Queue queue = QueueFactory.createQueue();
+        private volatile boolean stopped;
+        private boolean exited; //guarded by idleLock
+
+        private Worker() {
+            setDaemon(daemon);
+            setName(Utils.getClassSimpleName(WorkStealingDispatcher.this
+                    .getClass())
+                    + "-" + ++i);
+        }
+
+        public void run() {
+            currentWorker.set(this);
+            while (true) {
+                SessionMailbox mailbox = take();
+                if (mailbox != null) {
+                    if (WorkStealingDispatcher.this.run(mailbox))
+                        queue.push(mailbox); //Turn to others, may be stolen
+                } else if (stopped) {
+                    synchronized (idleLock) {
+                        if (queue.isEmpty()) {
+                            exited = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        private SessionMailbox take() {
+            SessionMailbox mailbox = poll();
+            if (mailbox != null || stopped)
+                return mailbox;
+            synchronized (idleLock) {
+                idleCount.incrementAndGet();
+                try {
+                    mailbox = poll(); //Check again before waiting, the scheduler may missed us
+                    if (mailbox == null && !stopped)
+                        idleLock.wait();
+                } catch (InterruptedException e) {
+                } finally {
+                    idleCount.decrementAndGet();
+                }
+            }
+            return mailbox;
+        }
+
+        /**
+         * Get a mailbox from own queue, or steal one from others.
+         */
+        private SessionMailbox poll() {
+            SessionMailbox mailbox = (SessionMailbox) queue.pop();
+            if (mailbox != null || stopped)
+                return mailbox;
+            Worker[] workers = WorkStealingDispatcher.this.workers;
+            for (int i = 0; i < workers.length; i++) {
+                if (workers[i] == this)
+                    continue;
+                mailbox = (SessionMailbox) workers[i].queue.pop();
+                if (mailbox != null) {
+                    stealCount.incrementAndGet();
+                    return mailbox;
+                }
+            }
+            return null;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.impl;
+
+/**
+ * WorkStealingDispatcher MBean.
+ * 
+ * @author Roger Chen
+ */
+public interface WorkStealingDispatcherMBean {
+
+    public int getThreadPoolSize();
+
+    public void setThreadPoolSize(int poolSize);
+
+    /**
+     * Get max events run for one session before the thread turns to
+     * other sessions.
+     * 
+     * @return
+     * 		throughput
+     */
+    public int getThroughput();
+
+    public void setThroughput(int throughput);
+
+    /**
+     * Get count of sessions which have events waiting to be run.
+     * 
+     * @return
+     * 		scheduled session count
+     */
+    public int getScheduledSessionCount();
+
+    public long getDispatchedCount();
+
+    /**
+     * Get count of sessions taken from the queue of another thread.
+     * 
+     * @return
+     * 		steal count
+     */
+    public long getStealCount();
+
+}
\ No newline at end of file
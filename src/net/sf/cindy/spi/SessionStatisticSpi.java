@@ -40,6 +40,14 @@ public interface SessionStatisticSpi extends SessionStatistic {
      */
     public void sent(long bytes);
 
+    /**
+     * A message have been sent.
+     * 
+     * @param queueTime
+     * 		time the message stayed in the write queue, in nanosecond
+     */
+    public void messageSent(long queueTime);
+
     /**
      * Start statistic.
      */
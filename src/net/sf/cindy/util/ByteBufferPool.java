@@ -0,0 +1,482 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-classed ByteBuffer pool. Capacities are rounded up to a power of two
+ * size class, heap and direct buffers are kept in separate arenas. A
+ * long-lived thread which invoked {@link #useThreadCache()}, such as an
+ * event generator thread, keeps a small cache per size class in front of
+ * the shared arenas, so it seldom touches the arena locks. Other threads
+ * use the arenas directly.
+ * <p>
+ * Buffers larger than the max capacity are allocated and dropped as usual.
+ * A released buffer must not be used any more. The pool remembers the
+ * buffers it created, a buffer which is released twice or not allocated by
+ * the pool is not pooled. The caches and arenas hold the entries of the
+ * buffers, which keep whether the buffer is idle, so allocate and release
+ * change it without lock. The registry lock is only taken when the pool
+ * creates a buffer.
+ *
+ * <pre>
+ *
+ *      allocate/release
+ *             |
+ *             v
+ *     +---------------+   +---------------+
+ *     | thread cache  |   | thread cache  |  ...
+ *     +-------+-------+   +-------+-------+
+ *             |                   |
+ *             v                   v
+ *     +-----------------------------------+
+ *     | heap arena     512 1K 2K ... max  |
+ *     | direct arena   512 1K 2K ... max  |
+ *     +-----------------------------------+
+ *
+ * </pre>
+ *
+ * @author Roger Chen
+ */
+public class ByteBufferPool implements ByteBufferPoolMBean {
+
+    private static final int MIN_CAPACITY = 512;
+    private static final int REGISTRY_STRIPES = 16;
+
+    private final int maxCapacity;
+    private final int threadCacheSize;
+    private final Arena heapArena;
+    private final Arena directArena;
+    private final Registry[] registries = new Registry[REGISTRY_STRIPES];
+
+    private final ThreadLocal threadCache = new ThreadLocal(); //null if the thread not use cache
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong unpooledCount = new AtomicLong();
+    private final AtomicLong bytesHeld = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * Create a buffer pool.
+     *
+     * @param maxCapacity
+     * 		the largest pooled capacity, rounded up to a power of two
+     * @param arenaSize
+     * 		max buffers kept per size class in each arena
+     * @param threadCacheSize
+     * 		max buffers kept per size class in each thread cache
+     */
+    public ByteBufferPool(int maxCapacity, int arenaSize, int threadCacheSize) {
+        int capacity = MIN_CAPACITY;
+        int classCount = 1;
+        while (capacity < maxCapacity) {
+            capacity <<= 1;
+            classCount++;
+        }
+        this.maxCapacity = capacity;
+        this.threadCacheSize = Math.max(threadCacheSize, 0);
+        this.heapArena = new Arena(classCount, Math.max(arenaSize, 0));
+        this.directArena = new Arena(classCount, Math.max(arenaSize, 0));
+        for (int i = 0; i < registries.length; i++)
+            registries[i] = new Registry();
+    }
+
+    private Registry registry(ByteBuffer buffer) {
+        return registries[System.identityHashCode(buffer)
+                & (REGISTRY_STRIPES - 1)];
+    }
+
+    private static int sizeClass(int capacity) {
+        int index = 0;
+        int size = MIN_CAPACITY;
+        while (size < capacity) {
+            size <<= 1;
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Allocate a cleared ByteBuffer. The capacity of the buffer may be larger
+     * than the required capacity, and its limit is set to its capacity.
+     *
+     * @param capacity
+     * 		required capacity
+     * @param direct
+     * 		allocate DirectByteBuffer
+     * @return
+     * 		allocated ByteBuffer
+     * @throws IllegalArgumentException
+     * 		if capacity is negative
+     */
+    public ByteBuffer allocate(int capacity, boolean direct)
+            throws IllegalArgumentException {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity can't be negative");
+        if (capacity > maxCapacity) {
+            unpooledCount.incrementAndGet();
+            return ByteBufferUtils.allocate(capacity, direct);
+        }
+
+        int index = sizeClass(capacity);
+        ThreadCache cache = (ThreadCache) threadCache.get();
+        Entry entry = cache == null ? null : cache.pop(direct, index);
+        if (entry == null)
+            entry = (direct ? directArena : heapArena).pop(index);
+        if (entry != null) {
+            ByteBuffer buffer = entry.pooled;
+            entry.pooled = null;
+            entry.idle.set(false);
+            hitCount.incrementAndGet();
+            bytesHeld.addAndGet(-buffer.capacity());
+            return buffer;
+        }
+        missCount.incrementAndGet();
+        ByteBuffer buffer = ByteBufferUtils.allocate(MIN_CAPACITY << index,
+                direct);
+        registry(buffer).add(buffer);
+        return buffer;
+    }
+
+    /**
+     * Return the ByteBuffer to the pool. Buffers which are not allocated by
+     * the pool, have been released, or larger than the max capacity will be
+     * dropped.
+     *
+     * @param buffer
+     * 		the ByteBuffer, can be null
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.isReadOnly())
+            return;
+        int capacity = buffer.capacity();
+        if (capacity > maxCapacity || capacity < MIN_CAPACITY
+                || (capacity & (capacity - 1)) != 0)
+            return;
+        Entry entry = registry(buffer).find(buffer);
+        if (entry == null || !entry.idle.compareAndSet(false, true)) {
+            rejectedCount.incrementAndGet();
+            return;
+        }
+
+        buffer.clear();
+        entry.pooled = buffer;
+        int index = sizeClass(capacity);
+        boolean direct = buffer.isDirect();
+        ThreadCache cache = (ThreadCache) threadCache.get();
+        if ((cache != null && cache.push(direct, index, entry))
+                || (direct ? directArena : heapArena).push(index, entry))
+            bytesHeld.addAndGet(capacity);
+        else
+            entry.pooled = null; //Dropped
+    }
+
+    /**
+     * Increase ByteBuffer's capacity, the content before the position is
+     * copied to the new buffer, and the old buffer is released.
+     *
+     * @param buffer
+     * 		the ByteBuffer want to increase capacity
+     * @param size
+     * 		increased size
+     * @return
+     * 		increased capacity ByteBuffer
+     * @throws IllegalArgumentException
+     * 		if size less than 0 or buffer is null
+     */
+    public ByteBuffer increaseCapacity(ByteBuffer buffer, int size)
+            throws IllegalArgumentException {
+        if (buffer == null)
+            throw new IllegalArgumentException("buffer is null");
+        if (size < 0)
+            throw new IllegalArgumentException("size less than 0");
+
+        ByteBuffer result = allocate(buffer.capacity() + size, buffer
+                .isDirect());
+        buffer.flip();
+        result.put(buffer);
+        release(buffer);
+        return result;
+    }
+
+    /**
+     * Let current thread keep a cache of the buffers it released. The
+     * thread must invoke {@link #releaseThreadCache()} before it exits,
+     * otherwise the cached buffers are lost with the thread while counted
+     * as held. Short-lived threads should not use cache.
+     */
+    public void useThreadCache() {
+        if (threadCacheSize > 0 && threadCache.get() == null)
+            threadCache.set(new ThreadCache());
+    }
+
+    /**
+     * Move the buffers cached by current thread to the shared arenas, and
+     * stop using cache.
+     */
+    public void releaseThreadCache() {
+        ThreadCache cache = (ThreadCache) threadCache.get();
+        if (cache == null)
+            return;
+        threadCache.remove();
+        long dropped = cache.flush(heapArena, false)
+                + cache.flush(directArena, true);
+        if (dropped > 0)
+            bytesHeld.addAndGet(-dropped);
+    }
+
+    /**
+     * Drop all buffers in the shared arenas.
+     */
+    public void clear() {
+        bytesHeld.addAndGet(-(heapArena.clear() + directArena.clear()));
+    }
+
+    public int getMaxCapacity() {
+        return maxCapacity;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getUnpooledCount() {
+        return unpooledCount.get();
+    }
+
+    public long getBytesHeld() {
+        return bytesHeld.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    private class ThreadCache {
+
+        private final Entry[][] heap = new Entry[heapArena.stacks.length][];
+        private final Entry[][] direct = new Entry[directArena.stacks.length][];
+        private final int[] heapCount = new int[heap.length];
+        private final int[] directCount = new int[direct.length];
+
+        private Entry pop(boolean isDirect, int index) {
+            int[] count = isDirect ? directCount : heapCount;
+            if (count[index] == 0)
+                return null;
+            Entry[] stack = (isDirect ? direct : heap)[index];
+            Entry entry = stack[--count[index]];
+            stack[count[index]] = null;
+            return entry;
+        }
+
+        private boolean push(boolean isDirect, int index, Entry entry) {
+            Entry[][] stacks = isDirect ? direct : heap;
+            int[] count = isDirect ? directCount : heapCount;
+            if (stacks[index] == null)
+                stacks[index] = new Entry[threadCacheSize];
+            if (count[index] == threadCacheSize)
+                return false;
+            stacks[index][count[index]++] = entry;
+            return true;
+        }
+
+        /**
+         * @return dropped bytes
+         */
+        private long flush(Arena arena, boolean isDirect) {
+            long dropped = 0;
+            Entry[][] stacks = isDirect ? direct : heap;
+            for (int i = 0; i < stacks.length; i++) {
+                Entry entry;
+                while ((entry = pop(isDirect, i)) != null) {
+                    if (!arena.push(i, entry))
+                        dropped += entry.drop();
+                }
+            }
+            return dropped;
+        }
+    }
+
+    private static class Arena {
+
+        private final Stack[] stacks;
+
+        private Arena(int classCount, int arenaSize) {
+            stacks = new Stack[classCount];
+            for (int i = 0; i < classCount; i++)
+                stacks[i] = new Stack(arenaSize);
+        }
+
+        private Entry pop(int index) {
+            return stacks[index].pop();
+        }
+
+        private boolean push(int index, Entry entry) {
+            return stacks[index].push(entry);
+        }
+
+        /**
+         * @return dropped bytes
+         */
+        private long clear() {
+            long dropped = 0;
+            for (int i = 0; i < stacks.length; i++) {
+                Entry entry;
+                while ((entry = stacks[i].pop()) != null)
+                    dropped += entry.drop();
+            }
+            return dropped;
+        }
+    }
+
+    /**
+     * Identity table of the buffers created by the pool. The buffers are
+     * weakly referenced, so a buffer which is never released is collected as
+     * usual. The chains are immutable and replaced under the lock, so
+     * {@link #find(ByteBuffer)} doesn't lock.
+     */
+    private static class Registry {
+
+        private final ReferenceQueue queue = new ReferenceQueue();
+        private volatile Node[] table = new Node[64];
+        private int size;
+
+        private synchronized void add(ByteBuffer buffer) {
+            expunge();
+            Node[] table = this.table;
+            if (size >= table.length * 3 / 4)
+                table = resize(table);
+            int hash = System.identityHashCode(buffer);
+            int index = hash & (table.length - 1);
+            table[index] = new Node(new Entry(buffer, hash, queue),
+                    table[index]);
+            size++;
+            this.table = table;
+        }
+
+        /**
+         * @return null if the buffer is not created by the pool
+         */
+        private Entry find(ByteBuffer buffer) {
+            Node[] table = this.table;
+            int hash = System.identityHashCode(buffer);
+            for (Node node = table[hash & (table.length - 1)]; node != null; node = node.next) {
+                if (node.entry.get() == buffer)
+                    return node.entry;
+            }
+            return null;
+        }
+
+        private void expunge() {
+            Node[] table = this.table;
+            Entry collected;
+            while ((collected = (Entry) queue.poll()) != null) {
+                int index = collected.hash & (table.length - 1);
+                Node head = table[index];
+                for (Node node = head; node != null; node = node.next) {
+                    if (node.entry == collected) {
+                        Node chain = node.next;
+                        for (Node n = head; n != node; n = n.next)
+                            chain = new Node(n.entry, chain); //Copy the nodes before it
+                        table[index] = chain;
+                        size--;
+                        break;
+                    }
+                }
+            }
+        }
+
+        private Node[] resize(Node[] oldTable) {
+            Node[] table = new Node[oldTable.length << 1];
+            for (int i = 0; i < oldTable.length; i++) {
+                for (Node node = oldTable[i]; node != null; node = node.next) {
+                    int index = node.entry.hash & (table.length - 1);
+                    table[index] = new Node(node.entry, table[index]);
+                }
+            }
+            return table;
+        }
+    }
+
+    private static class Node {
+
+        private final Entry entry;
+        private final Node next;
+
+        private Node(Entry entry, Node next) {
+            this.entry = entry;
+            this.next = next;
+        }
+    }
+
+    private static class Entry extends WeakReference {
+
+        private final int hash;
+        private final AtomicBoolean idle = new AtomicBoolean();
+        private ByteBuffer pooled; //Strong reference while kept by the pool
+
+        private Entry(ByteBuffer buffer, int hash, ReferenceQueue queue) {
+            super(buffer, queue);
+            this.hash = hash;
+        }
+
+        /**
+         * Let the pooled buffer be collected, it stays idle.
+         *
+         * @return dropped bytes
+         */
+        private int drop() {
+            int capacity = pooled.capacity();
+            pooled = null;
+            return capacity;
+        }
+    }
+
+    private static class Stack {
+
+        private final Entry[] entries;
+        private int count;
+
+        private Stack(int size) {
+            entries = new Entry[size];
+        }
+
+        private synchronized Entry pop() {
+            if (count == 0)
+                return null;
+            Entry entry = entries[--count];
+            entries[count] = null;
+            return entry;
+        }
+
+        private synchronized boolean push(Entry entry) {
+            if (count == entries.length)
+                return false;
+            entries[count++] = entry;
+            return true;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.util;
+
+/**
+ * ByteBufferPool MBean.
+ *
+ * @author Roger Chen
+ */
+public interface ByteBufferPoolMBean {
+
+    /**
+     * Get the largest pooled capacity.
+     *
+     * @return
+     * 		max capacity
+     */
+    int getMaxCapacity();
+
+    /**
+     * Get count of allocations served by a pooled buffer.
+     *
+     * @return
+     * 		hit count
+     */
+    long getHitCount();
+
+    /**
+     * Get count of allocations which allocated a new pooled size buffer.
+     *
+     * @return
+     * 		miss count
+     */
+    long getMissCount();
+
+    /**
+     * Get count of allocations larger than the max capacity.
+     *
+     * @return
+     * 		unpooled count
+     */
+    long getUnpooledCount();
+
+    /**
+     * Get bytes of the idle buffers held by the pool.
+     *
+     * @return
+     * 		bytes held
+     */
+    long getBytesHeld();
+
+    /**
+     * Get count of released buffers which were not pooled, because they
+     * have been released or were not allocated by the pool.
+     *
+     * @return
+     * 		rejected count
+     */
+    long getRejectedCount();
+
+    /**
+     * Drop all buffers in the shared arenas.
+     */
+    void clear();
+
+}
\ No newline at end of file
@@ -114,6 +114,25 @@ public class ByteBufferUtils {
         return false;
     }
 
+    /**
+     * Get remaining bytes of ByteBuffers.
+     * 
+     * @param buffers
+     * 		ByteBuffers
+     * @return
+     * 		remaining bytes
+     */
+    public static long remaining(ByteBuffer[] buffers) {
+        long remaining = 0;
+        if (buffers != null) {
+            for (int i = 0; i < buffers.length; i++) {
+                if (buffers[i] != null)
+                    remaining += buffers[i].remaining();
+            }
+        }
+        return remaining;
+    }
+
     /**
      * Returns the index within this buffer of the first occurrence of the
      * specified pattern buffer.
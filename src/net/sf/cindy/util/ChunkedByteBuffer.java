@@ -0,0 +1,332 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read buffer made of a list of pooled chunks. Reads append to the last
+ * chunk, or to a new chunk when it is full, so received bytes are never
+ * moved to make room. Parsers read through a cursor: offsets are relative
+ * to the first unconsumed byte, and a frame may span chunks. Consumed
+ * chunks are returned to the pool.
+ * 
+ * <pre>
+ * 
+ *      consumed   cursor                                 
+ *         |         |                                    
+ *     +---+---------v--+  +----------------+  +--------+-------+
+ *     | released  |    |  |     chunk      |  |        | room  |
+ *     +-----------+----+  +----------------+  +--------+-------+
+ *                 &lt;----------- remaining -----------&gt;         
+ * 
+ * </pre>
+ * 
+ * Only a frame which spans chunks and must be seen as one ByteBuffer is
+ * copied, see {@link #getContiguous(int)}. Not thread-safe.
+ * 
+ * @author Roger Chen
+ */
+public final class ChunkedByteBuffer {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final ByteBufferPool pool; //null if chunks are not pooled
+    private final int chunkCapacity;
+    private final boolean direct;
+
+    /*
+     * Chunks are in read mode, bytes between position and limit are
+     * unconsumed, the last chunk is written between limit and capacity.
+     */
+    private ByteBuffer[] chunks = new ByteBuffer[4];
+    private int count;
+    private int remaining;
+
+    //Locate cache, the chunk which contains the last located offset
+    private int cachedChunk;
+    private int cachedBase;
+
+    /**
+     * Create a chunked buffer.
+     * 
+     * @param pool
+     * 		the pool which chunks are borrowed from
+     * @param chunkCapacity
+     * 		capacity of a chunk
+     * @param direct
+     * 		use direct chunks
+     */
+    public ChunkedByteBuffer(ByteBufferPool pool, int chunkCapacity,
+            boolean direct) {
+        if (pool == null)
+            throw new IllegalArgumentException("pool is null");
+        this.pool = pool;
+        this.chunkCapacity = Math.max(chunkCapacity, 1);
+        this.direct = direct;
+    }
+
+    private ChunkedByteBuffer(ByteBuffer buffer) {
+        this.pool = null;
+        this.chunkCapacity = 0;
+        this.direct = false;
+        if (buffer.hasRemaining()) {
+            chunks[0] = buffer;
+            count = 1;
+            remaining = buffer.remaining();
+        }
+    }
+
+    /**
+     * Wrap the ByteBuffer as a single chunk, so a parser written for the
+     * cursor can read a ByteBuffer. The chunked buffer shares the position
+     * of the ByteBuffer, and can't be written.
+     * 
+     * @param buffer
+     * 		the ByteBuffer
+     * @return
+     * 		the chunked buffer
+     */
+    public static ChunkedByteBuffer wrap(ByteBuffer buffer) {
+        return new ChunkedByteBuffer(buffer);
+    }
+
+    /**
+     * Get the count of unconsumed bytes.
+     * 
+     * @return
+     * 		remaining bytes
+     */
+    public int remaining() {
+        return remaining;
+    }
+
+    /**
+     * Get the byte at the offset from the cursor. Sequential access is
+     * O(1).
+     * 
+     * @param offset
+     * 		offset from the cursor
+     * @return
+     * 		the byte
+     * @throws IndexOutOfBoundsException
+     * 		if the offset is negative or not less than remaining
+     */
+    public byte get(int offset) throws IndexOutOfBoundsException {
+        if (offset < 0 || offset >= remaining)
+            throw new IndexOutOfBoundsException();
+        int i = 0;
+        int base = 0;
+        if (offset >= cachedBase && cachedChunk < count) {
+            i = cachedChunk;
+            base = cachedBase;
+        }
+        while (offset - base >= chunks[i].remaining()) {
+            base += chunks[i].remaining();
+            i++;
+        }
+        cachedChunk = i;
+        cachedBase = base;
+        ByteBuffer chunk = chunks[i];
+        return chunk.get(chunk.position() + offset - base);
+    }
+
+    /**
+     * Find the pattern from the offset.
+     * 
+     * @param pattern
+     * 		the pattern
+     * @param fromOffset
+     * 		offset from the cursor to start searching
+     * @return
+     * 		the offset of the first occurrence, -1 if not found
+     */
+    public int indexOf(byte[] pattern, int fromOffset) {
+        int last = remaining - pattern.length;
+        Label: for (int i = Math.max(fromOffset, 0); i <= last; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (get(i + j) != pattern[j])
+                    continue Label;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Consume bytes, chunks consumed completely are returned to the pool.
+     * 
+     * @param length
+     * 		byte count
+     * @throws IllegalArgumentException
+     * 		if length is negative or larger than remaining
+     */
+    public void skip(int length) throws IllegalArgumentException {
+        if (length < 0 || length > remaining)
+            throw new IllegalArgumentException("illegal length " + length);
+        remaining -= length;
+        resetCache();
+        while (length > 0) {
+            ByteBuffer chunk = chunks[0];
+            int n = Math.min(length, chunk.remaining());
+            chunk.position(chunk.position() + n);
+            length -= n;
+            if (!chunk.hasRemaining()) //The last chunk is released too, idle sessions hold no chunk
+                removeFirst();
+        }
+    }
+
+    /**
+     * Get the next bytes as one ByteBuffer, without consuming them. If they
+     * are in the first chunk, a view of the chunk is returned. Otherwise
+     * they are copied to a new chunk which replaces the chunks they were
+     * in, so each spanning frame is copied only once.
+     * <p>
+     * The returned buffer is valid until the bytes are consumed or the
+     * buffer is written.
+     * 
+     * @param length
+     * 		byte count
+     * @return
+     * 		the bytes
+     * @throws IllegalArgumentException
+     * 		if length is negative or larger than remaining
+     */
+    public ByteBuffer getContiguous(int length)
+            throws IllegalArgumentException {
+        if (length < 0 || length > remaining)
+            throw new IllegalArgumentException("illegal length " + length);
+        if (length == 0)
+            return EMPTY;
+        if (chunks[0].remaining() < length)
+            merge(length);
+        ByteBuffer view = chunks[0].duplicate();
+        view.limit(view.position() + length);
+        return view;
+    }
+
+    private void merge(int length) {
+        if (pool == null)
+            throw new IllegalStateException("can't merge wrapped buffer");
+        ByteBuffer merged = pool.allocate(Math.max(length, chunkCapacity),
+                direct);
+        int n = length;
+        while (n > 0) {
+            ByteBuffer chunk = chunks[0];
+            int take = Math.min(n, chunk.remaining());
+            int limit = chunk.limit();
+            chunk.limit(chunk.position() + take);
+            merged.put(chunk);
+            chunk.limit(limit);
+            n -= take;
+            if (chunk.hasRemaining())
+                break;
+            removeFirst();
+        }
+        merged.flip();
+        addFirst(merged);
+        resetCache();
+    }
+
+    /**
+     * Get a view of the free room of the last chunk, a new chunk is
+     * borrowed if it is full. Write to the view, then {@link #commit commit}
+     * it before any other operation.
+     * 
+     * @return
+     * 		the writable view
+     */
+    public ByteBuffer getWritableBuffer() {
+        if (pool == null)
+            throw new IllegalStateException("can't write wrapped buffer");
+        ByteBuffer last = count == 0 ? null : chunks[count - 1];
+        if (last == null || last.limit() == last.capacity()) {
+            last = pool.allocate(chunkCapacity, direct);
+            last.limit(0);
+            addLast(last);
+        }
+        ByteBuffer view = last.duplicate();
+        view.position(last.limit());
+        view.limit(last.capacity());
+        return view;
+    }
+
+    /**
+     * Append the bytes written to the view.
+     * 
+     * @param view
+     * 		the view returned by getWritableBuffer
+     */
+    public void commit(ByteBuffer view) {
+        ByteBuffer last = chunks[count - 1];
+        remaining += view.position() - last.limit();
+        last.limit(view.position());
+    }
+
+    /**
+     * Discard all bytes and return all chunks to the pool.
+     */
+    public void clear() {
+        while (count > 0)
+            removeFirst();
+        remaining = 0;
+        resetCache();
+    }
+
+    /**
+     * Get the count of chunks.
+     * 
+     * @return
+     * 		chunk count
+     */
+    public int getChunkCount() {
+        return count;
+    }
+
+    private void resetCache() {
+        cachedChunk = 0;
+        cachedBase = 0;
+    }
+
+    private void removeFirst() {
+        ByteBuffer chunk = chunks[0];
+        count--;
+        System.arraycopy(chunks, 1, chunks, 0, count);
+        chunks[count] = null;
+        if (pool != null)
+            pool.release(chunk);
+    }
+
+    private void addFirst(ByteBuffer chunk) {
+        ensureCapacity();
+        System.arraycopy(chunks, 0, chunks, 1, count);
+        chunks[0] = chunk;
+        count++;
+    }
+
+    private void addLast(ByteBuffer chunk) {
+        ensureCapacity();
+        chunks[count++] = chunk;
+    }
+
+    private void ensureCapacity() {
+        if (count == chunks.length) {
+            ByteBuffer[] newChunks = new ByteBuffer[chunks.length * 2];
+            System.arraycopy(chunks, 0, newChunks, 0, count);
+            chunks = newChunks;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram with power of two buckets. Bucket 0 counts 0, bucket
+ * i counts values from 2^(i-1) to 2^i - 1, so percentiles are accurate to
+ * a factor of two, which is enough to tell a 1K read from a 64K read, or a
+ * 10us queue wait from a 10ms one.
+ * <p>
+ * Buckets are striped like {@link StripedCounter}, a histogram shared by
+ * many threads should use more stripes.
+ * 
+ * @author Roger Chen
+ */
+public final class Histogram {
+
+    private static final int BUCKET_COUNT = 48;
+
+    private final AtomicLongArray buckets;
+    private final int mask;
+    private final StripedCounter sum;
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Create a histogram.
+     * 
+     * @param stripes
+     * 		stripe count, rounded up to a power of two
+     */
+    public Histogram(int stripes) {
+        int n = 1;
+        while (n < stripes)
+            n <<= 1;
+        mask = n - 1;
+        buckets = new AtomicLongArray(n * BUCKET_COUNT);
+        sum = new StripedCounter(n);
+    }
+
+    private static int bucket(long value) {
+        if (value <= 0)
+            return 0;
+        return Math.min(64 - Long.numberOfLeadingZeros(value),
+                BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Record a value, negative value is recorded as 0.
+     * 
+     * @param value
+     * 		the value
+     */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        int stripe = mask == 0 ? 0
+                : ((int) Thread.currentThread().getId() & mask) * BUCKET_COUNT;
+        buckets.incrementAndGet(stripe + bucket(value));
+        sum.add(value);
+        long m;
+        while (value > (m = max.get()))
+            if (max.compareAndSet(m, value))
+                break;
+    }
+
+    /**
+     * Get the count of values in each bucket.
+     * 
+     * @return
+     * 		bucket counts
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < buckets.length(); i++)
+            counts[i % BUCKET_COUNT] += buckets.get(i);
+        return counts;
+    }
+
+    /**
+     * Get the largest value of the bucket.
+     * 
+     * @param bucket
+     * 		bucket index
+     * @return
+     * 		upper bound
+     */
+    public static long getBucketUpperBound(int bucket) {
+        if (bucket <= 0)
+            return 0;
+        if (bucket >= BUCKET_COUNT - 1)
+            return Long.MAX_VALUE;
+        return (1L << bucket) - 1;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < buckets.length(); i++)
+            count += buckets.get(i);
+        return count;
+    }
+
+    public long getSum() {
+        return sum.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+    /**
+     * Get the value which the given percent of values are less than or
+     * equal to, approximated by the upper bound of its bucket.
+     * 
+     * @param percentile
+     * 		percentile, from 0 to 100
+     * @return
+     * 		the value, 0 if empty
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = getBucketCounts();
+        long count = 0;
+        for (int i = 0; i < counts.length; i++)
+            count += counts[i];
+        if (count == 0)
+            return 0;
+        long rank = (long) Math.ceil(count * Math.min(percentile, 100) / 100);
+        if (rank < 1)
+            rank = 1;
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(getBucketUpperBound(i), getMax());
+        }
+        return getMax();
+    }
+
+    /**
+     * Reset all values. Values recorded concurrently may be partly kept.
+     */
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++)
+            buckets.set(i, 0);
+        sum.reset();
+        max.set(0);
+    }
+
+    public String toString() {
+        return "count=" + getCount() + ", mean=" + (long) getMean()
+                + ", p50=" + getPercentile(50) + ", p99="
+                + getPercentile(99) + ", max=" + getMax();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free rate meter, such as received bytes per second. The current
+ * rate is an exponentially weighted moving average updated once per tick,
+ * the first thread which marks a value after a tick passed computes it,
+ * other threads only add to a striped counter.
+ * <p>
+ * Unlike {@link Speed}, no monitor is taken when marking a value.
+ * 
+ * @author Roger Chen
+ */
+public final class Meter {
+
+    private static final long TICK_INTERVAL = 1000000000L; //1s, in nanosecond
+
+    private final StripedCounter total;
+    private final StripedCounter uncounted; //marked since last tick
+    private final double alpha;
+
+    private final AtomicLong lastTick = new AtomicLong();
+    private volatile long startTime;
+    private volatile double rate; //per second
+    private volatile boolean initialized;
+
+    /**
+     * Create a meter, the rate is averaged over about 5 seconds.
+     * 
+     * @param stripes
+     * 		stripe count of the counters, 1 if the meter is seldom updated
+     * by several threads at the same time
+     */
+    public Meter(int stripes) {
+        this(stripes, 5);
+    }
+
+    /**
+     * Create a meter.
+     * 
+     * @param stripes
+     * 		stripe count of the counters
+     * @param period
+     * 		the period the rate is averaged over, in second
+     */
+    public Meter(int stripes, int period) {
+        total = new StripedCounter(stripes);
+        uncounted = new StripedCounter(stripes);
+        alpha = 1 - Math.exp(-1.0 / Math.max(period, 1));
+        reset();
+    }
+
+    /**
+     * Reset all values.
+     */
+    public void reset() {
+        long now = System.nanoTime();
+        total.reset();
+        uncounted.reset();
+        rate = 0;
+        initialized = false;
+        startTime = now;
+        lastTick.set(now);
+    }
+
+    /**
+     * Mark value, such as received bytes.
+     * 
+     * @param value
+     * 		the value
+     */
+    public void mark(long value) {
+        tickIfNecessary();
+        total.add(value);
+        uncounted.add(value);
+    }
+
+    private void tickIfNecessary() {
+        long oldTick = lastTick.get();
+        long age = System.nanoTime() - oldTick;
+        if (age < TICK_INTERVAL)
+            return;
+        long ticks = age / TICK_INTERVAL;
+        if (!lastTick.compareAndSet(oldTick, oldTick + ticks
+                * TICK_INTERVAL))
+            return; //Another thread ticks
+        double instantRate = (double) uncounted.getAndReset() * 1000000000L
+                / TICK_INTERVAL;
+        double r;
+        if (initialized)
+            r = rate + alpha * (instantRate - rate);
+        else {
+            r = instantRate;
+            initialized = true;
+        }
+        if (ticks > 1) //Idle ticks
+            r *= Math.pow(1 - alpha, ticks - 1);
+        rate = r;
+    }
+
+    /**
+     * Get total value.
+     * 
+     * @return
+     * 		total value
+     */
+    public long getTotalValue() {
+        return total.get();
+    }
+
+    /**
+     * Get elapsed time after created or reset, in millisecond.
+     * 
+     * @return
+     * 		elapsed time
+     */
+    public long getElapsedTime() {
+        return (System.nanoTime() - startTime) / 1000000;
+    }
+
+    /**
+     * Get average rate since created or reset, in unit/s.
+     * 
+     * @return
+     * 		average rate
+     */
+    public double getAvgRate() {
+        long elapsedTime = System.nanoTime() - startTime;
+        if (elapsedTime <= 0)
+            return 0;
+        return (double) total.get() * 1000000000L / elapsedTime;
+    }
+
+    /**
+     * Get current rate, in unit/s.
+     * 
+     * @return
+     * 		current rate
+     */
+    public double getRate() {
+        tickIfNecessary();
+        return rate;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free counter split into stripes. Each thread adds to the stripe
+ * chosen by its id, and each stripe lives on its own cache line, so
+ * threads which update the counter at the same time rarely contend. The
+ * value is the sum of all stripes.
+ * 
+ * @author Roger Chen
+ */
+public final class StripedCounter {
+
+    private static final int PADDING = 8; //Longs per cache line
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    /**
+     * Create a counter with one stripe per processor.
+     */
+    public StripedCounter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a counter.
+     * 
+     * @param stripes
+     * 		stripe count, rounded up to a power of two
+     */
+    public StripedCounter(int stripes) {
+        int n = 1;
+        while (n < stripes)
+            n <<= 1;
+        mask = n - 1;
+        cells = new AtomicLongArray(n == 1 ? 1 : n * PADDING);
+    }
+
+    private int index() {
+        if (mask == 0)
+            return 0;
+        return ((int) Thread.currentThread().getId() & mask) * PADDING;
+    }
+
+    /**
+     * Add value.
+     * 
+     * @param value
+     * 		the value
+     */
+    public void add(long value) {
+        cells.addAndGet(index(), value);
+    }
+
+    /**
+     * Get the sum of all stripes. Not an atomic snapshot if the counter is
+     * updated concurrently.
+     * 
+     * @return
+     * 		the value
+     */
+    public long get() {
+        if (mask == 0)
+            return cells.get(0);
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PADDING)
+            sum += cells.get(i);
+        return sum;
+    }
+
+    /**
+     * Get the value and reset it to 0. Values added concurrently are
+     * either returned or kept, never lost.
+     * 
+     * @return
+     * 		the value before reset
+     */
+    public long getAndReset() {
+        if (mask == 0)
+            return cells.getAndSet(0, 0);
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PADDING)
+            sum += cells.getAndSet(i, 0);
+        return sum;
+    }
+
+    /**
+     * Reset the value to 0.
+     */
+    public void reset() {
+        getAndReset();
+    }
+
+    public String toString() {
+        return String.valueOf(get());
+    }
+}
\ No newline at end of file
@@ -15,6 +15,8 @@
  */
 package net.sf.cindy.util;
 
+import java.lang.reflect.Method;
+
 /**
  * Miscellaneous utils. 
  * 
@@ -22,6 +24,28 @@ package net.sf.cindy.util;
  */
 public class Utils {
 
+    /**
+     * Thread.ofVirtual(), Thread.Builder.name(String) and
+     * Thread.Builder.unstarted(Runnable), null if virtual thread is not
+     * supported.
+     */
+    private static final Method[] VIRTUAL_THREAD_METHODS;
+
+    static {
+        Method[] methods = null;
+        try {
+            Class builderClass = Class.forName("java.lang.Thread$Builder");
+            methods = new Method[] {
+                    Thread.class.getMethod("ofVirtual", new Class[0]),
+                    builderClass.getMethod("name",
+                            new Class[] { String.class }),
+                    builderClass.getMethod("unstarted",
+                            new Class[] { Runnable.class }) };
+        } catch (Exception e) { //Before JDK 21
+        }
+        VIRTUAL_THREAD_METHODS = methods;
+    }
+
     private Utils() {
     }
 
@@ -75,4 +99,43 @@ public class Utils {
             return false;
         }
     }
+
+    /**
+     * Is virtual thread supported, virtual thread was introduced in JDK 21.
+     * 
+     * @return
+     * 		is virtual thread supported
+     */
+    public static boolean isSupportVirtualThread() {
+        return VIRTUAL_THREAD_METHODS != null;
+    }
+
+    /**
+     * Create a new unstarted thread.
+     * 
+     * @param runnable
+     * 		the thread body
+     * @param name
+     * 		thread name
+     * @param virtual
+     * 		create virtual thread if supported, otherwise create platform
+     * thread
+     * @return
+     * 		the thread
+     */
+    public static Thread newThread(Runnable runnable, String name,
+            boolean virtual) {
+        if (virtual && VIRTUAL_THREAD_METHODS != null) {
+            try {
+                Object builder = VIRTUAL_THREAD_METHODS[0].invoke(null,
+                        new Object[0]);
+                builder = VIRTUAL_THREAD_METHODS[1].invoke(builder,
+                        new Object[] { name });
+                return (Thread) VIRTUAL_THREAD_METHODS[2].invoke(builder,
+                        new Object[] { runnable });
+            } catch (Exception e) { //Fall back to platform thread
+            }
+        }
+        return new Thread(runnable, name);
+    }
 }
\ No newline at end of file
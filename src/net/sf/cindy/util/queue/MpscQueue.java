@@ -0,0 +1,118 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.util.queue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free multi-producer single-consumer queue. Producers swap the tail
+ * node, the consumer walks from a stub head node. The element count is
+ * kept by an atomic counter which is increased after the node is linked
+ * and decreased after the node is unlinked, so the 0 -&gt; 1 transition
+ * seen by a producer always means the consumer have finished a drain.
+ * <p>
+ * A producer links the node in two steps (swap tail, then set next), the
+ * consumer spins over the short window between them instead of reporting
+ * an empty queue.
+ *
+ * @author Roger Chen
+ */
+class MpscQueue implements SingleConsumerQueue {
+
+    private final AtomicReference tail;
+    private final AtomicInteger count = new AtomicInteger();
+
+    private volatile Node head; //Only changed by consumer
+
+    public MpscQueue() {
+        head = new Node(null);
+        tail = new AtomicReference(head);
+    }
+
+    public void push(Object obj) {
+        offer(obj);
+    }
+
+    public boolean offer(Object obj) {
+        if (obj == null)
+            return false;
+        Node node = new Node(obj);
+        Node prev = (Node) tail.getAndSet(node);
+        prev.next = node;
+        return count.getAndIncrement() == 0;
+    }
+
+    private Node next() {
+        Node head = this.head;
+        Node next = head.next;
+        if (next == null && tail.get() != head) {
+            while ((next = head.next) == null)
+                Thread.yield(); //producer is linking the node
+        }
+        return next;
+    }
+
+    public Object pop() {
+        Node next = next();
+        if (next == null)
+            return null;
+        Object obj = next.value;
+        next.value = null; //next become the new stub
+        head = next;
+        count.decrementAndGet();
+        return obj;
+    }
+
+    public Object peek() {
+        Node next = next();
+        return next == null ? null : next.value;
+    }
+
+    public void clear() {
+        while (pop() != null)
+            ;
+    }
+
+    public int size() {
+        int size = count.get();
+        return size < 0 ? 0 : size; //pop may happen before the counting of push
+    }
+
+    public boolean isEmpty() {
+        return tail.get() == head;
+    }
+
+    public String toString() {
+        StringBuffer buffer = new StringBuffer("[");
+        for (Node node = head.next; node != null; node = node.next) {
+            if (buffer.length() > 1)
+                buffer.append(", ");
+            buffer.append(node.value);
+        }
+        return buffer.append(']').toString();
+    }
+
+    private static class Node {
+
+        private volatile Object value;
+        private volatile Node next;
+
+        private Node(Object value) {
+            this.value = value;
+        }
+    }
+}
\ No newline at end of file
@@ -32,6 +32,16 @@ public class QueueFactory {
         return new SimpleQueue();
     }
 
+    /**
+     * Create a lock-free multi-producer single-consumer queue.
+     * 
+     * @return
+     * 		single-consumer queue.
+     */
+    public static SingleConsumerQueue createSingleConsumerQueue() {
+        return new MpscQueue();
+    }
+
     /**
      * Create a blocking queue.
      * 
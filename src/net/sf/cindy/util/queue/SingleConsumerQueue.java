@@ -0,0 +1,37 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cindy.util.queue;
+
+/**
+ * Multi-producer single-consumer queue. Any thread can push, but only
+ * one thread at a time may pop, peek or clear.
+ *
+ * @author Roger Chen
+ */
+public interface SingleConsumerQueue extends Queue {
+
+    /**
+     * Add object to the queue. The object can't be null.
+     *
+     * @param obj
+     * 		the object
+     * @return
+     * 		true if the queue was empty, only one of the concurrent pushers
+     * will get true until the consumer drain the queue again
+     */
+    boolean offer(Object obj);
+
+}
\ No newline at end of file
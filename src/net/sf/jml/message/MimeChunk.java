@@ -0,0 +1,163 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.jml.message;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.sf.jml.protocol.MsnChunk;
+import net.sf.jml.util.Charset;
+import net.sf.jml.util.StringHolder;
+
+/**
+ * MIME headers and body of an outgoing message, written straight into the
+ * send buffer. The headers are taken when the chunk is created, the lines
+ * of the constant headers are encoded once and cached.
+ * 
+ * @author Roger Chen
+ */
+final class MimeChunk implements MsnChunk {
+
+    private static final String[] CACHED_KEYS = { "MIME-Version",
+            "Content-Type", "X-MMS-IM-Format" };
+    private static final int MAX_CACHED_VALUES = 64; //per key
+
+    private static final Map<String, Map<String, byte[]>> cachedLines = new ConcurrentHashMap<String, Map<String, byte[]>>();
+
+    static {
+        for (String key : CACHED_KEYS)
+            cachedLines.put(key, new ConcurrentHashMap<String, byte[]>());
+    }
+
+    private final String[] headers; //key and value pairs
+    private final byte[][] lines; //cached encoded line of each header, may be null
+    private final String body;
+    private final int bodyStart;
+    private final int bodyEnd;
+    private final int length;
+
+    /**
+     * Create a chunk.
+     * 
+     * @param holder
+     * 		the headers
+     * @param body
+     * 		the body, may be null
+     * @param bodyStart
+     * 		index of the first char of the body
+     * @param bodyEnd
+     * 		index after the last char of the body
+     * @param extraHeaders
+     * 		key and value pairs set after the headers
+     */
+    MimeChunk(StringHolder holder, String body, int bodyStart, int bodyEnd,
+            String... extraHeaders) {
+        Map<String, String> properties = holder.getProperties();
+        String[] headers = new String[properties.size() * 2
+                + extraHeaders.length];
+        int count = 0;
+        for (Entry<String, String> item : properties.entrySet()) {
+            headers[count++] = item.getKey();
+            headers[count++] = item.getValue();
+        }
+        for (int i = 0; i < extraHeaders.length; i += 2) {
+            int index = indexOf(headers, count, extraHeaders[i]);
+            if (index < 0) {
+                index = count;
+                count += 2;
+                headers[index] = extraHeaders[i];
+            }
+            headers[index + 1] = extraHeaders[i + 1];
+        }
+
+        this.headers = headers;
+        this.lines = new byte[count / 2][];
+        this.body = body;
+        this.bodyStart = bodyStart;
+        this.bodyEnd = bodyEnd;
+
+        int length = 2; //line separator after the headers
+        for (int i = 0; i < count; i += 2) {
+            byte[] line = getCachedLine(headers[i], headers[i + 1]);
+            lines[i / 2] = line;
+            length += line != null ? line.length : lineLength(headers[i],
+                    headers[i + 1]);
+        }
+        if (body != null)
+            length += Charset.encodedLength(body, bodyStart, bodyEnd);
+        this.length = length;
+    }
+
+    MimeChunk(StringHolder holder, String body) {
+        this(holder, body, 0, body == null ? 0 : body.length());
+    }
+
+    private static int indexOf(String[] headers, int count, String key) {
+        for (int i = 0; i < count; i += 2) {
+            if (headers[i].equals(key))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Same as StringHolder.toString, "key: value\r\n".
+     */
+    private static int lineLength(String key, String value) {
+        return Charset.encodedLength(key) + 2
+                + Charset.encodedLength(String.valueOf(value)) + 2;
+    }
+
+    private static void putLine(ByteBuffer buffer, String key, String value) {
+        Charset.encode(key, buffer);
+        buffer.put((byte) ':').put((byte) ' ');
+        Charset.encode(String.valueOf(value), buffer);
+        buffer.put((byte) '\r').put((byte) '\n');
+    }
+
+    private static byte[] getCachedLine(String key, String value) {
+        Map<String, byte[]> lines = cachedLines.get(key);
+        if (lines == null || value == null)
+            return null;
+        byte[] line = lines.get(value);
+        if (line == null && lines.size() < MAX_CACHED_VALUES) {
+            ByteBuffer buffer = ByteBuffer.allocate(lineLength(key, value));
+            putLine(buffer, key, value);
+            line = buffer.array();
+            lines.put(value, line);
+        }
+        return line;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public void writeTo(ByteBuffer buffer) {
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i] != null)
+                buffer.put(lines[i]);
+            else
+                putLine(buffer, headers[i * 2], headers[i * 2 + 1]);
+        }
+        buffer.put((byte) '\r').put((byte) '\n');
+        if (body != null)
+            Charset.encode(body, bodyStart, bodyEnd, buffer);
+    }
+
+}
@@ -51,7 +51,7 @@ public class MsnEmoticonMessage extends MsnMimeMessage {
    }
 
    @Override
-   public String toString() {
+   protected String bodyToString() {
        StringBuffer ret = new StringBuffer();
        for (Map.Entry<String, MsnObject> entry : emoticons.entrySet()) {
            ret.append(entry.getKey());
@@ -59,7 +59,7 @@ public class MsnEmoticonMessage extends MsnMimeMessage {
            ret.append(entry.getValue());
            ret.append(EMOTICON_SEPARATOR);
        }
-       return super.toString() + ret.toString();
+       return ret.toString();
    }
 
 }
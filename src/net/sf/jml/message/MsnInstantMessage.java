@@ -25,8 +25,6 @@ import net.sf.jml.protocol.MsnSession;
 import net.sf.jml.protocol.outgoing.OutgoingMSG;
 import net.sf.jml.util.Charset;
 import net.sf.jml.util.GUID;
-import net.sf.jml.util.JmlConstants;
-import net.sf.jml.util.StringHolder;
 import net.sf.jml.util.StringUtils;
 
 /**
@@ -217,35 +215,62 @@ public class MsnInstantMessage extends MsnMimeMessage {
         setFormat();
 
         setContentType(MessageConstants.CT_TEXT + MessageConstants.CHARSET);
-        ByteBuffer[] body = Charset.encode(content, DEF_SPLIT_SIZE);
-        OutgoingMSG[] outgoing = new OutgoingMSG[body.length];
-        String messageId = "{" + GUID.createRandomGuid() + "}";
+        int[] ends = splitContent(DEF_SPLIT_SIZE);
+        OutgoingMSG[] outgoing = new OutgoingMSG[ends.length];
+        String messageId = ends.length == 1 ? null : "{"
+                + GUID.createRandomGuid() + "}";
+        int start = 0;
         for (int i = 0; i < outgoing.length; i++) {
             outgoing[i] = new OutgoingMSG(protocol);
             outgoing[i].setMsgType(OutgoingMSG.TYPE_ACKNOWLEDGE_WHEN_ERROR);
 
-            StringHolder holder;
-            if (body.length == 1)
-                holder = headers;
-            else {
-                holder = (StringHolder) headers.clone();
-                holder.setProperty(KEY_MESSAGE_ID, messageId);
-                if (i == 0)
-                    holder.setProperty(KEY_CHUNKS, body.length);
-                else
-                    holder.setProperty(KEY_CHUNK, i);
+            MimeChunk chunk;
+            if (ends.length == 1)
+                chunk = new MimeChunk(headers, content, start, ends[i]);
+            else
+                chunk = new MimeChunk(headers, content, start, ends[i],
+                        KEY_MESSAGE_ID, messageId,
+                        i == 0 ? KEY_CHUNKS : KEY_CHUNK, String
+                                .valueOf(i == 0 ? ends.length : i));
+            outgoing[i].setMsg(chunk);
+            start = ends[i];
+        }
+        return outgoing;
+    }
 
+    /**
+     * Split the content so every part is encoded to at most maxLength
+     * bytes, a char is never split.
+     * 
+     * @return
+     * 		end index of each part
+     */
+    private int[] splitContent(int maxLength) {
+        int[] ends = new int[1];
+        int count = 0;
+        int partLength = 0;
+        for (int i = 0; i < content.length(); i++) {
+            int n = Character.isHighSurrogate(content.charAt(i))
+                    && i + 1 < content.length()
+                    && Character.isLowSurrogate(content.charAt(i + 1)) ? 2
+                    : 1;
+            int charLength = Charset.encodedLength(content, i, i + n);
+            if (partLength + charLength > maxLength) {
+                if (count == ends.length) {
+                    int[] newEnds = new int[count * 2];
+                    System.arraycopy(ends, 0, newEnds, 0, count);
+                    ends = newEnds;
+                }
+                ends[count++] = i;
+                partLength = 0;
             }
-            ByteBuffer header = Charset.encode(holder.toString()
-                    + JmlConstants.LINE_SEPARATOR);
-
-            byte[] b = new byte[body[i].remaining() + header.remaining()];
-            ByteBuffer buffer = ByteBuffer.wrap(b);
-            buffer.put(header);
-            buffer.put(body[i]);
-            outgoing[i].setMsg(b);
+            partLength += charLength;
+            i += n - 1;
         }
-        return outgoing;
+        int[] result = new int[count + 1];
+        System.arraycopy(ends, 0, result, 0, count);
+        result[count] = content.length();
+        return result;
     }
 
     @Override
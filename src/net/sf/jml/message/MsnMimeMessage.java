@@ -22,6 +22,7 @@ import java.util.regex.Pattern;
 import net.sf.cindy.util.ByteBufferUtils;
 import net.sf.jml.MsnContact;
 import net.sf.jml.MsnProtocol;
+import net.sf.jml.protocol.MsnChunk;
 import net.sf.jml.protocol.MsnSession;
 import net.sf.jml.protocol.outgoing.OutgoingMSG;
 import net.sf.jml.util.Charset;
@@ -78,14 +79,36 @@ public abstract class MsnMimeMessage {
         return JmlConstants.DEFAULT_ENCODING;
     }
 
+    /**
+     * Get the body after the headers.
+     * 
+     * @return
+     * 		the body, empty if the message have no body
+     */
+    protected String bodyToString() {
+        return "";
+    }
+
     @Override
 	public String toString() {
         StringBuffer buffer = new StringBuffer();
         buffer.append(headers.toString());
         buffer.append(JmlConstants.LINE_SEPARATOR);
+        buffer.append(bodyToString());
         return buffer.toString();
     }
 
+    /**
+     * Get the headers and the body as the chunk of an OutgoingMSG, which
+     * is written straight into the send buffer.
+     * 
+     * @return
+     * 		the chunk
+     */
+    protected final MsnChunk toChunk() {
+        return new MimeChunk(headers, bodyToString());
+    }
+
     /**
      * Generate OutgoingMSGs.
      * 
@@ -96,7 +119,7 @@ public abstract class MsnMimeMessage {
      */
     public OutgoingMSG[] toOutgoingMsg(MsnProtocol protocol) {
         OutgoingMSG message = new OutgoingMSG(protocol);
-        message.setMsg(Charset.encodeAsByteArray(toString()));
+        message.setMsg(toChunk());
         message.setMsgType(OutgoingMSG.TYPE_ACKNOWLEDGE_WHEN_ERROR);
         return new OutgoingMSG[] { message };
     }
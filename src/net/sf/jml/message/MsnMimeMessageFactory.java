@@ -18,13 +18,11 @@ package net.sf.jml.message;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import net.sf.jml.message.invitation.MsnInvitationMessageFactory;
 import net.sf.jml.message.p2p.MsnP2PMessageFactory;
 import net.sf.jml.util.Charset;
-import net.sf.jml.util.JmlConstants;
+import net.sf.jml.util.MimeHeaderScanner;
 
 /**
  * Mime message facotry, judge the message type.
@@ -33,8 +31,7 @@ import net.sf.jml.util.JmlConstants;
  */
 class MsnMimeMessageFactory {
 
-    private static Pattern pattern = Pattern.compile("Content-Type:\\s*(.*)"
-            + JmlConstants.LINE_SEPARATOR);
+    private static final String KEY_CONTENT_TYPE = "Content-Type";
 
     private static Map<String, Class<?>> map = new LinkedHashMap<String, Class<?>>(); //keep in order
 
@@ -55,11 +52,23 @@ class MsnMimeMessageFactory {
     private MsnMimeMessageFactory() {
     }
 
+    /**
+     * Parse the chunk data of an incoming MSG. Only the headers are scanned
+     * to judge the message type, the body is left to the message itself.
+     */
     public static MsnMimeMessage parseMessage(byte[] message) throws Exception {
-        String s = Charset.decode(message);
-        String contentType = getContentType(s);
-        MsnMimeMessage mimeMessage = parseSpecialMessage(contentType, message,
-                s);
+        int headerEnd = MimeHeaderScanner.indexOfHeaderEnd(message);
+        String contentType = MimeHeaderScanner.getHeader(message, headerEnd,
+                KEY_CONTENT_TYPE);
+        if (contentType == null)
+            contentType = "";
+
+        if (contentType.startsWith(MessageConstants.CT_P2P)) //already parsed
+            return MsnP2PMessageFactory.parseMessage(message, headerEnd);
+        MsnMimeMessage mimeMessage = null;
+        if (contentType.startsWith(MessageConstants.CT_INVITATION))
+            mimeMessage = MsnInvitationMessageFactory.parseMessage(Charset
+                    .decode(message));
         if (mimeMessage == null) {
             mimeMessage = (MsnMimeMessage) getMessageClass(contentType)
                     .newInstance();
@@ -68,22 +77,6 @@ class MsnMimeMessageFactory {
         return mimeMessage;
     }
 
-    private static String getContentType(String s) {
-        Matcher matcher = pattern.matcher(s);
-        if (matcher.find())
-            return matcher.group(1);
-        return "";
-    }
-
-    private static MsnMimeMessage parseSpecialMessage(String contentType,
-            byte[] message, String s) {
-        if (contentType.startsWith(MessageConstants.CT_INVITATION)) {
-            return MsnInvitationMessageFactory.parseMessage(s);
-        } else if (contentType.startsWith(MessageConstants.CT_P2P))
-            return MsnP2PMessageFactory.parseMessage(message);
-        return null;
-    }
-
     private static Class<?> getMessageClass(String contentType) {
         Class<?> c = map.get(contentType);
         if (c == null) {
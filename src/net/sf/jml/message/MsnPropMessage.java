@@ -35,9 +35,8 @@ public abstract class MsnPropMessage extends MsnMimeMessage {
     }
 
     @Override
-	public String toString() {
-        return super.toString() + properties.toString()
-                + JmlConstants.LINE_SEPARATOR;
+	protected String bodyToString() {
+        return properties.toString() + JmlConstants.LINE_SEPARATOR;
     }
 
     @Override
@@ -5,7 +5,6 @@ import net.sf.jml.message.MessageConstants;
 import net.sf.jml.message.MsnPropMessage;
 import net.sf.jml.protocol.MsnSession;
 import net.sf.jml.protocol.outgoing.OutgoingMSG;
-import net.sf.jml.util.Charset;
 
 /**
  * Invitation message, used for file transfer/video conference and etc.
@@ -51,7 +50,7 @@ public abstract class MsnInvitationMessage extends MsnPropMessage {
             }
         };
         message.setMsgType(OutgoingMSG.TYPE_ACKNOWLEDGE_WHEN_ERROR);
-        message.setMsg(Charset.encodeAsByteArray(toString()));
+        message.setMsg(toChunk());
         return new OutgoingMSG[] { message };
     }
 
@@ -19,7 +19,6 @@ import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
-import net.sf.cindy.util.ByteBufferUtils;
 import net.sf.jml.MsnContact;
 import net.sf.jml.MsnProtocol;
 import net.sf.jml.impl.AbstractMessenger;
@@ -29,6 +28,7 @@ import net.sf.jml.protocol.MsnSession;
 import net.sf.jml.protocol.outgoing.OutgoingMSG;
 import net.sf.jml.util.Charset;
 import net.sf.jml.util.JmlConstants;
+import net.sf.jml.util.MimeHeaderScanner;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -62,24 +62,34 @@ public abstract class MsnP2PMessage extends MsnMimeMessage {
 	
 	@Override
 	protected void parseMessage(byte[] message) {
-		ByteBuffer split = Charset.encode(JmlConstants.LINE_SEPARATOR
-				+ JmlConstants.LINE_SEPARATOR);
-		int pos = ByteBufferUtils.indexOf(ByteBuffer.wrap(message), split);
+		parseMessage(message, MimeHeaderScanner.indexOfHeaderEnd(message), true);
+	}
 
+	/**
+	 * Parse the message whose MIME headers end at the given index.
+	 * 
+	 * @param message Content of the message.
+	 * @param headerEnd Index of the CRLFCRLF after the MIME headers.
+	 * @param parseBody Whether parse the body part, false if the factory
+	 *        already parsed it.
+	 */
+	final void parseMessage(byte[] message, int headerEnd, boolean parseBody) {
 		// header
-		String header = pos == -1 ? Charset.decode(message) : Charset.decode(
-				message, 0, pos);
+		String header = headerEnd == -1 ? Charset.decode(message) : Charset
+				.decode(message, 0, headerEnd);
 		headers.parseString(header);
 
 		// binaryHeader
-		pos += split.remaining();
+		int pos = headerEnd + HEADER_SPLIT_LEN;
 		binaryHeader.put(message, pos, BINARY_HEADER_LEN);
 		binaryHeader.flip();
 
 		// body
 		pos += BINARY_HEADER_LEN;
-		parseP2PBody(ByteBuffer.wrap(message, pos, message.length - pos
-				- BINARY_FOOTER_LEN));
+		if (parseBody) {
+			parseP2PBody(ByteBuffer.wrap(message, pos, message.length - pos
+					- BINARY_FOOTER_LEN));
+		}
 
 		// binaryFoot
 		binaryFooter.put(message, message.length - BINARY_FOOTER_LEN,
@@ -254,6 +264,11 @@ public abstract class MsnP2PMessage extends MsnMimeMessage {
 	//                                                                        //
 	////////////////////////////////////////////////////////////////////////////
 
+	/**
+	 * Length of the blank line between the MIME headers and binary header.
+	 */
+	static final int HEADER_SPLIT_LEN = JmlConstants.LINE_SEPARATOR.length() * 2;
+
 	/**
 	 * Length of the binary header for the P2P messages.
 	 */
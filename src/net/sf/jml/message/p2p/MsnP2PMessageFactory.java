@@ -16,103 +16,93 @@
 package net.sf.jml.message.p2p;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 
-import net.sf.cindy.util.ByteBufferUtils;
 import net.sf.jml.protocol.msnslp.MsnslpMessage;
 import net.sf.jml.protocol.msnslp.MsnslpRequest;
-import net.sf.jml.util.Charset;
-import net.sf.jml.util.JmlConstants;
+import net.sf.jml.util.MimeHeaderScanner;
 
 /**
- * Msn P2P message factory.
+ * Msn P2P message factory. The message type is judged by the binary header
+ * alone, only SLP bodies are parsed to judge the SLP method, and they are
+ * parsed once.
  * 
  * @author Roger Chen
  */
 public class MsnP2PMessageFactory {
 
 	public static MsnP2PMessage parseMessage(byte[] message) {
-		MsnP2PMessage p2pMessage = recognizeMessage(message);
-		p2pMessage.parseMessage(message);
-		return p2pMessage;
+		return parseMessage(message, MimeHeaderScanner
+				.indexOfHeaderEnd(message));
 	}
 
-	private static MsnP2PMessage recognizeMessage(byte[] message) {
-		ByteBuffer split = Charset.encode(JmlConstants.LINE_SEPARATOR
-				+ JmlConstants.LINE_SEPARATOR);
-		int pos = ByteBufferUtils.indexOf(ByteBuffer.wrap(message), split);
-		// header
-		// String header = pos == -1 ? Charset.decode(message) : Charset.decode(
-		// message, 0, pos);
+	/**
+	 * Parse a P2P message whose MIME headers end at the given index.
+	 * 
+	 * @param message Content of the message.
+	 * @param headerEnd Index of the CRLFCRLF after the MIME headers.
+	 * @return The parsed P2P message.
+	 */
+	public static MsnP2PMessage parseMessage(byte[] message, int headerEnd) {
 		// binaryHeader
-		pos += split.remaining();
-		ByteBuffer binaryHeader = ByteBuffer.allocate(
-				MsnP2PMessage.BINARY_HEADER_LEN).order(ByteOrder.LITTLE_ENDIAN);
-
-		binaryHeader.put(message, pos, MsnP2PMessage.BINARY_HEADER_LEN);
-		binaryHeader.flip();
-
-		int sessionId = binaryHeader.getInt(0);
-		int flag = binaryHeader.getInt(28);
-		int currentLength = binaryHeader.getInt(24);
-		long totalLength = binaryHeader.getLong(16);
-
-		// body
-		pos += MsnP2PMessage.BINARY_HEADER_LEN;
-
-		// binaryFoot
-		ByteBuffer binaryFooter = ByteBuffer
-				.allocate(MsnP2PMessage.BINARY_FOOTER_LEN);
-		binaryFooter.put(message, message.length
-				- MsnP2PMessage.BINARY_FOOTER_LEN,
-				MsnP2PMessage.BINARY_FOOTER_LEN);
-		binaryFooter.flip();
-		int appId = binaryFooter.getInt(0);
+		int pos = headerEnd + MsnP2PMessage.HEADER_SPLIT_LEN;
+		int sessionId = getInt(message, pos);
+		long totalLength = getLong(message, pos + 16);
+		int currentLength = getInt(message, pos + 24);
+		int flag = getInt(message, pos + 28);
 
+		MsnP2PMessage p2pMessage;
 		if (flag == MsnP2PMessage.FLAG_ACK) {
-			return new MsnP2PAckMessage();
-		}
-
-		if (flag == MsnP2PMessage.FLAG_BYE_ACK) {
-			return new MsnP2PByeAckMessage();
-		}
-
-		if (flag == MsnP2PMessage.FLAG_DATA) {
-			return new MsnP2PDataMessage();
-		}
-
-		if (flag == MsnP2PMessage.FLAG_NONE && 
+			p2pMessage = new MsnP2PAckMessage();
+		} else if (flag == MsnP2PMessage.FLAG_BYE_ACK) {
+			p2pMessage = new MsnP2PByeAckMessage();
+		} else if (flag == MsnP2PMessage.FLAG_DATA) {
+			p2pMessage = new MsnP2PDataMessage();
+		} else if (flag == MsnP2PMessage.FLAG_NONE && 
 			totalLength == 4 && 
 			currentLength == 4 &&
 //			appId == 1 &&  // I found a client that didn't send this correctly
 			sessionId != 0) {
-			return new MsnP2PPreperationMessage();
-		}
-
-		if (flag == MsnP2PMessage.FLAG_NONE && 
+			p2pMessage = new MsnP2PPreperationMessage();
+		} else if (flag == MsnP2PMessage.FLAG_NONE && 
 			sessionId == 0 && 
 			totalLength == currentLength) {
-			MsnP2PSlpMessage slpMessage = new MsnP2PSlpMessage();
-			slpMessage.parseMessage(message);
+			// body
+			pos += MsnP2PMessage.BINARY_HEADER_LEN;
+			MsnslpMessage msg = MsnP2PSlpMessage.parseSlpMessage(ByteBuffer
+					.wrap(message, pos, message.length - pos
+							- MsnP2PMessage.BINARY_FOOTER_LEN));
+
+			MsnP2PSlpMessage slpMessage = createSlpMessage(msg);
+			slpMessage.setSlpMessage(msg);
+			slpMessage.parseMessage(message, headerEnd, false);
+			return slpMessage;
+		} else {
+			p2pMessage = new MsnP2PDataMessage();
+		}
+		p2pMessage.parseMessage(message, headerEnd, true);
+		return p2pMessage;
+	}
 
-			MsnslpMessage msg = slpMessage.getSlpMessage();
-			if (msg instanceof MsnslpRequest) {
-				MsnslpRequest msnslpRequest = (MsnslpRequest) slpMessage
-						.getSlpMessage();
-				if (msnslpRequest.getRequestMethod() != null && 
-					msnslpRequest.getRequestMethod().
-								equals(MsnP2PByeMessage.METHOD_BYE)) {
-					return new MsnP2PByeMessage();
-				}
-				if (msnslpRequest.getRequestMethod() != null
-						&& msnslpRequest.getRequestMethod().
-								equals(MsnP2PInvitationMessage.METHOD_INVITE)) {
-					return new MsnP2PInvitationMessage();
-				}
+	private static MsnP2PSlpMessage createSlpMessage(MsnslpMessage msg) {
+		if (msg instanceof MsnslpRequest) {
+			String method = ((MsnslpRequest) msg).getRequestMethod();
+			if (MsnP2PByeMessage.METHOD_BYE.equals(method)) {
+				return new MsnP2PByeMessage();
+			}
+			if (MsnP2PInvitationMessage.METHOD_INVITE.equals(method)) {
+				return new MsnP2PInvitationMessage();
 			}
-			return slpMessage;
 		}
+		return new MsnP2PSlpMessage();
+	}
+
+	private static int getInt(byte[] b, int offset) {
+		return (b[offset] & 0xff) | (b[offset + 1] & 0xff) << 8
+				| (b[offset + 2] & 0xff) << 16 | (b[offset + 3] & 0xff) << 24;
+	}
 
-		return new MsnP2PDataMessage();
+	private static long getLong(byte[] b, int offset) {
+		return (getInt(b, offset) & 0xffffffffL)
+				| (long) getInt(b, offset + 4) << 32;
 	}
 }
\ No newline at end of file
@@ -39,11 +39,16 @@ public class MsnP2PSlpMessage extends MsnP2PMessage {
 
     @Override
 	protected void parseP2PBody(ByteBuffer buffer) {
-        slpMessage = new MsnslpRequest();
+        slpMessage = parseSlpMessage(buffer);
+    }
+
+    static MsnslpMessage parseSlpMessage(ByteBuffer buffer) {
+        MsnslpMessage slpMessage = new MsnslpRequest();
         if (!slpMessage.readFromBuffer(buffer)) {
             slpMessage = new MsnslpResponse();
             slpMessage.readFromBuffer(buffer);
         }
+        return slpMessage;
     }
 
     @Override
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.jml.protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Chunk data of an outgoing message, written straight into the send
+ * buffer when the message is encoded instead of being kept as a byte
+ * array.
+ * 
+ * @author Roger Chen
+ */
+public interface MsnChunk {
+
+    /**
+     * Get the encoded length of the chunk.
+     * 
+     * @return
+     * 		chunk length
+     */
+    public int length();
+
+    /**
+     * Write the chunk into the buffer. May be invoked more than once, and
+     * always writes the same bytes.
+     * 
+     * @param buffer
+     * 		the buffer which have at least {@link #length()} remaining bytes
+     */
+    public void writeTo(ByteBuffer buffer);
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.jml.protocol;
+
+import net.sf.jml.MsnProtocol;
+
+/**
+ * Command dispatch table, maps the packed 3 bytes command code of a command
+ * line to the creator of its message. Lookup is an open addressing probe on
+ * an int array, no String is created and no reflection is used.
+ * 
+ * @author Roger Chen
+ */
+public final class MsnCommandTable<T extends MsnMessage> {
+
+    /**
+     * Create the message of a command.
+     */
+    public interface Creator<T extends MsnMessage> {
+
+        /**
+         * Create the message.
+         * 
+         * @param protocol
+         * 		the protocol version of the session
+         * @return
+         * 		the message
+         */
+        T create(MsnProtocol protocol);
+    }
+
+    private final int[] codes; //0 means empty, no command is packed to 0
+    private final Creator<?>[] creators;
+    private final int mask;
+    private int size;
+
+    /**
+     * Create a table.
+     * 
+     * @param capacity
+     * 		max commands in the table
+     */
+    public MsnCommandTable(int capacity) {
+        int size = 1;
+        while (size < capacity * 2) //Keep the probe short
+            size <<= 1;
+        codes = new int[size];
+        creators = new Creator<?>[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Pack the 3 bytes command into an int.
+     * 
+     * @return
+     * 		command code
+     */
+    public static int code(byte b0, byte b1, byte b2) {
+        return (b0 & 0xFF) << 16 | (b1 & 0xFF) << 8 | (b2 & 0xFF);
+    }
+
+    /**
+     * Pack the 3 characters command into an int.
+     * 
+     * @param command
+     * 		the command
+     * @return
+     * 		command code
+     */
+    public static int code(String command) {
+        if (command.length() != 3)
+            throw new IllegalArgumentException("illegal command " + command);
+        return code((byte) command.charAt(0), (byte) command.charAt(1),
+                (byte) command.charAt(2));
+    }
+
+    /**
+     * The command code is a numeric error code.
+     * 
+     * @param code
+     * 		command code
+     * @return
+     * 		is error code
+     */
+    public static boolean isErrorCode(int code) {
+        return isDigit(code >>> 16) && isDigit((code >>> 8) & 0xFF)
+                && isDigit(code & 0xFF);
+    }
+
+    private static boolean isDigit(int b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static int hash(int code) {
+        return (code * 0x9E3779B1) >>> 16;
+    }
+
+    /**
+     * Add a command.
+     * 
+     * @param command
+     * 		the 3 characters command
+     * @param creator
+     * 		the creator of its message
+     * @throws IllegalStateException
+     * 		if the table is full
+     */
+    public void put(String command, Creator<? extends T> creator) {
+        int code = code(command);
+        for (int i = hash(code) & mask;; i = (i + 1) & mask) {
+            if (codes[i] == code) {
+                creators[i] = creator;
+                return;
+            }
+            if (codes[i] == 0) {
+                if ((size + 1) * 2 > codes.length)
+                    throw new IllegalStateException("table is full");
+                codes[i] = code;
+                creators[i] = creator;
+                size++;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Create the message of the command.
+     * 
+     * @param code
+     * 		command code
+     * @param protocol
+     * 		the protocol version of the session
+     * @return
+     * 		the message, null if the command is not in the table
+     */
+    @SuppressWarnings("unchecked")
+    public T create(int code, MsnProtocol protocol) {
+        for (int i = hash(code) & mask;; i = (i + 1) & mask) {
+            if (codes[i] == code)
+                return ((Creator<? extends T>) creators[i]).create(protocol);
+            if (codes[i] == 0)
+                return null;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.jml.protocol;
+
+import net.sf.cindy.EventGenerator;
+import net.sf.cindy.Session;
+import net.sf.cindy.impl.AutoCloseEventGenerator;
+import net.sf.cindy.impl.EventGeneratorGroup;
+import net.sf.cindy.impl.SimpleEventGenerator;
+import net.sf.jml.MsnFileTransfer;
+import net.sf.jml.util.JmlConstants;
+
+/**
+ * The event generator shared by all jml sessions. All sessions of one
+ * MsnMessenger (NS, switchboards and file transfers) are registered on the
+ * same selector thread, different messengers are spread over all selector
+ * threads.
+ *
+ * @author Roger Chen
+ */
+public final class MsnEventGenerator {
+
+    private static final EventGenerator instance = new EventGeneratorGroup(
+            JmlConstants.EVENT_GENERATOR_COUNT, new MessengerAffinityChooser()) {
+
+        @Override
+        protected SimpleEventGenerator newEventGenerator() {
+            return new AutoCloseEventGenerator(); //stop selector threads when no session
+        }
+    };
+
+    public static EventGenerator getInstance() {
+        return instance;
+    }
+
+    private MsnEventGenerator() {
+    }
+
+    private static class MessengerAffinityChooser extends
+            EventGeneratorGroup.AffinityChooser {
+
+        @Override
+        protected Object getAffinityKey(Session session) {
+            Object attachment = session.getAttachment();
+            if (attachment instanceof MsnSession)
+                return ((MsnSession) attachment).getMessenger();
+            if (attachment instanceof MsnFileTransfer)
+                return ((MsnFileTransfer) attachment).getMessenger();
+            return null;
+        }
+    }
+
+}
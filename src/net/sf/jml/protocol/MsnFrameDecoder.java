@@ -0,0 +1,121 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.jml.protocol;
+
+import net.sf.cindy.util.ChunkedByteBuffer;
+import net.sf.jml.MsnMessenger;
+
+/**
+ * Incremental framing decoder of a msn session. A frame is a command line
+ * ended by CRLF, followed by the chunk data if the command carries one,
+ * whose length is the last parameter of the command line.
+ * <p>
+ * The decoder remembers how far the command line have been scanned, the
+ * message created for it and the announced chunk length, so a partial
+ * frame is not scanned again when more bytes arrive, and the frame length
+ * is only returned when the whole frame have been received. Offsets are
+ * relative to the cursor, which stays at the frame start between reads.
+ * <p>
+ * Only used by the event generator thread of the session.
+ * 
+ * @author Roger Chen
+ */
+final class MsnFrameDecoder {
+
+    private static final byte[] SEPARATOR = { '\r', '\n' };
+
+    private int scanned; //bytes scanned for CRLF from the frame start
+    private int lineLength = -1; //-1 if the command line is not completed
+    private int chunkLength;
+    private MsnMessage message;
+
+    /**
+     * Decode a frame.
+     * 
+     * @param buffer
+     * 		the received bytes, the cursor is the frame start
+     * @param messenger
+     * 		the messenger of the session
+     * @return
+     * 		the frame length, or -1 if the frame is not completed
+     */
+    int decode(ChunkedByteBuffer buffer, MsnMessenger messenger) {
+        if (lineLength < 0) {
+            lineLength = buffer.indexOf(SEPARATOR, scanned);
+            if (lineLength < 0) {
+                scanned = Math.max(buffer.remaining() - 1, 0); //The last byte may be CR
+                return -1;
+            }
+            if (buffer.remaining() < 3) { //Wait for the command
+                lineLength = -1;
+                scanned = 0;
+                return -1;
+            }
+            message = MsnMessageRecognizer.createMessage(MsnCommandTable
+                    .code(buffer.get(0), buffer.get(1), buffer.get(2)),
+                    messenger);
+            if (message.isSupportChunkData())
+                chunkLength = parseChunkLength(buffer, lineLength);
+        }
+        int frameLength = lineLength + SEPARATOR.length + chunkLength;
+        if (buffer.remaining() < frameLength)
+            return -1;
+        return frameLength;
+    }
+
+    /**
+     * Get the message of the decoded frame, and start decoding the next
+     * frame.
+     * 
+     * @return
+     * 		the message
+     */
+    MsnMessage nextMessage() {
+        MsnMessage result = message;
+        result.setFrameLineLength(lineLength);
+        reset();
+        return result;
+    }
+
+    /**
+     * Discard the partial frame.
+     */
+    void reset() {
+        scanned = 0;
+        lineLength = -1;
+        chunkLength = 0;
+        message = null;
+    }
+
+    /**
+     * Parse the last parameter of the command line as chunk length.
+     * 
+     * @return
+     * 		chunk length, 0 if the last parameter is not a number
+     */
+    private static int parseChunkLength(ChunkedByteBuffer buffer,
+            int lineLength) {
+        int i = lineLength;
+        while (i > 0 && Character.isDigit((char) buffer.get(i - 1)))
+            i--;
+        if (i == lineLength || lineLength - i > 9) //Not a number, or too long
+            return 0;
+        int length = 0;
+        for (; i < lineLength; i++)
+            length = length * 10 + (buffer.get(i) - '0');
+        return length;
+    }
+}
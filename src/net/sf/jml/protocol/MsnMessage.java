@@ -15,19 +15,18 @@
  */
 package net.sf.jml.protocol;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.StringTokenizer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+import net.sf.cindy.util.ByteBufferPool;
 import net.sf.cindy.util.ByteBufferUtils;
 import net.sf.jml.MsnProtocol;
 import net.sf.jml.util.Charset;
 import net.sf.jml.util.JmlConstants;
-import net.sf.jml.util.NumberUtils;
 import net.sf.jml.util.StringUtils;
 
 /**
@@ -42,6 +41,17 @@ public abstract class MsnMessage implements Serializable {
     private int trId = -1;
     private final List<String> params = new ArrayList<String>();
     private byte[] chunkData;
+    private transient MsnChunk chunk; //written when encoded, instead of chunkData
+    private transient int frameLineLength = -1; //set by MsnFrameDecoder
+
+    /*
+     * The parameters loaded from a command line are kept as offsets into
+     * the line, and decoded when they are read. Changing the parameters
+     * decodes all of them into params.
+     */
+    private transient byte[] line; //null if not loaded or decoded
+    private transient int[] paramBounds; //start and end offset of each parameter
+    private transient String[] decodedParams;
 
     protected final MsnProtocol protocol; //the msn protocol which the message used
 
@@ -58,6 +68,8 @@ public abstract class MsnMessage implements Serializable {
     }
 
     public final String getCommand() {
+        if (command == null && line != null)
+            command = decode(line, 0, 3);
         return command;
     }
 
@@ -77,21 +89,64 @@ public abstract class MsnMessage implements Serializable {
     }
 
     protected final void setCommand(String command) {
+        decodeLine();
         this.command = command;
     }
 
     protected final String getParam(int index) {
+        if (line != null) {
+            if (index < 0 || index >= paramBounds.length / 2)
+                return null;
+            if (decodedParams == null)
+                decodedParams = new String[paramBounds.length / 2];
+            String param = decodedParams[index];
+            if (param == null) {
+                int start = paramBounds[index * 2];
+                param = decode(line, start, paramBounds[index * 2 + 1]);
+                decodedParams[index] = param;
+            }
+            return param;
+        }
         if (index < params.size()) {
             return params.get(index);
         }
         return null;
     }
 
+    /**
+     * Decode line bytes, most of them are ASCII which needn't the charset.
+     */
+    private static String decode(byte[] b, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (b[i] < 0)
+                return Charset.decode(b, start, end - start);
+        }
+        return new String(b, start, end - start, ASCII);
+    }
+
     protected final int getParamCount() {
+        if (line != null)
+            return paramBounds.length / 2;
         return params.size();
     }
 
+    /**
+     * Decode the loaded command line, so the parameters can be changed.
+     */
+    private void decodeLine() {
+        if (line == null)
+            return;
+        getCommand();
+        params.clear();
+        for (int i = 0; i < paramBounds.length / 2; i++)
+            params.add(getParam(i));
+        line = null;
+        paramBounds = null;
+        decodedParams = null;
+    }
+
     protected final void setParam(int index, String s) {
+        decodeLine();
         for (int i = params.size() - index - 1; i < 0; i++) {
             params.add("");
         }
@@ -99,12 +154,14 @@ public abstract class MsnMessage implements Serializable {
     }
 
     protected final void addParam(String s) {
+        decodeLine();
         if (s != null) {
             params.add(s);
         }
     }
 
     protected final void clearParams() {
+        decodeLine();
         params.clear();
     }
 
@@ -119,92 +176,212 @@ public abstract class MsnMessage implements Serializable {
     }
 
     protected final byte[] getChunkData() {
+        if (chunkData == null && chunk != null) {
+            ByteBuffer buffer = ByteBuffer.allocate(chunk.length());
+            chunk.writeTo(buffer);
+            chunkData = buffer.array();
+        }
         return chunkData;
     }
 
+    /**
+     * Drop the chunk data once the message have been sent and will not be
+     * encoded again.
+     */
+    final void releaseChunkData() {
+        chunkData = null;
+        chunk = null;
+    }
+
     protected final void setChunkData(byte[] chunkData) {
-        if (isSupportChunkData())
+        if (isSupportChunkData()) {
             this.chunkData = chunkData;
+            this.chunk = null;
+        }
     }
 
     protected final void setChunkData(String chunkData) {
         this.chunkData = Charset.encodeAsByteArray(chunkData);
+        this.chunk = null;
+    }
+
+    /**
+     * Set the chunk data which is written straight into the send buffer,
+     * see {@link #encode(ByteBufferPool)}.
+     * 
+     * @param chunk
+     * 		the chunk
+     */
+    protected final void setChunkData(MsnChunk chunk) {
+        if (isSupportChunkData()) {
+            this.chunk = chunk;
+            this.chunkData = null;
+        }
     }
 
-    private static final Pattern noChunkPattern = Pattern
-            .compile("(\\S{3})(.*)");
+    /**
+     * @return chunk length, -1 if no chunk data
+     */
+    private int getChunkLength() {
+        if (chunkData != null)
+            return chunkData.length;
+        return chunk == null ? -1 : chunk.length();
+    }
 
-    private static final Pattern chunkPattern = Pattern
-            .compile("(\\S{3})(.*) (\\d+)");
+    private static final java.nio.charset.Charset ASCII = java.nio.charset.Charset
+            .forName("US-ASCII");
 
     private static final ByteBuffer split = Charset
             .encode(JmlConstants.LINE_SEPARATOR);
 
-    protected boolean load(ByteBuffer buffer) {
-        int index = ByteBufferUtils.indexOf(buffer, split);
-        if (index < 0)
-            return false;
+    /**
+     * Set the command line length found by the frame decoder, so load
+     * needn't scan for the line separator again.
+     * 
+     * @param lineLength
+     * 		command line length, without the line separator
+     */
+    final void setFrameLineLength(int lineLength) {
+        this.frameLineLength = lineLength;
+    }
+
+    private static boolean isDelimiter(byte b) { //Same as StringTokenizer
+        return b <= ' '
+                && (b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f');
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
 
-        String s = Charset.decode((ByteBuffer) buffer.slice().limit(
-                index - buffer.position()));
-        Matcher matcher;
-        if (isSupportChunkData())
-            matcher = chunkPattern.matcher(s);
-        else
-            matcher = noChunkPattern.matcher(s);
+    /**
+     * Parse ASCII digits, 0 if overflow.
+     */
+    private static int parseInt(byte[] b, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            value = value * 10 + (b[i] - '0');
+            if (value > Integer.MAX_VALUE)
+                return 0;
+        }
+        return (int) value;
+    }
 
-        if (!matcher.matches()) //Not match
+    /**
+     * Load the command line, and the chunk data if supported. The line is
+     * "CMD[ trId] params...[ chunkLength]", parsed in bytes: parameters are
+     * split by whitespace into offsets, the transaction id and the chunk
+     * length are parsed from the digits directly.
+     */
+    protected boolean load(ByteBuffer buffer) {
+        int start = buffer.position();
+        int index;
+        if (frameLineLength >= 0) { //Framed, the whole frame is in the buffer
+            index = start + frameLineLength;
+            frameLineLength = -1;
+        } else {
+            index = ByteBufferUtils.indexOf(buffer, split);
+            if (index < 0)
+                return false;
+        }
+        int length = index - start;
+        if (length < 3)
             return false;
-        if (isSupportChunkData()) { //Check chunk data is completed
-            int chunkLen = NumberUtils.stringToInt(matcher.group(3));
-            if (buffer.limit() < index + split.remaining() + chunkLen)
+        byte[] b = new byte[length];
+        buffer.get(b);
+        buffer.position(start); //Moved when loaded
+        for (int i = 0; i < 3; i++) {
+            if (isDelimiter(b[i]) || b[i] == 0x0B) //Command must be 3 non-whitespaces
                 return false;
-            buffer.position(index + split.remaining());
+        }
 
+        int paramEnd = length;
+        int chunkLen = 0;
+        if (isSupportChunkData()) { //Chunk length is the digits after the last space
+            int i = length;
+            while (i > 4 && isDigit(b[i - 1]))
+                i--;
+            if (i == length || b[i - 1] != ' ')
+                return false;
+            chunkLen = parseInt(b, i, length);
+            if (buffer.limit() < index + split.remaining() + chunkLen) //Check chunk data is completed
+                return false;
+            paramEnd = i - 1;
+        }
+
+        buffer.position(index + split.remaining());
+        if (isSupportChunkData()) {
             chunkData = new byte[chunkLen];
             buffer.get(chunkData);
-        } else {
-            buffer.position(index + split.remaining());
-        }
-
-        setCommand(matcher.group(1));
-        String params = matcher.group(2);
-        if (params != null) {
-            clearParams();
-
-            StringTokenizer st = new StringTokenizer(params);
-            if (isSupportTransactionId() && st.hasMoreTokens()) {
-                String token = st.nextToken();
-                if (NumberUtils.isDigits(token)) {
-                    setTransactionId(NumberUtils.stringToInt(token));
-                } else {
-                    addParam(token);
-                }
-            }
-            while (st.hasMoreTokens()) {
-                addParam(st.nextToken());
+            chunk = null;
+        }
+
+        int from = 3;
+        if (isSupportTransactionId()) { //The first parameter may be transaction id
+            int tokenStart = from;
+            while (tokenStart < paramEnd && isDelimiter(b[tokenStart]))
+                tokenStart++;
+            int tokenEnd = tokenStart;
+            while (tokenEnd < paramEnd && isDigit(b[tokenEnd]))
+                tokenEnd++;
+            if (tokenEnd > tokenStart
+                    && (tokenEnd == paramEnd || isDelimiter(b[tokenEnd]))) {
+                setTransactionId(parseInt(b, tokenStart, tokenEnd));
+                from = tokenEnd;
             }
         }
+
+        int count = 0;
+        for (int i = from; i < paramEnd; i++) {
+            if (!isDelimiter(b[i]) && (i == from || isDelimiter(b[i - 1])))
+                count++;
+        }
+        int[] bounds = new int[count * 2];
+        int n = 0;
+        for (int i = from; i < paramEnd;) {
+            while (i < paramEnd && isDelimiter(b[i]))
+                i++;
+            if (i == paramEnd)
+                break;
+            bounds[n++] = i;
+            while (i < paramEnd && !isDelimiter(b[i]))
+                i++;
+            bounds[n++] = i;
+        }
+
+        params.clear();
+        command = null;
+        line = b;
+        paramBounds = bounds;
+        decodedParams = null;
         return true;
     }
 
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        decodeLine();
+        getChunkData();
+        out.defaultWriteObject();
+    }
+
     private String bodyToString() {
         StringBuffer buffer = new StringBuffer();
-        buffer.append(command);
+        buffer.append(getCommand());
         if (trId >= 0) {
             buffer.append(" ").append(trId);
         }
-        for(String param : params) {
-            buffer.append(" ").append(param);
+        for (int i = 0; i < getParamCount(); i++) {
+            buffer.append(" ").append(getParam(i));
         }
-        if (chunkData != null) { //append chunk data len
-            buffer.append(" ").append(chunkData.length);
+        int chunkLength = getChunkLength();
+        if (chunkLength >= 0) { //append chunk data len
+            buffer.append(" ").append(chunkLength);
         }
         buffer.append(JmlConstants.LINE_SEPARATOR);
         return buffer.toString();
     }
 
     protected ByteBuffer[] save() {
+        byte[] chunkData = getChunkData();
         ByteBuffer[] result = new ByteBuffer[chunkData == null ? 1 : 2];
         result[0] = Charset.encode(bodyToString());
         if (chunkData != null)
@@ -212,8 +389,75 @@ public abstract class MsnMessage implements Serializable {
         return result;
     }
 
+    /**
+     * Encode the command line and the chunk data straight into one buffer
+     * borrowed from the pool, without building the line as a String.
+     * 
+     * @param pool
+     * 		the buffer pool
+     * @return
+     * 		the flipped buffer, should be released to the pool after written
+     */
+    final ByteBuffer encode(ByteBufferPool pool) {
+        String command = getCommand();
+        int paramCount = getParamCount();
+        int chunkLength = getChunkLength();
+
+        int length = Charset.encodedLength(command) + 2; //with line separator
+        if (trId >= 0)
+            length += 1 + digitCount(trId);
+        for (int i = 0; i < paramCount; i++)
+            length += 1 + Charset.encodedLength(String.valueOf(getParam(i)));
+        if (chunkLength >= 0)
+            length += 1 + digitCount(chunkLength) + chunkLength;
+
+        ByteBuffer buffer = pool.allocate(length, false);
+        Charset.encode(command, buffer);
+        if (trId >= 0) {
+            buffer.put((byte) ' ');
+            putInt(buffer, trId);
+        }
+        for (int i = 0; i < paramCount; i++) {
+            buffer.put((byte) ' ');
+            Charset.encode(String.valueOf(getParam(i)), buffer);
+        }
+        if (chunkLength >= 0) {
+            buffer.put((byte) ' ');
+            putInt(buffer, chunkLength);
+        }
+        buffer.put((byte) '\r').put((byte) '\n');
+        if (chunkData != null)
+            buffer.put(chunkData);
+        else if (chunk != null)
+            chunk.writeTo(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int digitCount(int value) {
+        int count = 1;
+        while (value >= 10) {
+            value /= 10;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Put a non-negative int as ASCII digits.
+     */
+    private static void putInt(ByteBuffer buffer, int value) {
+        int position = buffer.position() + digitCount(value);
+        buffer.position(position);
+        do {
+            buffer.put(--position, (byte) ('0' + value % 10));
+            value /= 10;
+        } while (value > 0);
+    }
+
     @Override
 	public String toString() {
+        byte[] chunkData = getChunkData();
         if (chunkData == null)
             return bodyToString();
         StringBuffer buffer = new StringBuffer();
@@ -237,6 +481,7 @@ public abstract class MsnMessage implements Serializable {
     }
     
     public String asString() {
+        byte[] chunkData = getChunkData();
     	if (chunkData == null) {
             return bodyToString();
     	}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.jml.protocol;
+
+import java.nio.ByteBuffer;
+
+import net.sf.cindy.Message;
+import net.sf.cindy.MessageEncoder;
+import net.sf.cindy.Session;
+import net.sf.cindy.impl.AbstractSession;
+import net.sf.cindy.util.ByteBufferPool;
+
+/**
+ * Msn Message Encoder, the encoder stage of a msn session pipeline. The
+ * command line and the chunk data of a message are encoded once, straight
+ * into a buffer borrowed from the buffer pool, and the buffer is returned
+ * to the pool when the message has been sent.
+ * 
+ * @author Roger Chen
+ */
+final class MsnMessageEncoder implements MessageEncoder {
+
+    private static final MsnMessageEncoder instance = new MsnMessageEncoder();
+
+    public static MsnMessageEncoder getInstance() {
+        return instance;
+    }
+
+    private final ByteBufferPool pool = AbstractSession.DEFAULT_BUFFER_POOL;
+
+    private MsnMessageEncoder() {
+    }
+
+    public ByteBuffer[] encode(Session session, Message message) {
+        if (!(message instanceof WrapperMessage))
+            return null;
+        WrapperMessage wrapper = (WrapperMessage) message;
+        ByteBuffer buffer = wrapper.getMessage().encode(pool);
+        wrapper.setEncoded(buffer);
+        return new ByteBuffer[] { buffer };
+    }
+
+    /**
+     * Return the buffer of the sent message to the pool. The message must
+     * have been written completely.
+     * 
+     * @param message
+     * 		the sent message
+     */
+    void release(WrapperMessage message) {
+        ByteBuffer buffer = message.getEncoded();
+        if (buffer != null) {
+            message.setEncoded(null);
+            pool.release(buffer);
+        }
+    }
+
+}
@@ -15,18 +15,14 @@
  */
 package net.sf.jml.protocol;
 
-import java.lang.reflect.Constructor;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
 
 import net.sf.cindy.Message;
-import net.sf.cindy.MessageRecognizer;
+import net.sf.cindy.MessageDecoder;
 import net.sf.cindy.Session;
-import net.sf.cindy.util.ByteBufferUtils;
+import net.sf.cindy.util.ChunkedByteBuffer;
 import net.sf.jml.MsnMessenger;
 import net.sf.jml.MsnProtocol;
-import net.sf.jml.impl.AbstractMessenger;
 import net.sf.jml.message.IncomingMimeMessage;
 import net.sf.jml.protocol.incoming.IncomingACK;
 import net.sf.jml.protocol.incoming.IncomingADC;
@@ -70,68 +66,228 @@ import net.sf.jml.protocol.incoming.IncomingUUX;
 import net.sf.jml.protocol.incoming.IncomingUnknown;
 import net.sf.jml.protocol.incoming.IncomingVER;
 import net.sf.jml.protocol.incoming.IncomingXFR;
-import net.sf.jml.util.Charset;
-import net.sf.jml.util.JmlConstants;
-import net.sf.jml.util.NumberUtils;
 
 /**
- * Msn Message Recognizer.
+ * Msn Message Recognizer, the decoder stage of a msn session pipeline.
+ * Frames are found by the {@link MsnFrameDecoder} of the session, and each
+ * frame is loaded once into the message created for its command.
  * 
  * @author Roger Chen
  */
-final class MsnMessageRecognizer implements MessageRecognizer {
+final class MsnMessageRecognizer implements MessageDecoder {
 
     private static final MsnMessageRecognizer instance = new MsnMessageRecognizer();
 
-    private static final Map<String, Class<? extends MsnIncomingMessage>> normalMappingMap = new HashMap<String, Class<? extends MsnIncomingMessage>>();
+    private static final MsnCommandTable<MsnIncomingMessage> table = new MsnCommandTable<MsnIncomingMessage>(41);
 
     static {
-        normalMappingMap.put("MSG", IncomingMimeMessage.class);
-        normalMappingMap.put("VER", IncomingVER.class);
-        normalMappingMap.put("CVR", IncomingCVR.class);
-        normalMappingMap.put("XFR", IncomingXFR.class);
-        normalMappingMap.put("USR", IncomingUSR.class);
-        normalMappingMap.put("SYN", IncomingSYN.class);
-        normalMappingMap.put("GTC", IncomingGTC.class);
-        normalMappingMap.put("BLP", IncomingBLP.class);
-        normalMappingMap.put("PRP", IncomingPRP.class);
-        normalMappingMap.put("SBP", IncomingSBP.class);
-        normalMappingMap.put("LSG", IncomingLSG.class);
-        normalMappingMap.put("LST", IncomingLST.class);
-        normalMappingMap.put("OUT", IncomingOUT.class);
-        normalMappingMap.put("CHG", IncomingCHG.class);
-        normalMappingMap.put("ILN", IncomingILN.class);
-        normalMappingMap.put("FLN", IncomingFLN.class);
-        normalMappingMap.put("NLN", IncomingNLN.class);
-        normalMappingMap.put("QNG", IncomingQNG.class);
-        normalMappingMap.put("CHL", IncomingCHL.class);
-        normalMappingMap.put("QRY", IncomingQRY.class);
-        normalMappingMap.put("ADD", IncomingADD.class);
-        normalMappingMap.put("REM", IncomingREM.class);
-        normalMappingMap.put("REA", IncomingREA.class);
-        normalMappingMap.put("ADG", IncomingADG.class);
-        normalMappingMap.put("RMG", IncomingRMG.class);
-        normalMappingMap.put("REG", IncomingREG.class);
-        normalMappingMap.put("CAL", IncomingCAL.class);
-        normalMappingMap.put("JOI", IncomingJOI.class);
-        normalMappingMap.put("BYE", IncomingBYE.class);
-        normalMappingMap.put("RNG", IncomingRNG.class);
-        normalMappingMap.put("ANS", IncomingANS.class);
-        normalMappingMap.put("IRO", IncomingIRO.class);
-        normalMappingMap.put("ACK", IncomingACK.class);
-        normalMappingMap.put("NAK", IncomingNAK.class);
-        normalMappingMap.put("BPR", IncomingBPR.class);
-        normalMappingMap.put("ADC", IncomingADC.class);
-        normalMappingMap.put("SBS", IncomingSBS.class);
-        normalMappingMap.put("URL", IncomingURL.class);
-        normalMappingMap.put("UBX", IncomingUBX.class);
-        normalMappingMap.put("UUX", IncomingUUX.class);
-        normalMappingMap.put("NOT", IncomingNOT.class);
+        table.put("MSG", new MsnCommandTable.Creator<IncomingMimeMessage>() {
+            public IncomingMimeMessage create(MsnProtocol protocol) {
+                return new IncomingMimeMessage(protocol);
+            }
+        });
+        table.put("VER", new MsnCommandTable.Creator<IncomingVER>() {
+            public IncomingVER create(MsnProtocol protocol) {
+                return new IncomingVER(protocol);
+            }
+        });
+        table.put("CVR", new MsnCommandTable.Creator<IncomingCVR>() {
+            public IncomingCVR create(MsnProtocol protocol) {
+                return new IncomingCVR(protocol);
+            }
+        });
+        table.put("XFR", new MsnCommandTable.Creator<IncomingXFR>() {
+            public IncomingXFR create(MsnProtocol protocol) {
+                return new IncomingXFR(protocol);
+            }
+        });
+        table.put("USR", new MsnCommandTable.Creator<IncomingUSR>() {
+            public IncomingUSR create(MsnProtocol protocol) {
+                return new IncomingUSR(protocol);
+            }
+        });
+        table.put("SYN", new MsnCommandTable.Creator<IncomingSYN>() {
+            public IncomingSYN create(MsnProtocol protocol) {
+                return new IncomingSYN(protocol);
+            }
+        });
+        table.put("GTC", new MsnCommandTable.Creator<IncomingGTC>() {
+            public IncomingGTC create(MsnProtocol protocol) {
+                return new IncomingGTC(protocol);
+            }
+        });
+        table.put("BLP", new MsnCommandTable.Creator<IncomingBLP>() {
+            public IncomingBLP create(MsnProtocol protocol) {
+                return new IncomingBLP(protocol);
+            }
+        });
+        table.put("PRP", new MsnCommandTable.Creator<IncomingPRP>() {
+            public IncomingPRP create(MsnProtocol protocol) {
+                return new IncomingPRP(protocol);
+            }
+        });
+        table.put("SBP", new MsnCommandTable.Creator<IncomingSBP>() {
+            public IncomingSBP create(MsnProtocol protocol) {
+                return new IncomingSBP(protocol);
+            }
+        });
+        table.put("LSG", new MsnCommandTable.Creator<IncomingLSG>() {
+            public IncomingLSG create(MsnProtocol protocol) {
+                return new IncomingLSG(protocol);
+            }
+        });
+        table.put("LST", new MsnCommandTable.Creator<IncomingLST>() {
+            public IncomingLST create(MsnProtocol protocol) {
+                return new IncomingLST(protocol);
+            }
+        });
+        table.put("OUT", new MsnCommandTable.Creator<IncomingOUT>() {
+            public IncomingOUT create(MsnProtocol protocol) {
+                return new IncomingOUT(protocol);
+            }
+        });
+        table.put("CHG", new MsnCommandTable.Creator<IncomingCHG>() {
+            public IncomingCHG create(MsnProtocol protocol) {
+                return new IncomingCHG(protocol);
+            }
+        });
+        table.put("ILN", new MsnCommandTable.Creator<IncomingILN>() {
+            public IncomingILN create(MsnProtocol protocol) {
+                return new IncomingILN(protocol);
+            }
+        });
+        table.put("FLN", new MsnCommandTable.Creator<IncomingFLN>() {
+            public IncomingFLN create(MsnProtocol protocol) {
+                return new IncomingFLN(protocol);
+            }
+        });
+        table.put("NLN", new MsnCommandTable.Creator<IncomingNLN>() {
+            public IncomingNLN create(MsnProtocol protocol) {
+                return new IncomingNLN(protocol);
+            }
+        });
+        table.put("QNG", new MsnCommandTable.Creator<IncomingQNG>() {
+            public IncomingQNG create(MsnProtocol protocol) {
+                return new IncomingQNG(protocol);
+            }
+        });
+        table.put("CHL", new MsnCommandTable.Creator<IncomingCHL>() {
+            public IncomingCHL create(MsnProtocol protocol) {
+                return new IncomingCHL(protocol);
+            }
+        });
+        table.put("QRY", new MsnCommandTable.Creator<IncomingQRY>() {
+            public IncomingQRY create(MsnProtocol protocol) {
+                return new IncomingQRY(protocol);
+            }
+        });
+        table.put("ADD", new MsnCommandTable.Creator<IncomingADD>() {
+            public IncomingADD create(MsnProtocol protocol) {
+                return new IncomingADD(protocol);
+            }
+        });
+        table.put("REM", new MsnCommandTable.Creator<IncomingREM>() {
+            public IncomingREM create(MsnProtocol protocol) {
+                return new IncomingREM(protocol);
+            }
+        });
+        table.put("REA", new MsnCommandTable.Creator<IncomingREA>() {
+            public IncomingREA create(MsnProtocol protocol) {
+                return new IncomingREA(protocol);
+            }
+        });
+        table.put("ADG", new MsnCommandTable.Creator<IncomingADG>() {
+            public IncomingADG create(MsnProtocol protocol) {
+                return new IncomingADG(protocol);
+            }
+        });
+        table.put("RMG", new MsnCommandTable.Creator<IncomingRMG>() {
+            public IncomingRMG create(MsnProtocol protocol) {
+                return new IncomingRMG(protocol);
+            }
+        });
+        table.put("REG", new MsnCommandTable.Creator<IncomingREG>() {
+            public IncomingREG create(MsnProtocol protocol) {
+                return new IncomingREG(protocol);
+            }
+        });
+        table.put("CAL", new MsnCommandTable.Creator<IncomingCAL>() {
+            public IncomingCAL create(MsnProtocol protocol) {
+                return new IncomingCAL(protocol);
+            }
+        });
+        table.put("JOI", new MsnCommandTable.Creator<IncomingJOI>() {
+            public IncomingJOI create(MsnProtocol protocol) {
+                return new IncomingJOI(protocol);
+            }
+        });
+        table.put("BYE", new MsnCommandTable.Creator<IncomingBYE>() {
+            public IncomingBYE create(MsnProtocol protocol) {
+                return new IncomingBYE(protocol);
+            }
+        });
+        table.put("RNG", new MsnCommandTable.Creator<IncomingRNG>() {
+            public IncomingRNG create(MsnProtocol protocol) {
+                return new IncomingRNG(protocol);
+            }
+        });
+        table.put("ANS", new MsnCommandTable.Creator<IncomingANS>() {
+            public IncomingANS create(MsnProtocol protocol) {
+                return new IncomingANS(protocol);
+            }
+        });
+        table.put("IRO", new MsnCommandTable.Creator<IncomingIRO>() {
+            public IncomingIRO create(MsnProtocol protocol) {
+                return new IncomingIRO(protocol);
+            }
+        });
+        table.put("ACK", new MsnCommandTable.Creator<IncomingACK>() {
+            public IncomingACK create(MsnProtocol protocol) {
+                return new IncomingACK(protocol);
+            }
+        });
+        table.put("NAK", new MsnCommandTable.Creator<IncomingNAK>() {
+            public IncomingNAK create(MsnProtocol protocol) {
+                return new IncomingNAK(protocol);
+            }
+        });
+        table.put("BPR", new MsnCommandTable.Creator<IncomingBPR>() {
+            public IncomingBPR create(MsnProtocol protocol) {
+                return new IncomingBPR(protocol);
+            }
+        });
+        table.put("ADC", new MsnCommandTable.Creator<IncomingADC>() {
+            public IncomingADC create(MsnProtocol protocol) {
+                return new IncomingADC(protocol);
+            }
+        });
+        table.put("SBS", new MsnCommandTable.Creator<IncomingSBS>() {
+            public IncomingSBS create(MsnProtocol protocol) {
+                return new IncomingSBS(protocol);
+            }
+        });
+        table.put("URL", new MsnCommandTable.Creator<IncomingURL>() {
+            public IncomingURL create(MsnProtocol protocol) {
+                return new IncomingURL(protocol);
+            }
+        });
+        table.put("UBX", new MsnCommandTable.Creator<IncomingUBX>() {
+            public IncomingUBX create(MsnProtocol protocol) {
+                return new IncomingUBX(protocol);
+            }
+        });
+        table.put("UUX", new MsnCommandTable.Creator<IncomingUUX>() {
+            public IncomingUUX create(MsnProtocol protocol) {
+                return new IncomingUUX(protocol);
+            }
+        });
+        table.put("NOT", new MsnCommandTable.Creator<IncomingNOT>() {
+            public IncomingNOT create(MsnProtocol protocol) {
+                return new IncomingNOT(protocol);
+            }
+        });
     }
 
-    private static final ByteBuffer SPLIT = Charset
-            .encode(JmlConstants.LINE_SEPARATOR);
-
     public static MsnMessageRecognizer getInstance() {
         return instance;
     }
@@ -139,44 +295,44 @@ final class MsnMessageRecognizer implements MessageRecognizer {
     private MsnMessageRecognizer() {
     }
 
-    public Message recognize(Session session, ByteBuffer buffer) {
-        if (ByteBufferUtils.indexOf(buffer, SPLIT) < 0)
-            return null;
-        if (buffer.remaining() < 3)
-            return null;
-        String charSequence = Charset.decode((ByteBuffer) buffer.limit(buffer
-                .position() + 3));
-
-        MsnMessenger messenger = ((MsnSession) session.getAttachment())
-                .getMessenger();
-        String key = charSequence.substring(0, 3);
-        Class<? extends MsnIncomingMessage> c = normalMappingMap.get(key);
+    public Message decode(Session session, ChunkedByteBuffer buffer) {
+        MsnSession msnSession = (MsnSession) session.getAttachment();
+        MsnFrameDecoder decoder = msnSession.getFrameDecoder();
+        while (true) {
+            int length = decoder.decode(buffer, msnSession.getMessenger());
+            if (length < 0)
+                return null;
+            ByteBuffer frame = buffer.getContiguous(length);
+            WrapperMessage message = new WrapperMessage(decoder.nextMessage());
+            boolean loaded = message.readFromBuffer(frame);
+            buffer.skip(length);
+            if (loaded)
+                return message;
+            //The frame doesn't match its command, skip it
+        }
+    }
 
-        MsnMessage message;
-        if (c != null)
-            message = getMessageInstance(c, messenger);
-        else if (NumberUtils.isDigits(key))
-            message = getMessageInstance(IncomingError.class, messenger);
+    /**
+     * Create the message of the command.
+     * 
+     * @param code
+     * 		the packed first 3 bytes of the command line, see
+     * {@link MsnCommandTable#code(byte, byte, byte)}
+     * @param messenger
+     * 		the messenger
+     * @return
+     * 		the message
+     */
+    static MsnMessage createMessage(int code, MsnMessenger messenger) {
+        MsnProtocol protocol = messenger.getActualMsnProtocol();
+        MsnMessage message = table.create(code, protocol);
+        if (message != null)
+            return message;
+        else if (MsnCommandTable.isErrorCode(code))
+            return new IncomingError(protocol);
         else
             //don't know how to parse this msg, just skip one line
-            message = new IncomingUnknown(messenger.getActualMsnProtocol());
-
-        return new WrapperMessage(message);
+            return new IncomingUnknown(protocol);
     }
 
-    private MsnMessage getMessageInstance(
-			Class<? extends MsnIncomingMessage> c, MsnMessenger messenger)
-	{
-		try
-		{
-			Constructor<? extends MsnIncomingMessage> constructor = c.getConstructor(MsnProtocol.class);
-			return constructor.newInstance(messenger.getActualMsnProtocol());
-		}
-		catch (Exception e)
-		{
-			((AbstractMessenger) messenger).fireExceptionCaught(e);
-		}
-		return null;
-	}
-
 }
\ No newline at end of file
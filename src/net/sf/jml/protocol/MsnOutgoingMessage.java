@@ -30,6 +30,30 @@ public abstract class MsnOutgoingMessage extends MsnMessage implements Serializa
         super(protocol);
     }
 
+    /**
+     * The message expects a response with its transaction id. If no
+     * response is received in time, the transaction is timed out.
+     * 
+     * @return
+     * 		is response expected
+     */
+    protected boolean isResponseExpected() {
+        return isSupportTransactionId();
+    }
+
+    /**
+     * The message may receive more than one response with its transaction
+     * id, so the transaction is kept until its timeout and the later
+     * responses are still correlated. Otherwise the transaction is removed
+     * with the first response.
+     * 
+     * @return
+     * 		is more than one response expected
+     */
+    protected boolean isMultiResponse() {
+        return false;
+    }
+
     /**
      * The message have been sent.
      * 
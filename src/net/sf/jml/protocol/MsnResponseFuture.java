@@ -0,0 +1,161 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.jml.protocol;
+
+import java.io.Serializable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The response of an outgoing message, correlated by its transaction id.
+ * Completes with the first response received, which may be an
+ * {@link net.sf.jml.protocol.incoming.IncomingError IncomingError}. If no
+ * response is received before the transaction timeout, get throws an
+ * ExecutionException caused by a TimeoutException. Messages which expect
+ * no response complete with null when the timeout passed. The chunk data
+ * of a responded request is released, as it have been sent.
+ * 
+ * @author Roger Chen
+ */
+public final class MsnResponseFuture implements Future<MsnIncomingMessage>,
+        Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final MsnOutgoingMessage request;
+    private final TransactionTable table; //null if not tracked
+    private final long deadline;
+
+    private boolean done;
+    private boolean cancelled;
+    private MsnIncomingMessage response;
+    private Throwable failure;
+
+    MsnResponseFuture(MsnOutgoingMessage request, TransactionTable table,
+            long deadline) {
+        this.request = request;
+        this.table = table;
+        this.deadline = deadline;
+    }
+
+    public MsnOutgoingMessage getRequest() {
+        return request;
+    }
+
+    long getDeadline() {
+        return deadline;
+    }
+
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * No response have been received before the transaction timeout.
+     * 
+     * @return
+     * 		is timed out
+     */
+    public synchronized boolean isTimedOut() {
+        return failure instanceof TimeoutException;
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (done)
+                return false;
+            cancelled = true;
+            done = true;
+            notifyAll();
+        }
+        if (table != null)
+            table.finished(this, false);
+        return true;
+    }
+
+    public synchronized MsnIncomingMessage get() throws InterruptedException,
+            ExecutionException {
+        while (!done)
+            wait();
+        return getResult();
+    }
+
+    public synchronized MsnIncomingMessage get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        while (!done) {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0)
+                throw new TimeoutException();
+            wait(wait);
+        }
+        return getResult();
+    }
+
+    private MsnIncomingMessage getResult() throws ExecutionException {
+        if (cancelled)
+            throw new CancellationException();
+        if (failure != null)
+            throw new ExecutionException(failure);
+        return response;
+    }
+
+    /**
+     * Complete with the response, only the first invocation takes effect.
+     */
+    boolean complete(MsnIncomingMessage response) {
+        synchronized (this) {
+            if (done)
+                return false;
+            this.response = response;
+            done = true;
+            notifyAll();
+        }
+        if (table != null)
+            table.finished(this, response != null);
+        return true;
+    }
+
+    /**
+     * Complete with the failure, only the first invocation takes effect.
+     */
+    boolean fail(Throwable failure) {
+        synchronized (this) {
+            if (done)
+                return false;
+            this.failure = failure;
+            done = true;
+            notifyAll();
+        }
+        if (table != null)
+            table.finished(this, false);
+        return true;
+    }
+
+    @Override
+	public String toString() {
+        return "MsnResponseFuture [" + request.getCommand() + " "
+                + request.getTransactionId() + "] "
+                + (done ? (failure != null ? failure.toString() : String
+                        .valueOf(response)) : "pending");
+    }
+}
@@ -51,10 +51,12 @@ public final class MsnSession implements Serializable {
     private final MsnSwitchboard switchboard;
 
     private final TransactionId trId = new TransactionId();
+    private final TransactionTable transactions = new TransactionTable();
     private final MsnMessageChainImpl outgoingChain = new MsnMessageChainImpl(
             JmlConstants.MESSAGE_CHAIN_LENGTH);
     private final MsnMessageChainImpl incomingChain = new MsnMessageChainImpl(
             JmlConstants.MESSAGE_CHAIN_LENGTH);
+    private final MsnFrameDecoder frameDecoder = new MsnFrameDecoder();
 
     public MsnSession(final MsnMessenger messenger, SocketAddress address) {
         this.messenger = messenger;
@@ -72,7 +74,11 @@ public final class MsnSession implements Serializable {
 
     private void init() {
         session.setAttachment(this);
-        session.setMessageRecognizer(MsnMessageRecognizer.getInstance());
+        session.setEventGenerator(MsnEventGenerator.getInstance());
+        session.getPipeline().addLast("decoder",
+                MsnMessageRecognizer.getInstance());
+        session.getPipeline().addLast("encoder",
+                MsnMessageEncoder.getInstance());
         session.addSessionListener(new SessionAdapter() {
 
             private String getConnectionType() {
@@ -90,8 +96,12 @@ public final class MsnSession implements Serializable {
                 MsnIncomingMessage incoming = (MsnIncomingMessage) ((WrapperMessage) message)
                         .getMessage();
                 incomingChain.addMsnMessage(incoming);
-                if (incoming.getTransactionId() > 0
-                        || (incoming instanceof IncomingQNG)) {
+                MsnResponseFuture future = null;
+                if (incoming.getTransactionId() > 0) {
+                    future = transactions.get(incoming.getTransactionId());
+                    if (future != null)
+                        incoming.setOutgoingMessage(future.getRequest());
+                } else if (incoming instanceof IncomingQNG) { //PNG have no transaction id
                     int trId = incoming.getTransactionId();
                     for (MsnMessageIterator iter = outgoingChain.iterator(); iter
                             .hasPrevious();) {
@@ -117,10 +127,15 @@ public final class MsnSession implements Serializable {
                     } catch (Exception e) { //Protect catch
                         exceptionCaught(session, e);
                     }
+
+                if (future != null)
+                    future.complete(incoming);
             }
 
             @Override
 			public void messageSent(Session session, Message message) {
+                MsnMessageEncoder.getInstance().release(
+                        (WrapperMessage) message);
                 if (messenger.isLogOutgoing()) {
                     log.info(messenger.getOwner().getEmail() + " "
                             + getConnectionType() + " >>> "
@@ -137,6 +152,11 @@ public final class MsnSession implements Serializable {
                 }
             }
 
+            @Override
+			public void sessionClosed(Session session) {
+                transactions.close();
+            }
+
             @Override
 			public void exceptionCaught(Session session, Throwable cause) {
                 ((AbstractMessenger) messenger).fireExceptionCaught(cause);
@@ -169,7 +189,13 @@ public final class MsnSession implements Serializable {
         return session.isAvailable();
     }
 
+    MsnFrameDecoder getFrameDecoder() {
+        return frameDecoder;
+    }
+
     public void start() {
+        frameDecoder.reset(); //A new connection
+        transactions.start();
         session.start(false);
     }
 
@@ -177,23 +203,95 @@ public final class MsnSession implements Serializable {
         session.close(false);
     }
 
-    public void sendAsynchronousMessage(MsnOutgoingMessage message) {
-        if (message != null) {
-            if (message.isSupportTransactionId())
-                message.setTransactionId(trId.nextTransactionId());
+    /**
+     * Send the message without waiting.
+     * 
+     * @param message
+     * 		the message
+     * @return
+     * 		the future of the response, see
+     * {@link #sendAsynchronousMessage(MsnOutgoingMessage, long)}
+     */
+    public MsnResponseFuture sendAsynchronousMessage(MsnOutgoingMessage message) {
+        return sendAsynchronousMessage(message,
+                JmlConstants.TRANSACTION_TIMEOUT);
+    }
+
+    /**
+     * Send the message without waiting.
+     * 
+     * @param message
+     * 		the message
+     * @param timeout
+     * 		max wait time for the response, in millisecond
+     * @return
+     * 		the future of the response, null if message is null. Messages
+     * without transaction id complete with null immediately.
+     */
+    public MsnResponseFuture sendAsynchronousMessage(
+            MsnOutgoingMessage message, long timeout) {
+        if (message == null)
+            return null;
+        MsnResponseFuture future = register(message, timeout);
+        try {
             session.write(new WrapperMessage(message));
+        } catch (RuntimeException e) {
+            unregister(future, e);
+            throw e;
         }
+        return future;
     }
 
     public boolean sendSynchronousMessage(MsnOutgoingMessage message) {
         if (message != null) {
-            if (message.isSupportTransactionId())
-                message.setTransactionId(trId.nextTransactionId());
-            return session.blockWrite(new WrapperMessage(message));
+            MsnResponseFuture future = register(message,
+                    JmlConstants.TRANSACTION_TIMEOUT);
+            try {
+                return session.blockWrite(new WrapperMessage(message));
+            } catch (RuntimeException e) {
+                unregister(future, e);
+                throw e;
+            }
         }
         return false;
     }
 
+    private MsnResponseFuture register(MsnOutgoingMessage message,
+            long timeout) {
+        if (!message.isSupportTransactionId()) {
+            MsnResponseFuture future = new MsnResponseFuture(message, null, 0);
+            future.complete(null);
+            return future;
+        }
+        message.setTransactionId(trId.nextTransactionId());
+        return transactions.register(message, timeout);
+    }
+
+    private void unregister(MsnResponseFuture future, Throwable cause) {
+        transactions.remove(future);
+        future.fail(cause);
+    }
+
+    /**
+     * Get count of the sent messages which are waiting for response.
+     * 
+     * @return
+     * 		in-flight transaction count
+     */
+    public int getInFlightTransactionCount() {
+        return transactions.getInFlightCount();
+    }
+
+    /**
+     * Get count of the sent messages which received no response in time.
+     * 
+     * @return
+     * 		timed out transaction count
+     */
+    public long getTimedOutTransactionCount() {
+        return transactions.getTimedOutCount();
+    }
+
     public void addSessionListener(SessionListener listener) {
         session.addSessionListener(listener);
     }
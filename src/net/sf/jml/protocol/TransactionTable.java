@@ -0,0 +1,174 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.jml.protocol;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pending transactions of a MsnSession, keyed by transaction id. A
+ * transaction is removed with its first response, except the requests
+ * which have more than one response stay in the table until their
+ * timeout, so the later responses with the same transaction id are still
+ * correlated. Expired transactions are swept every second by a timer
+ * thread shared by all sessions.
+ * 
+ * @author Roger Chen
+ */
+final class TransactionTable implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private static final long SWEEP_INTERVAL = 1000;
+
+    private static final ScheduledExecutorService sweeper = Executors
+            .newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "JML Transaction Sweeper");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final Map<Integer, MsnResponseFuture> transactions = new ConcurrentHashMap<Integer, MsnResponseFuture>();
+    private final AtomicInteger inFlightCount = new AtomicInteger();
+    private final AtomicLong timedOutCount = new AtomicLong();
+
+    private transient ScheduledFuture<?> sweepTask;
+
+    /**
+     * Start sweeping expired transactions.
+     */
+    synchronized void start() {
+        if (sweepTask == null)
+            sweepTask = sweeper.scheduleWithFixedDelay(new Runnable() {
+
+                public void run() {
+                    sweep(System.currentTimeMillis());
+                }
+            }, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop sweeping, fail all transactions not responded.
+     */
+    void close() {
+        synchronized (this) {
+            if (sweepTask != null) {
+                sweepTask.cancel(false);
+                sweepTask = null;
+            }
+        }
+        for (Iterator<MsnResponseFuture> iter = transactions.values()
+                .iterator(); iter.hasNext();) {
+            MsnResponseFuture future = iter.next();
+            iter.remove();
+            future.fail(new IllegalStateException("session closed"));
+        }
+    }
+
+    /**
+     * Add a transaction for the request, which transaction id have been
+     * set.
+     * 
+     * @param request
+     * 		the request
+     * @param timeout
+     * 		max wait time for the response, in millisecond
+     * @return
+     * 		the response future
+     */
+    MsnResponseFuture register(MsnOutgoingMessage request, long timeout) {
+        MsnResponseFuture future = new MsnResponseFuture(request, this, System
+                .currentTimeMillis()
+                + timeout);
+        if (request.isResponseExpected())
+            inFlightCount.incrementAndGet();
+        transactions.put(request.getTransactionId(), future);
+        return future;
+    }
+
+    /**
+     * Get the transaction.
+     * 
+     * @param trId
+     * 		transaction id
+     * @return
+     * 		the response future, null if not found or expired
+     */
+    MsnResponseFuture get(int trId) {
+        return transactions.get(trId);
+    }
+
+    /**
+     * Remove the transaction before it expired, used when the request
+     * failed to be sent.
+     */
+    void remove(MsnResponseFuture future) {
+        transactions.remove(future.getRequest().getTransactionId(), future);
+    }
+
+    /**
+     * Invoked once by the future when it completed. The transaction is
+     * removed unless more responses are expected, and the chunk data of a
+     * responded request is released, the request must have been sent.
+     * 
+     * @param responded
+     * 		completed with a response
+     */
+    void finished(MsnResponseFuture future, boolean responded) {
+        MsnOutgoingMessage request = future.getRequest();
+        if (request.isResponseExpected())
+            inFlightCount.decrementAndGet();
+        if (!request.isMultiResponse()) {
+            transactions.remove(request.getTransactionId(), future);
+            if (responded)
+                request.releaseChunkData();
+        }
+    }
+
+    void sweep(long now) {
+        for (Iterator<MsnResponseFuture> iter = transactions.values()
+                .iterator(); iter.hasNext();) {
+            MsnResponseFuture future = iter.next();
+            if (now < future.getDeadline())
+                continue;
+            iter.remove();
+            if (!future.getRequest().isResponseExpected())
+                future.complete(null);
+            else if (future.fail(new TimeoutException("no response in time")))
+                timedOutCount.incrementAndGet();
+        }
+    }
+
+    int getInFlightCount() {
+        return inFlightCount.get();
+    }
+
+    long getTimedOutCount() {
+        return timedOutCount.get();
+    }
+}
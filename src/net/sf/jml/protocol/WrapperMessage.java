@@ -27,6 +27,7 @@ import net.sf.cindy.Message;
 public final class WrapperMessage implements Message {
 
     private final MsnMessage message;
+    private ByteBuffer encoded; //borrowed from the buffer pool by MsnMessageEncoder
 
     public WrapperMessage(MsnMessage message) {
         this.message = message;
@@ -44,6 +45,14 @@ public final class WrapperMessage implements Message {
         return message.save();
     }
 
+    ByteBuffer getEncoded() {
+        return encoded;
+    }
+
+    void setEncoded(ByteBuffer encoded) {
+        this.encoded = encoded;
+    }
+
     @Override
 	public String toString() {
         return message.toString();
@@ -16,41 +16,61 @@
 package net.sf.jml.protocol.msnftp;
 
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
 
 import net.sf.cindy.Message;
-import net.sf.cindy.MessageRecognizer;
+import net.sf.cindy.MessageDecoder;
 import net.sf.cindy.Session;
-import net.sf.cindy.util.ByteBufferUtils;
+import net.sf.cindy.util.ChunkedByteBuffer;
 import net.sf.jml.MsnFileTransfer;
 import net.sf.jml.MsnMessenger;
 import net.sf.jml.MsnProtocol;
-import net.sf.jml.impl.AbstractMessenger;
+import net.sf.jml.protocol.MsnCommandTable;
 import net.sf.jml.protocol.MsnMessage;
 import net.sf.jml.protocol.WrapperMessage;
-import net.sf.jml.util.Charset;
-import net.sf.jml.util.JmlConstants;
 
 /**
- * MSNFTP message recognizer.
+ * MSNFTP message recognizer, the decoder stage of a msnftp session
+ * pipeline.
  * 
  * @author Roger Chen
  */
-final class MsnftpMessageRecognizer implements MessageRecognizer {
+final class MsnftpMessageRecognizer implements MessageDecoder {
 
-    private static final ByteBuffer SPLIT = Charset
-            .encode(JmlConstants.LINE_SEPARATOR);
+    private static final byte[] SPLIT = { '\r', '\n' };
 
-    private static final Map<String, Class<? extends MsnftpMessage>> mappingMap = new HashMap<String, Class<? extends MsnftpMessage>>();
+    private static final MsnCommandTable<MsnftpMessage> table = new MsnCommandTable<MsnftpMessage>(6);
 
     static {
-        mappingMap.put("VER", MsnftpVER.class);
-        mappingMap.put("USR", MsnftpUSR.class);
-        mappingMap.put("FIL", MsnftpFIL.class);
-        mappingMap.put("CCL", MsnftpCCL.class);
-        mappingMap.put("BYE", MsnftpBYE.class);
-        mappingMap.put("TFR", MsnftpTFR.class);
+        table.put("VER", new MsnCommandTable.Creator<MsnftpVER>() {
+            public MsnftpVER create(MsnProtocol protocol) {
+                return new MsnftpVER(protocol);
+            }
+        });
+        table.put("USR", new MsnCommandTable.Creator<MsnftpUSR>() {
+            public MsnftpUSR create(MsnProtocol protocol) {
+                return new MsnftpUSR(protocol);
+            }
+        });
+        table.put("FIL", new MsnCommandTable.Creator<MsnftpFIL>() {
+            public MsnftpFIL create(MsnProtocol protocol) {
+                return new MsnftpFIL(protocol);
+            }
+        });
+        table.put("CCL", new MsnCommandTable.Creator<MsnftpCCL>() {
+            public MsnftpCCL create(MsnProtocol protocol) {
+                return new MsnftpCCL(protocol);
+            }
+        });
+        table.put("BYE", new MsnCommandTable.Creator<MsnftpBYE>() {
+            public MsnftpBYE create(MsnProtocol protocol) {
+                return new MsnftpBYE(protocol);
+            }
+        });
+        table.put("TFR", new MsnCommandTable.Creator<MsnftpTFR>() {
+            public MsnftpTFR create(MsnProtocol protocol) {
+                return new MsnftpTFR(protocol);
+            }
+        });
     }
 
     private static MsnftpMessageRecognizer instance = new MsnftpMessageRecognizer();
@@ -62,9 +82,7 @@ final class MsnftpMessageRecognizer implements MessageRecognizer {
     private MsnftpMessageRecognizer() {
     }
 
-    public Message recognize(Session session, ByteBuffer buffer) {
-        if (ByteBufferUtils.indexOf(buffer, SPLIT) < 0)
-            return null;
+    public Message decode(Session session, ChunkedByteBuffer buffer) {
         if (buffer.remaining() < 3)
             return null;
 
@@ -72,30 +90,27 @@ final class MsnftpMessageRecognizer implements MessageRecognizer {
                 .getMessenger();
         final MsnMessage message;
 
-        byte start = buffer.get(buffer.position());
-        if (start == 0 || start == 1) { //is msnftpContent
+        byte start = buffer.get(0);
+        if (start == 0 || start == 1) { //is msnftpContent, binary
             message = new MsnftpContent(messenger.getActualMsnProtocol());
         } else {
-            String key = Charset.decode((ByteBuffer) buffer.limit(buffer
-                    .position() + 3));
-            Class<? extends MsnftpMessage> c = mappingMap.get(key);
-            if (c == null) {
+            if (buffer.indexOf(SPLIT, 3) < 0) //Command line not completed
+                return null;
+            message = table.create(MsnCommandTable.code(buffer.get(0),
+                    buffer.get(1), buffer.get(2)), messenger
+                    .getActualMsnProtocol());
+            if (message == null) { //Unknown command
                 session.close(false);
                 return null;
             }
-            message = getMessageInstance(c, messenger);
         }
-        return new WrapperMessage(message);
-    }
 
-    private MsnMessage getMessageInstance(Class<? extends MsnftpMessage> c, MsnMessenger messenger) {
-        try {
-            return c.getConstructor(
-                    MsnProtocol.class).newInstance(
-                    messenger.getActualMsnProtocol());
-        } catch (Exception e) {
-            ((AbstractMessenger) messenger).fireExceptionCaught(e);
+        WrapperMessage wrapper = new WrapperMessage(message);
+        ByteBuffer frame = buffer.getContiguous(buffer.remaining());
+        int position = frame.position();
+        if (!wrapper.readFromBuffer(frame))
             return null;
-        }
+        buffer.skip(frame.position() - position);
+        return wrapper;
     }
 }
\ No newline at end of file
@@ -22,6 +22,7 @@ import net.sf.cindy.impl.SocketSession;
 import net.sf.jml.MsnFileTransfer;
 import net.sf.jml.MsnMessenger;
 import net.sf.jml.impl.AbstractMessenger;
+import net.sf.jml.protocol.MsnEventGenerator;
 import net.sf.jml.protocol.WrapperMessage;
 
 import org.apache.commons.logging.Log;
@@ -44,7 +45,9 @@ public class MsnftpSession {
         this.transfer = transfer;
         session.setSessionTimeout(DEFAULT_TIMEOUT);
         session.setAttachment(transfer);
-        session.setMessageRecognizer(MsnftpMessageRecognizer.getInstance());
+        session.setEventGenerator(MsnEventGenerator.getInstance());
+        session.getPipeline().addLast("decoder",
+                MsnftpMessageRecognizer.getInstance());
 
         final MsnMessenger messenger = transfer.getMessenger();
         session.addSessionListener(new SessionAdapter() {
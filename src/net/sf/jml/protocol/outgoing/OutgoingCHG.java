@@ -44,6 +44,15 @@ public class OutgoingCHG extends MsnOutgoingMessage implements Serializable {
         setCommand("CHG");
     }
 
+    /**
+     * ILN of the contacts online follow the CHG response with its
+     * transaction id.
+     */
+    @Override
+	protected boolean isMultiResponse() {
+        return true;
+    }
+
     public boolean isFirstSend() {
         return firstSend;
     }
@@ -18,6 +18,7 @@ package net.sf.jml.protocol.outgoing;
 import java.io.Serializable;
 
 import net.sf.jml.MsnProtocol;
+import net.sf.jml.protocol.MsnChunk;
 import net.sf.jml.protocol.MsnOutgoingMessage;
 
 /**
@@ -86,6 +87,17 @@ public class OutgoingMSG extends MsnOutgoingMessage implements Serializable {
         return true;
     }
 
+    /**
+     * Only acknowledged when sent with type A or D, type N is acknowledged
+     * when the message was not received.
+     */
+    @Override
+	protected boolean isResponseExpected() {
+        String type = getParam(0);
+        return TYPE_ACKNOWLEDGE_ALL.toString().equals(type)
+                || TYPE_MSNC1.toString().equals(type);
+    }
+
     public void setMsgType(MsgType type) {
         if (type != null)
             setParam(0, type.toString());
@@ -95,4 +107,14 @@ public class OutgoingMSG extends MsnOutgoingMessage implements Serializable {
         setChunkData(msg);
     }
 
+    /**
+     * Set the message which is written straight into the send buffer.
+     * 
+     * @param msg
+     * 		the message
+     */
+    public void setMsg(MsnChunk msg) {
+        setChunkData(msg);
+    }
+
 }
@@ -42,6 +42,15 @@ public class OutgoingSYN extends MsnOutgoingMessage implements Serializable {
         setCommand("SYN");
     }
 
+    /**
+     * The contact list follows the SYN response, with its transaction id
+     * before MSNP10.
+     */
+    @Override
+	protected boolean isMultiResponse() {
+        return true;
+    }
+
     public void setCachedVersion(String version) {
         if (version == null) {
             if (protocol.before(MsnProtocol.MSNP10)) {
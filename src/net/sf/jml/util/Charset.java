@@ -49,6 +49,91 @@ public class Charset {
         return b;
     }
 
+    /**
+     * Get the length of the encoded chars, without encoding them. The
+     * default encoding is UTF-8, a malformed surrogate is encoded as '?'.
+     * 
+     * @param s
+     * 		the string
+     * @param start
+     * 		index of the first char
+     * @param end
+     * 		index after the last char
+     * @return
+     * 		encoded length
+     */
+    public static int encodedLength(String s, int start, int end) {
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80)
+                length++;
+            else if (c < 0x800)
+                length += 2;
+            else if (isSurrogatePair(s, i, end)) {
+                length += 4;
+                i++;
+            } else if (Character.isHighSurrogate(c)
+                    || Character.isLowSurrogate(c))
+                length++;
+            else
+                length += 3;
+        }
+        return length;
+    }
+
+    public static int encodedLength(String s) {
+        return encodedLength(s, 0, s.length());
+    }
+
+    /**
+     * Encode the chars straight into the buffer, same as
+     * {@link #encode(String)} but without intermediate buffer.
+     * 
+     * @param s
+     * 		the string
+     * @param start
+     * 		index of the first char
+     * @param end
+     * 		index after the last char
+     * @param buffer
+     * 		the buffer, must have {@link #encodedLength(String, int, int)}
+     * remaining bytes
+     */
+    public static void encode(String s, int start, int end, ByteBuffer buffer) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (isSurrogatePair(s, i, end)) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buffer.put((byte) (0xF0 | (cp >> 18)));
+                buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isHighSurrogate(c)
+                    || Character.isLowSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    public static void encode(String s, ByteBuffer buffer) {
+        encode(s, 0, s.length(), buffer);
+    }
+
+    private static boolean isSurrogatePair(String s, int index, int end) {
+        return Character.isHighSurrogate(s.charAt(index)) && index + 1 < end
+                && Character.isLowSurrogate(s.charAt(index + 1));
+    }
+
     public static String decode(ByteBuffer buffer) {
         return charsetUtils.decode(buffer).toString();
     }
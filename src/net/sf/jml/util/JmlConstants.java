@@ -44,4 +44,17 @@ public final class JmlConstants {
     public static final int MESSAGE_CHAIN_LENGTH = Integer.getInteger(
             "net.sf.jml.messageChainLength", 20);
 
+    /**
+     * Max wait time for the response of an outgoing message, in millisecond.
+     */
+    public static final int TRANSACTION_TIMEOUT = Integer.getInteger(
+            "net.sf.jml.transactionTimeout", 60 * 1000);
+
+    /**
+     * The selector thread count shared by all sessions.
+     */
+    public static final int EVENT_GENERATOR_COUNT = Integer.getInteger(
+            "net.sf.jml.eventGeneratorCount", Runtime.getRuntime()
+                    .availableProcessors());
+
 }
\ No newline at end of file
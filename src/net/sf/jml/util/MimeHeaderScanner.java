@@ -0,0 +1,99 @@
+/*
+ * Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.jml.util;
+
+/**
+ * Scan the MIME headers of a message at byte level, so the message type can
+ * be judged without decoding the body, which may be binary.
+ *
+ * @author Roger Chen
+ */
+public final class MimeHeaderScanner {
+
+    private MimeHeaderScanner() {
+    }
+
+    /**
+     * Find the blank line which split the headers and the body.
+     *
+     * @param message
+     * 		message content
+     * @return
+     * 		index of the CRLFCRLF, -1 if not found
+     */
+    public static int indexOfHeaderEnd(byte[] message) {
+        for (int i = 0, end = message.length - 3; i < end; i++) {
+            if (message[i + 3] != '\n') {
+                if (message[i + 3] != '\r')
+                    i += 3; //none of the next 3 positions can start a CRLFCRLF
+                continue;
+            }
+            if (message[i] == '\r' && message[i + 1] == '\n'
+                    && message[i + 2] == '\r')
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the value of a header. The key is compared ignoring case, the
+     * whitespaces before the value are skipped.
+     *
+     * @param message
+     * 		message content
+     * @param headerEnd
+     * 		index of the header end, -1 means the whole message is header
+     * @param key
+     * 		header key
+     * @return
+     * 		header value, null if the header not exist
+     */
+    public static String getHeader(byte[] message, int headerEnd, String key) {
+        int end = headerEnd < 0 ? message.length : headerEnd;
+        int keyLen = key.length();
+        int lineStart = 0;
+        while (lineStart < end) {
+            int lineEnd = lineStart;
+            while (lineEnd < end && message[lineEnd] != '\r'
+                    && message[lineEnd] != '\n')
+                lineEnd++;
+            if (lineEnd - lineStart > keyLen
+                    && message[lineStart + keyLen] == ':'
+                    && matches(message, lineStart, key)) {
+                int valueStart = lineStart + keyLen + 1;
+                while (valueStart < lineEnd
+                        && (message[valueStart] == ' ' || message[valueStart] == '\t'))
+                    valueStart++;
+                return Charset.decode(message, valueStart, lineEnd
+                        - valueStart);
+            }
+            lineStart = lineEnd + 1;
+        }
+        return null;
+    }
+
+    private static boolean matches(byte[] message, int offset, String key) {
+        for (int i = 0; i < key.length(); i++) {
+            int b = message[offset + i];
+            char c = key.charAt(i);
+            if (b != c && Character.toLowerCase((char) b) != Character
+                    .toLowerCase(c))
+                return false;
+        }
+        return true;
+    }
+
+}
\ No newline at end of file